@@ -18,7 +18,16 @@ import org.junit.runners.Suite.SuiteClasses;
  *
  */
 @RunWith(Suite.class)
-@SuiteClasses({ DisplacementTest.class, ControllerTest.class, CreateTest.class, BrowseTest.class, FollowTest.class})
+@SuiteClasses({ DisplacementTest.class, ControllerTest.class, CreateTest.class, BrowseTest.class, FollowTest.class,
+    TourStoreTest.class, TourCodecTest.class, LibraryTest.class,
+    SearchIndexTest.class, SpatialIndexTest.class, SessionHostTest.class, TourGeometryTest.class,
+    LocationStreamTest.class, FleetEngineTest.class, GeofenceEngineTest.class,
+    TraceReplayTest.class, GeometryKernelTest.class,
+    MetricsTest.class,
+    TransitionLogTest.class,
+    ChunkRendererTest.class,
+    ChunkCodecTest.class,
+    OutputDeltaTest.class})
 public class AllTests {
 
     public static void main(String[] args) {
@@ -68,6 +77,57 @@ public class AllTests {
            case "controller":
                result = JUnitCore.runClasses(ControllerTest.class);
                break;
+           case "store":
+               result = JUnitCore.runClasses(TourStoreTest.class);
+               break;
+           case "codec":
+               result = JUnitCore.runClasses(TourCodecTest.class);
+               break;
+           case "library":
+               result = JUnitCore.runClasses(LibraryTest.class);
+               break;
+           case "search":
+               result = JUnitCore.runClasses(SearchIndexTest.class);
+               break;
+           case "spatial":
+               result = JUnitCore.runClasses(SpatialIndexTest.class);
+               break;
+           case "sessions":
+               result = JUnitCore.runClasses(SessionHostTest.class);
+               break;
+           case "geometry":
+               result = JUnitCore.runClasses(TourGeometryTest.class);
+               break;
+           case "stream":
+               result = JUnitCore.runClasses(LocationStreamTest.class);
+               break;
+           case "fleet":
+               result = JUnitCore.runClasses(FleetEngineTest.class);
+               break;
+           case "geofence":
+               result = JUnitCore.runClasses(GeofenceEngineTest.class);
+               break;
+           case "trace":
+               result = JUnitCore.runClasses(TraceReplayTest.class);
+               break;
+           case "kernel":
+               result = JUnitCore.runClasses(GeometryKernelTest.class);
+               break;
+           case "metrics":
+               result = JUnitCore.runClasses(MetricsTest.class);
+               break;
+           case "transitions":
+               result = JUnitCore.runClasses(TransitionLogTest.class);
+               break;
+           case "renderer":
+               result = JUnitCore.runClasses(ChunkRendererTest.class);
+               break;
+           case "chunkcodec":
+               result = JUnitCore.runClasses(ChunkCodecTest.class);
+               break;
+           case "delta":
+               result = JUnitCore.runClasses(OutputDeltaTest.class);
+               break;
             default:
                 result = JUnitCore.runClasses(AllTests.class);
         }
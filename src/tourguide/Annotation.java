@@ -3,11 +3,15 @@
  */
 package tourguide;
 
+import java.io.Serializable;
+
 /**
  * @author pbj
  *
  */
-public class Annotation {
+public class Annotation implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private String text;
     
     public static final Annotation DEFAULT = getDefault();
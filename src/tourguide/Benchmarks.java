@@ -0,0 +1,867 @@
+/**
+ *
+ */
+package tourguide;
+
+/** The class Benchmarks holds simple timing runs for the
+ *  performance sensitive parts of the app.
+ *
+ *  Usage: java tourguide.Benchmarks [benchmark]
+ *  The controller hot paths are measured by ControllerBenchmarks.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class Benchmarks {
+
+    private static final int LOOKUPS = 1000000;
+
+    // Keeps the JIT from discarding the measured work.
+    private static long sink;
+
+    public static void main(String[] args) {
+        Logger.getLogger("tourguide").setLevel(Level.OFF);
+
+        String benchmark = args.length > 0 ? args[0] : "all";
+        switch (benchmark) {
+            case "lookup":
+                lookup();
+                break;
+            case "load":
+                load();
+                break;
+            case "overview":
+                overview();
+                break;
+            case "startup":
+                startup();
+                break;
+            case "codec":
+                codec();
+                break;
+            case "concurrent":
+                concurrent();
+                break;
+            case "paging":
+                paging();
+                break;
+            case "search":
+                search();
+                break;
+            case "spatial":
+                spatial();
+                break;
+            case "sessions":
+                sessions();
+                break;
+            case "stream":
+                stream();
+                break;
+            case "fleet":
+                fleet();
+                break;
+            case "geofence":
+                geofence();
+                break;
+            case "replay":
+                replay();
+                break;
+            default:
+                lookup();
+                load();
+                overview();
+                startup();
+                codec();
+                concurrent();
+                paging();
+                search();
+                spatial();
+                sessions();
+                stream();
+                fleet();
+                geofence();
+                replay();
+        }
+        System.out.println("sink: " + sink);
+    }
+
+    /*
+     * Helpers for building libraries of a given size.
+     */
+
+    static String tourId(int i) {
+        return "T" + i;
+    }
+
+    static Tour makeTour(int i, int waypoints) {
+        Tour tour = new Tour(tourId(i), "Tour number " + i, new Annotation("Annotation of tour " + i));
+        for (int w = 0; w < waypoints; w++) {
+            tour.legs.add(new Leg(new Annotation("Leg " + w + " of tour " + i)));
+            tour.waypoints.add(new Waypoint(
+                    new Annotation("Waypoint " + w + " of tour " + i),
+                    new Location(i * 100.0 + w * 30.0, w * 30.0)));
+        }
+        return tour;
+    }
+
+    /** @return the bytes allocated so far by the calling thread. */
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static Library makeLibrary(int size, int waypoints) {
+        Library library = new Library();
+        for (int i = 0; i < size; i++) {
+            library.addTour(makeTour(i, waypoints));
+        }
+        return library;
+    }
+
+    /*
+     * Benchmarks
+     */
+
+    /** Lookup latency should stay flat as the library grows. */
+    static void lookup() {
+        System.out.println("lookup: ns per getTour");
+        for (int size = 10; size <= 1000000; size *= 10) {
+            Library library = makeLibrary(size, 1);
+            String[] ids = new String[1024];
+            for (int i = 0; i < ids.length; i++) {
+                // Fresh strings so that no lookup can succeed by reference.
+                ids[i] = new String(tourId((int) ((i * 7919L) % size)));
+            }
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++) {
+                    sink += library.getTour(ids[i & 1023]).waypoints.size();
+                }
+                long elapsed = System.nanoTime() - start;
+                if (round == 2) {
+                    System.out.printf("  %8d tours: %6.1f ns%n", size, (double) elapsed / LOOKUPS);
+                }
+            }
+        }
+    }
+
+    /** Bulk loading should grow as n log n with the number of tours. */
+    static void load() {
+        System.out.println("load: ms to add all tours");
+        for (int size = 1000; size <= 1000000; size *= 10) {
+            Tour[] tours = new Tour[size];
+            for (int i = 0; i < size; i++) {
+                tours[i] = makeTour(i, 1);
+            }
+            long start = System.nanoTime();
+            Library library = new Library();
+            for (Tour tour : tours) {
+                library.addTour(tour);
+            }
+            long elapsed = System.nanoTime() - start;
+            sink += library.size();
+            System.out.printf("  %8d tours: %8.1f ms%n", size, elapsed / 1e6);
+        }
+    }
+
+    /** Repeated overviews of an unchanged library should cost nothing. */
+    static void overview() {
+        System.out.println("overview: ns per showToursOverview");
+        for (int size = 1000; size <= 1000000; size *= 10) {
+            ControllerImp controller = new ControllerImp(10.0, 25.0);
+            for (int i = 0; i < size; i++) {
+                controller.library.addTour(makeTour(i, 1));
+            }
+            int calls = 100000;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < calls; i++) {
+                    controller.showToursOverview();
+                    sink += controller.getOutput().size();
+                }
+                long elapsed = System.nanoTime() - start;
+                if (round == 2) {
+                    System.out.printf("  %8d tours: %8.1f ns%n", size, (double) elapsed / calls);
+                }
+            }
+        }
+    }
+
+    /** Startup from a snapshot, both catalogue only and with every tour decoded. */
+    static void startup() {
+        System.out.println("startup: ms to open a stored library");
+        try {
+            for (int size = 1000; size <= 1000000; size *= 10) {
+                File dir = Files.createTempDirectory("tourstore").toFile();
+                try (TourStore store = new TourStore(dir)) {
+                    Library library = new Library(store);
+                    for (int i = 0; i < size; i++) {
+                        library.addTour(makeTour(i, 3));
+                    }
+                    library.compact();
+                }
+
+                long start = System.nanoTime();
+                try (TourStore store = new TourStore(dir)) {
+                    sink += store.loadCatalogue().size();
+                }
+                long catalogue = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                try (TourStore store = new TourStore(dir)) {
+                    sink += new Library(store).size();
+                }
+                long full = System.nanoTime() - start;
+
+                System.out.printf("  %8d tours: catalogue %8.1f ms, full %8.1f ms%n",
+                        size, catalogue / 1e6, full / 1e6);
+                for (File file : dir.listFiles()) {
+                    file.delete();
+                }
+                dir.delete();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** TourCodec against plain Java serialization, by size and decode time. */
+    static void codec() {
+        System.out.println("codec: bytes and us per tour");
+        try {
+            for (int waypoints = 10; waypoints <= 10000; waypoints *= 10) {
+                Tour tour = makeTour(1, waypoints);
+                byte[] encoded = TourCodec.encode(tour);
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(tour);
+                }
+                byte[] serialized = bytes.toByteArray();
+
+                int rounds = Math.max(10, 200000 / waypoints);
+                long codecDecode = 0;
+                long codecView = 0;
+                long javaDecode = 0;
+                for (int pass = 0; pass < 3; pass++) {
+                    long start = System.nanoTime();
+                    for (int r = 0; r < rounds; r++) {
+                        sink += TourCodec.decode(ByteBuffer.wrap(encoded)).waypoints.size();
+                    }
+                    codecDecode = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    for (int r = 0; r < rounds; r++) {
+                        TourCodec.View view = TourCodec.view(ByteBuffer.wrap(encoded));
+                        double sum = 0;
+                        for (int w = 0; w < view.waypointCount(); w++) {
+                            sum += view.easting(w) + view.northing(w);
+                        }
+                        sink += (long) sum;
+                    }
+                    codecView = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    for (int r = 0; r < rounds; r++) {
+                        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+                            sink += ((Tour) in.readObject()).waypoints.size();
+                        }
+                    }
+                    javaDecode = System.nanoTime() - start;
+                }
+                System.out.printf("  %6d waypoints: codec %8d B %9.1f us (coordinates only %7.1f us),"
+                        + " java %8d B %9.1f us%n",
+                        waypoints, encoded.length, codecDecode / 1e3 / rounds, codecView / 1e3 / rounds,
+                        serialized.length, javaDecode / 1e3 / rounds);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Read throughput against the number of reader threads, with a writer
+     *  adding a tour every millisecond.
+     */
+    static void concurrent() {
+        System.out.println("concurrent: million reads per second");
+        final int size = 100000;
+        final Library library = makeLibrary(size, 1);
+        int cores = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                final AtomicBoolean running = new AtomicBoolean(true);
+                final AtomicLong reads = new AtomicLong();
+                final int next = library.size();
+                List<Thread> workers = new ArrayList<Thread>();
+
+                Thread writer = new Thread(new Runnable() {
+                    public void run() {
+                        int i = next;
+                        while (running.get()) {
+                            library.addTour(makeTour(i++, 1));
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                });
+                for (int t = 0; t < threads; t++) {
+                    final int seed = t;
+                    workers.add(new Thread(new Runnable() {
+                        public void run() {
+                            long count = 0;
+                            long local = 0;
+                            int i = seed;
+                            while (running.get()) {
+                                i = i * 1103515245 + 12345;
+                                local += library.getTour(tourId((i >>> 1) % size)).waypoints.size();
+                                if ((++count & 65535) == 0) {
+                                    local += library.getOverview().overviewLines.size();
+                                }
+                            }
+                            reads.addAndGet(count);
+                            sink += local;
+                        }
+                    }));
+                }
+
+                writer.start();
+                for (Thread worker : workers) {
+                    worker.start();
+                }
+                Thread.sleep(2000);
+                running.set(false);
+                writer.join();
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                System.out.printf("  %3d readers: %8.1f%n", threads, reads.get() / 2e6);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Bytes allocated per browse request: the whole overview rendered as one
+     *  string, against a page of 50 and against streaming the page to a writer.
+     */
+    static void paging() {
+        System.out.println("paging: bytes allocated per request");
+        Writer discard = new Writer() {
+            public void write(char[] buffer, int offset, int length) {
+                sink += length;
+            }
+            public void flush() {
+            }
+            public void close() {
+            }
+        };
+        try {
+            for (int size = 1000; size <= 1000000; size *= 10) {
+                Library library = makeLibrary(size, 1);
+                String cursor = tourId(size / 2);
+                long whole = 0;
+                long page = 0;
+                long stream = 0;
+                for (int round = 0; round < 3; round++) {
+                    long start = allocatedBytes();
+                    sink += library.getOverview().toString().length();
+                    whole = allocatedBytes() - start;
+
+                    start = allocatedBytes();
+                    sink += library.getOverviewPage(cursor, 50).toString().length();
+                    page = allocatedBytes() - start;
+
+                    start = allocatedBytes();
+                    library.writeOverview(discard, cursor, 50);
+                    stream = allocatedBytes() - start;
+                }
+                System.out.printf("  %8d tours: whole %10d B, page %6d B, streamed page %6d B%n",
+                        size, whole, page, stream);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Query latency on a 100k-tour library whose text is drawn from
+     *  a vocabulary of 20k made-up words.
+     */
+    static void search() {
+        System.out.println("search: us per query on 100000 tours");
+        Random random = new Random(42);
+        String[] vocabulary = new String[20000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int c = 0; c < 4 + random.nextInt(6); c++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            vocabulary[i] = word.toString();
+        }
+
+        Library library = new Library();
+        for (int i = 0; i < 100000; i++) {
+            Tour tour = new Tour(tourId(i), sentence(random, vocabulary, 3),
+                    new Annotation(sentence(random, vocabulary, 12)));
+            for (int w = 0; w < 5; w++) {
+                tour.legs.add(new Leg(new Annotation(sentence(random, vocabulary, 6))));
+                tour.waypoints.add(new Waypoint(new Annotation(sentence(random, vocabulary, 4)),
+                        new Location(w * 30.0, 0)));
+            }
+            library.addTour(tour);
+        }
+
+        String[][] queries = new String[3][1000];
+        for (int q = 0; q < 1000; q++) {
+            String word = vocabulary[random.nextInt(vocabulary.length)];
+            queries[0][q] = word;
+            queries[1][q] = word.substring(0, 3);
+            queries[2][q] = word + " " + vocabulary[random.nextInt(vocabulary.length)].substring(0, 2);
+        }
+        String[] kinds = {"one word", "3-letter prefix", "word and prefix"};
+        for (int k = 0; k < kinds.length; k++) {
+            long elapsed = 0;
+            for (int round = 0; round < 20; round++) {
+                long start = System.nanoTime();
+                for (String query : queries[k]) {
+                    sink += library.search(query, 20).size();
+                }
+                elapsed = System.nanoTime() - start;
+            }
+            System.out.printf("  %-16s %8.1f us%n", kinds[k], elapsed / 1e3 / queries[k].length);
+        }
+    }
+
+    private static String sentence(Random random, String[] vocabulary, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(vocabulary[random.nextInt(vocabulary.length)]);
+        }
+        return sentence.toString();
+    }
+
+    /** Nearest and within-radius queries through the spatial index, against
+     *  a scan of every waypoint, for tours of 10 waypoints spread over 50 km.
+     */
+    static void spatial() {
+        System.out.println("spatial: us per query, index against scan");
+        Random random = new Random(42);
+        for (int waypoints : new int[] {1000, 100000, 1000000}) {
+            Library library = new Library();
+            List<Tour> tours = new ArrayList<Tour>();
+            for (int i = 0; i < waypoints / 10; i++) {
+                Tour tour = new Tour(tourId(i), "Tour " + i, new Annotation("About " + i));
+                double easting = random.nextDouble() * 50000;
+                double northing = random.nextDouble() * 50000;
+                for (int w = 0; w < 10; w++) {
+                    easting += random.nextDouble() * 200 - 100;
+                    northing += random.nextDouble() * 200 - 100;
+                    tour.legs.add(new Leg(Annotation.DEFAULT));
+                    tour.waypoints.add(new Waypoint(Annotation.DEFAULT, new Location(easting, northing)));
+                }
+                tours.add(tour);
+                library.addTour(tour);
+            }
+            double[] queries = new double[2000];
+            for (int q = 0; q < queries.length; q++) {
+                queries[q] = random.nextDouble() * 50000;
+            }
+
+            long nearest = 0;
+            long within = 0;
+            long scan = 0;
+            int scans = Math.min(200, 20000000 / waypoints);
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (int q = 0; q < queries.length; q += 2) {
+                    sink += library.nearestTours(queries[q], queries[q + 1], 10).size();
+                }
+                nearest = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int q = 0; q < queries.length; q += 2) {
+                    sink += library.toursWithin(queries[q], queries[q + 1], 500).size();
+                }
+                within = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int q = 0; q < 2 * scans; q += 2) {
+                    int found = 0;
+                    for (Tour tour : tours) {
+                        for (Waypoint waypoint : tour.waypoints) {
+                            Displacement d = new Displacement(waypoint.location.easting - queries[q],
+                                    waypoint.location.northing - queries[q + 1]);
+                            if (d.distance() <= 500) {
+                                found++;
+                                break;
+                            }
+                        }
+                    }
+                    sink += found;
+                }
+                scan = System.nanoTime() - start;
+            }
+            int count = queries.length / 2;
+            System.out.printf("  %8d waypoints: nearest 10 %8.1f us, within 500m %8.1f us, scan %10.1f us%n",
+                    waypoints, nearest / 1e3 / count, within / 1e3 / count, scan / 1e3 / scans);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** Time and retained heap per session, on a library of 100k tours. */
+    static void sessions() {
+        System.out.println("sessions: cost of starting a session");
+        Library library = makeLibrary(100000, 3);
+        library.getOverview();
+        int count = 100000;
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = "session-" + i;
+        }
+        for (int round = 0; round < 3; round++) {
+            SessionHost host = new SessionHost(library, 10.0, 25.0, 60000, Integer.MAX_VALUE);
+            long before = usedHeap();
+            long start = System.nanoTime();
+            for (String id : ids) {
+                sink += host.execute(id, c -> c.getOutput().size());
+            }
+            long elapsed = System.nanoTime() - start;
+            long after = usedHeap();
+            sink += host.size();
+            if (round == 2) {
+                System.out.printf("  %d sessions: %6.0f ns and %5d B each%n",
+                        count, (double) elapsed / count, (after - before) / count);
+            }
+        }
+    }
+
+    private static final int STREAM_SESSIONS = 2000;
+
+    /*
+     * Sends fixes round the sessions at the given rate for a second,
+     * a millisecond's worth at a time. Each session walks along its tour.
+     * @return the number of fixes sent.
+     */
+    private interface FixSink {
+        void send(String sessionId, double easting, double northing, long timestamp);
+    }
+
+    private static long sendAtRate(String[] ids, double rate, FixSink fixes) {
+        long start = System.nanoTime();
+        long sent = 0;
+        for (int tick = 1; tick <= 1000; tick++) {
+            long due = (long) (rate * tick / 1000);
+            for (; sent < due; sent++) {
+                int session = (int) (sent % ids.length);
+                long step = sent / ids.length;
+                fixes.send(ids[session], session * 100 + (step % 90) * 30, 0, step * 100);
+            }
+            long wait = start + tick * 1000000L - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        return sent;
+    }
+
+    private static long cpuTime(Thread thread) {
+        return ManagementFactory.getThreadMXBean().getThreadCpuTime(thread.getId());
+    }
+
+    static void stream() {
+        System.out.println("stream: a burst of ten times the fixes the host can take");
+        Library library = makeLibrary(STREAM_SESSIONS, 100);
+        final SessionHost host = new SessionHost(library, 10.0, 25.0, 600000, Integer.MAX_VALUE);
+        final String[] ids = new String[STREAM_SESSIONS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "session-" + i;
+            final String tour = tourId(i);
+            host.execute(ids[i], c -> {
+                c.setLocation(0, 0);
+                return c.followTour(tour);
+            });
+        }
+
+        // What the host takes when every fix is processed as it comes.
+        long fixes = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < 1000000000L) {
+            for (int i = 0; i < 1000; i++, fixes++) {
+                final double easting = (fixes % ids.length) * 100 + (fixes / ids.length % 90) * 30;
+                sink += host.execute(ids[(int) (fixes % ids.length)], c -> {
+                    c.setLocation(easting, 0);
+                    return c.getOutput().size();
+                });
+            }
+        }
+        double capacity = fixes * 1e9 / (System.nanoTime() - start);
+        System.out.printf("  processing every fix in turn: %,.0f fixes/s%n", capacity);
+
+        final Thread[] worker = new Thread[1];
+        ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+            worker[0] = new Thread(task, "stream-worker");
+            worker[0].setDaemon(true);
+            return worker[0];
+        });
+
+        // Every fix queued and processed in turn.
+        final LinkedBlockingQueue<LocationStream.Fix> queue = new LinkedBlockingQueue<LocationStream.Fix>();
+        final AtomicLong queued = new AtomicLong();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        executor.execute(() -> {
+            try {
+                while (running.get()) {
+                    final LocationStream.Fix fix = queue.take();
+                    sink += host.execute(fix.sessionId, c -> {
+                        c.setLocation(fix.easting, fix.northing, fix.timestamp);
+                        return c.getOutput().size();
+                    });
+                    queued.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                // Finished.
+            }
+        });
+        reportStream("unbounded queue", capacity, ids, worker[0], queued::get,
+                (id, e, n, t) -> queue.add(new LocationStream.Fix(id, e, n, t)), queue::size);
+        running.set(false);
+        queue.clear();
+        queue.add(new LocationStream.Fix(ids[0], 0, 0, Long.MAX_VALUE));
+
+        // The same fixes through a LocationStream: latest fix wins, bounded buffer.
+        // Room for a fix from every session. The source sends no more
+        // than the stream asks for and refuses the rest.
+        final LocationStream stream = new LocationStream(host, STREAM_SESSIONS, executor);
+        final AtomicLong demand = new AtomicLong();
+        stream.onSubscribe(new Flow.Subscription() {
+            public void request(long n) {
+                demand.addAndGet(n);
+            }
+            public void cancel() {
+            }
+        });
+        final AtomicLong dropped = new AtomicLong();
+        reportStream("location stream", capacity, ids, worker[0], stream::processed,
+                (id, e, n, t) -> {
+                    if (demand.get() > 0) {
+                        demand.decrementAndGet();
+                        stream.onNext(new LocationStream.Fix(id, e, n, t));
+                    } else {
+                        dropped.incrementAndGet();
+                    }
+                }, stream::waiting);
+        System.out.printf("  location stream: %,d fixes coalesced, %,d refused at the source%n",
+                stream.coalesced(), dropped.get());
+        stream.close();
+        executor.shutdown();
+    }
+
+    private static void reportStream(String name, double capacity, String[] ids, Thread worker,
+                                     LongSupplier processed, FixSink fixes, IntSupplier backlog) {
+        double[] rates = {capacity / 2, capacity * 10, 0};
+        String[] phases = {"normal", "burst", "after"};
+        for (int phase = 0; phase < rates.length; phase++) {
+            long cpuBefore = cpuTime(worker);
+            long processedBefore = processed.getAsLong();
+            long start = System.nanoTime();
+            long sent = sendAtRate(ids, rates[phase], fixes);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("  %-16s %-6s sent %,11.0f/s  processed %,11.0f/s  worker cpu %5.0f%%  backlog %,d%n",
+                    name, phases[phase], sent / seconds, (processed.getAsLong() - processedBefore) / seconds,
+                    (cpuTime(worker) - cpuBefore) / 1e7 / seconds, backlog.getAsInt());
+        }
+    }
+
+    /*
+     * A million followers, every one moving on each update, checked with
+     * ForkJoin pools of a growing number of threads.
+     */
+    static void fleet() {
+        System.out.println("fleet: one location update for a million followers");
+        int count = 1000000;
+        Library library = makeLibrary(1000, 100);
+
+        long before = usedHeap();
+        final FleetEngine fleet = new FleetEngine(library, 10.0, count);
+        for (int f = 0; f < count; f++) {
+            int tour = f % 1000;
+            fleet.follow(tourId(tour), tour * 100, 0);
+        }
+        System.out.printf("  %d B per follower%n", (usedHeap() - before) / count);
+
+        // Each follower steps along its tour, a waypoint every three updates.
+        final int updates = 30;
+        final double[][] eastings = new double[updates][count];
+        final double[][] northings = new double[updates][count];
+        for (int u = 0; u < updates; u++) {
+            for (int f = 0; f < count; f++) {
+                eastings[u][f] = (f % 1000) * 100 + u * 10;
+                northings[u][f] = u * 10;
+            }
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(cores);
+        for (int threads : threadCounts) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    pool.submit(() -> {
+                        for (int u = 0; u < updates; u++) {
+                            fleet.setLocations(eastings[u], northings[u]);
+                        }
+                    }).get();
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("  %2d threads: %6.2f ms per update, %6.1f ns per follower%n",
+                        threads, best / 1e6 / updates, (double) best / updates / count);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                pool.shutdown();
+            }
+            sink += fleet.stage(0);
+        }
+    }
+
+    /*
+     * Sessions wandering around waypoints, in libraries of a growing number of waypoints.
+     */
+    static void geofence() {
+        System.out.println("geofence: cost of a location update");
+        int updates = 1000000;
+        int sessions = 1000;
+        for (int size : new int[] {1000, 10000, 100000}) {
+            Library library = makeLibrary(size, 10);
+            GeofenceEngine geofence = new GeofenceEngine(library, 10.0);
+            Random random = new Random(16);
+            double[] eastings = new double[updates];
+            double[] northings = new double[updates];
+            for (int u = 0; u < updates; u++) {
+                int tour = random.nextInt(size);
+                int waypoint = random.nextInt(10);
+                eastings[u] = tour * 100 + waypoint * 30 + random.nextDouble() * 30 - 15;
+                northings[u] = waypoint * 30 + random.nextDouble() * 30 - 15;
+            }
+            String[] ids = new String[sessions];
+            for (int i = 0; i < sessions; i++) {
+                ids[i] = "session-" + i;
+            }
+            for (int round = 0; round < 3; round++) {
+                long events = 0;
+                long start = System.nanoTime();
+                for (int u = 0; u < updates; u++) {
+                    events += geofence.update(ids[u % sessions], eastings[u], northings[u]).size();
+                }
+                long elapsed = System.nanoTime() - start;
+                sink += events;
+                if (round == 2) {
+                    System.out.printf("  %,9d waypoints: %5.0f ns per update, %.2f events per update%n",
+                            size * 10, (double) elapsed / updates, (double) events / updates);
+                }
+            }
+        }
+    }
+
+    /** A recorded trace should replay at the speed of the controllers themselves,
+     *  and sending only output deltas should cut what goes out to the clients. */
+    static void replay() {
+        System.out.println("replay: a thousand sessions walking their tours, a fix a second each");
+        int sessions = 1000;
+        Library library = makeLibrary(sessions, 10);
+        final long[] now = {0};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Random random = new Random(17);
+        try (TraceRecorder recorder = new TraceRecorder(bytes, 10.0, 25.0, () -> now[0])) {
+            Controller[] controllers = new Controller[sessions];
+            for (int i = 0; i < sessions; i++) {
+                controllers[i] = recorder.record("session-" + i,
+                        new ControllerImp(10.0, 25.0, library));
+                controllers[i].setLocation(i * 100.0 - 20, -20);
+                controllers[i].followTour(tourId(i));
+            }
+            // Along the diagonal of the tours, 1.5 m a second with a few metres of noise.
+            for (int t = 0; t < 200; t++) {
+                now[0] += 1000;
+                for (int i = 0; i < sessions; i++) {
+                    double along = t * 1.5;
+                    controllers[i].setLocation(i * 100.0 - 20 + along + random.nextDouble() * 4 - 2,
+                            -20 + along + random.nextDouble() * 4 - 2, now[0]);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            TraceReplay.Trace trace = TraceReplay.read(new ByteArrayInputStream(bytes.toByteArray()));
+            System.out.printf("  %d fixes in %d bytes, %.1f bytes per fix%n",
+                    trace.fixes(), bytes.size(), (double) bytes.size() / trace.fixes());
+            TraceReplay.Report[] reports = new TraceReplay.Report[2];
+            for (int mode = 0; mode < 2; mode++) {
+                System.out.println(mode == 0 ? "  whole output after every fix:" : "  output deltas:");
+                for (int round = 0; round < 3; round++) {
+                    reports[mode] = TraceReplay.replay(trace, library, 0, mode == 1);
+                    sink += reports[mode].divergent;
+                }
+                System.out.print(reports[mode].toString().replaceAll("(?m)^", "    "));
+            }
+            // Every session is first sent the overview, whichever way.
+            ByteBuffer overview = ByteBuffer.allocate(1 << 20);
+            ChunkCodec.encode(Collections.<Chunk>singletonList(library.getOverview()), overview);
+            long overviews = (long) sessions * overview.position();
+            System.out.printf("  deltas send %.1f%% of the messages and %.1f%% of the bytes,"
+                    + " %.1f%% without the overview each session starts with%n",
+                    100.0 * reports[1].messages / reports[0].messages,
+                    100.0 * reports[1].bytesSent / reports[0].bytesSent,
+                    100.0 * (reports[1].bytesSent - overviews) / (reports[0].bytesSent - overviews));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
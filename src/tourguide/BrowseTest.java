@@ -266,5 +266,93 @@ public class BrowseTest {
         overview.addIdAndTitle("T5", "Informatics at UoE");
         checkOutput(1, 0, overview);
     }
-}
 
+    @Test
+    public void tourIdsIgnoreCase() {
+        logger.info(makeBanner("tourIdsIgnoreCase"));
+
+        createOnePointTour();
+
+        checkStatus(controller.showTourDetails("t1"));
+        checkOutput(1, 0, new Chunk.BrowseDetails(
+                "T1",
+                "Informatics at UoE",
+                ann("The Informatics Forum and Appleton Tower\n")
+        ));
+
+        checkStatus(controller.startNewTour("t1", "Duplicate", ann("Same id, other case\n")));
+        controller.setLocation(0, 0);
+        checkStatus(controller.addWaypoint(ann("Somewhere")));
+        checkStatusNotOK(controller.endNewTour());
+    }
+
+    @Test
+    public void detailsOfMissingTourAfterFound() {
+        logger.info(makeBanner("detailsOfMissingTourAfterFound"));
+
+        createOnePointTour();
+
+        checkStatus(controller.showTourDetails("T1"));
+        checkStatusNotOK(controller.showTourDetails("T9"));
+    }
+
+    @Test
+    public void pagedOverview() {
+        logger.info(makeBanner("pagedOverview"));
+
+        addOnePointTourSecond();
+        addTwoPointTour();
+        addOnePointTour();
+        createThreePointTourWithoutLegs();
+
+        checkStatus(controller.showToursOverview(null, 3));
+        Chunk.BrowseOverview overview = new Chunk.BrowseOverview();
+        overview.addIdAndTitle("T1", "Informatics at UoE");
+        overview.addIdAndTitle("T2", "Old Town");
+        overview.addIdAndTitle("T3", "Quick Royal Mile Walk");
+        checkOutput(1, 0, overview);
+
+        String cursor = ((Chunk.BrowsePage) controller.getOutput().get(0)).nextCursor;
+        Assert.assertEquals("T3", cursor);
+
+        checkStatus(controller.showToursOverview(cursor, 3));
+        overview = new Chunk.BrowseOverview();
+        overview.addIdAndTitle("T5", "Informatics at UoE");
+        checkOutput(1, 0, overview);
+        Assert.assertNull(((Chunk.BrowsePage) controller.getOutput().get(0)).nextCursor);
+
+        // Cursors are ids, so compare case-insensitively like them.
+        checkStatus(controller.showToursOverview("t1", 3));
+        overview = new Chunk.BrowseOverview();
+        overview.addIdAndTitle("T2", "Old Town");
+        overview.addIdAndTitle("T3", "Quick Royal Mile Walk");
+        overview.addIdAndTitle("T5", "Informatics at UoE");
+        checkOutput(1, 0, overview);
+
+        checkStatusNotOK(controller.showToursOverview(null, 0));
+    }
+
+    @Test
+    public void streamedOverview() throws java.io.IOException {
+        logger.info(makeBanner("streamedOverview"));
+
+        Library library = new Library();
+        StringBuilder empty = new StringBuilder();
+        Assert.assertNull(library.writeOverview(empty, null, 10));
+        Assert.assertEquals(new Chunk.BrowseOverview().toString(), empty.toString());
+
+        for (int i = 0; i < 5; i++) {
+            Tour tour = new Tour("T" + i, "Tour " + i, ann("About tour " + i));
+            library.addTour(tour);
+        }
+
+        StringBuilder streamed = new StringBuilder();
+        String cursor = library.writeOverview(streamed, null, 2);
+        Assert.assertEquals("T1", cursor);
+        cursor = library.writeOverview(streamed, cursor, 2);
+        Assert.assertEquals("T3", cursor);
+        Assert.assertNull(library.writeOverview(streamed, cursor, 2));
+
+        Assert.assertEquals(library.getOverview().toString(), streamed.toString());
+    }
+}
@@ -3,7 +3,9 @@
  */
 package tourguide;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -23,13 +25,22 @@ public class Chunk {
 
     private static final double EPS = 1.0;
 
+    /*
+     * A copy of this chunk that later output cannot change.
+     * Chunks the controller refills in place copy themselves; the rest
+     * are not changed once output, so are their own copy.
+     */
+    public Chunk copy() {
+        return this;
+    }
+
     /*
      * Chunk subclasses for BROWSE mode
      *
      */
     public static class OverviewLine {
-        public String id;
-        public String title;
+        public final String id;
+        public final String title;
 
         public OverviewLine(String id, String title) {
             this.id = id;
@@ -40,6 +51,10 @@ public class Chunk {
             return id + ": " + title + LS;
         }
 
+        public static void appendTo(Appendable out, String id, String title) throws IOException {
+            out.append(id).append(": ").append(title).append(LS);
+        }
+
         public boolean equals(Object o) {
             if (!(o instanceof OverviewLine)) return false;
             OverviewLine oOL = (OverviewLine) o;
@@ -50,25 +65,61 @@ public class Chunk {
 
     public static class BrowseOverview extends Chunk {
 
-        public List<OverviewLine> overviewLines;
+        public final List<OverviewLine> overviewLines;
+
+        // Whether lines can still be added, which only an overview being built allows.
+        private final boolean building;
 
         public BrowseOverview() {
             overviewLines = new ArrayList<OverviewLine>();
+            building = true;
+        }
+
+        /*
+         * An overview over a copy of the given lines that cannot be changed
+         * afterwards, so that one instance can be shared between many outputs.
+         */
+        public BrowseOverview(List<OverviewLine> lines) {
+            overviewLines = Collections.unmodifiableList(new ArrayList<OverviewLine>(lines));
+            building = false;
         }
 
+        /*
+         * Adds a line to an overview made empty to be built up line by line.
+         * An overview made over a list of lines may be shared, so is never changed.
+         */
         public void addIdAndTitle(String id, String title) {
+            if (!building) {
+                throw new UnsupportedOperationException("This overview may be shared and cannot be changed.");
+            }
             overviewLines.add(new OverviewLine(id,title));
         }
 
         public String toString() {
+            StringBuilder sb = new StringBuilder();
+            try {
+                writeTo(sb);
+            } catch (IOException e) {
+                // A StringBuilder never throws.
+            }
+            return sb.toString();
+        }
+
+        /*
+         * Writes the overview line by line, without building it as one string first.
+         */
+        public void writeTo(Appendable out) throws IOException {
             if (overviewLines.isEmpty()) {
-                return "NO TOURS TO SHOW" + LS;
+                writeEmpty(out);
+                return;
             }
-            StringBuffer sb = new StringBuffer();
             for (OverviewLine line : overviewLines) {
-                sb.append(line);
+                OverviewLine.appendTo(out, line.id, line.title);
             }
-            return sb.toString();
+        }
+
+        public static void writeEmpty(Appendable out) throws IOException {
+            out.append("NO TOURS TO SHOW").append(LS);
         }
 
         public boolean equals(Object o ) {
@@ -83,6 +134,19 @@ public class Chunk {
         }
     }
 
+    /*
+     * One page of the overview. nextCursor is the id to continue after,
+     * or null on the last page.
+     */
+    public static class BrowsePage extends BrowseOverview {
+        public final String nextCursor;
+
+        public BrowsePage(List<OverviewLine> lines, String nextCursor) {
+            super(lines);
+            this.nextCursor = nextCursor;
+        }
+    }
+
     public static class BrowseDetails extends Chunk {
         public String id;
         public String title;
@@ -121,6 +185,9 @@ public class Chunk {
         public String toString() {
             return String.format("%1$s  %2$d/%3$d%n",title, currentStage, numberWaypoints);
         }
+        public Chunk copy() {
+            return new FollowHeader(title, currentStage, numberWaypoints);
+        }
         public boolean equals(Object o) {
             if (!(o instanceof FollowHeader)) return false;
             FollowHeader oFH = (FollowHeader) o;
@@ -139,6 +206,9 @@ public class Chunk {
         public String toString() {
             return String.format("Current waypoint: %n%1$s", annotation);
         }
+        public Chunk copy() {
+            return new FollowWaypoint(annotation);
+        }
         public boolean equals(Object o) {
             if (!(o instanceof FollowWaypoint)) return false;
             FollowWaypoint oFW = (FollowWaypoint) o;
@@ -158,6 +228,9 @@ public class Chunk {
             return String.format("Leg to next waypoint:%n%1$s",
                     annotation);
         }
+        public Chunk copy() {
+            return new FollowLeg(annotation);
+        }
         public boolean equals(Object o) {
             if (!(o instanceof FollowLeg)) return false;
             FollowLeg oFL = (FollowLeg) o;
@@ -176,6 +249,9 @@ public class Chunk {
         public String toString() {
             return String.format("Next waypoint is on bearing %1$.0f degrees at %2$.0fm %n", bearing, distance);
         }
+        public Chunk copy() {
+            return new FollowBearing(bearing, distance);
+        }
         public boolean equals(Object o) {
             if (!(o instanceof FollowBearing)) return false;
             FollowBearing oFB = (FollowBearing) o;
@@ -183,6 +259,40 @@ public class Chunk {
                     within(distance, oFB.distance, EPS) ;
         }
     }
+    /*
+     * How far along the tour the user is. etaSeconds is NaN until
+     * the user's speed is known.
+     */
+    public static class FollowProgress extends Chunk {
+        public double percentComplete;
+        public double remainingDistance;
+        public double etaSeconds;
+
+        public FollowProgress(double percentComplete, double remainingDistance, double etaSeconds) {
+            this.percentComplete = percentComplete;
+            this.remainingDistance = remainingDistance;
+            this.etaSeconds = etaSeconds;
+        }
+        public String toString() {
+            if (Double.isNaN(etaSeconds)) {
+                return String.format("Tour %1$.0f%% complete, %2$.0fm to go %n",
+                        percentComplete, remainingDistance);
+            }
+            return String.format("Tour %1$.0f%% complete, %2$.0fm to go, about %3$.0f min left %n",
+                    percentComplete, remainingDistance, etaSeconds / 60);
+        }
+        public Chunk copy() {
+            return new FollowProgress(percentComplete, remainingDistance, etaSeconds);
+        }
+        public boolean equals(Object o) {
+            if (!(o instanceof FollowProgress)) return false;
+            FollowProgress oFP = (FollowProgress) o;
+            return within(percentComplete, oFP.percentComplete, EPS) &&
+                    within(remainingDistance, oFP.remainingDistance, EPS) &&
+                    (Double.isNaN(etaSeconds) ? Double.isNaN(oFP.etaSeconds)
+                            : within(etaSeconds, oFP.etaSeconds, EPS));
+        }
+    }
     /*
      * Chunk subclass for CREATE mode
      */
@@ -0,0 +1,387 @@
+package tourguide;
+
+/** The class ChunkCodec encodes output chunks into a compact binary form
+ *  for clients that lay the output out themselves, instead of text.
+ *
+ *  A message is a version byte and a varint count of chunks, each a type
+ *  byte and its fields:
+ *  <pre>
+ *  OVERVIEW   varint n, n * (string id, string title)
+ *  PAGE       as OVERVIEW, then string next cursor
+ *  DETAILS    string id, string title, string annotation
+ *  FOLLOW_HEADER    string title, varint stage, varint waypoints
+ *  FOLLOW_WAYPOINT  string annotation
+ *  FOLLOW_LEG       string annotation
+ *  FOLLOW_BEARING   number bearing, number distance
+ *  FOLLOW_PROGRESS  number percent, number remaining, number eta minutes
+ *  CREATE_HEADER    string title, varint legs, varint waypoints
+ *  </pre>
+ *  A string is a varint of its UTF-8 length plus one, 0 standing for
+ *  null, and then its bytes. A number is sent as it is shown, to the
+ *  nearest whole unit: a varint of 2 plus twice its rounded magnitude,
+ *  plus one if it is negative, so that a "-0" stays one. 0 stands for
+ *  NaN, and 1 is followed by the double itself for a value too large
+ *  to round exactly. A decoded chunk is therefore shown just as the one
+ *  encoded was. Strings are encoded straight into the array of a heap
+ *  buffer, so encoding into one allocates nothing.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChunkCodec {
+
+    public static final byte VERSION = 1;
+
+    public static final byte OVERVIEW = 1;
+    public static final byte PAGE = 2;
+    public static final byte DETAILS = 3;
+    public static final byte FOLLOW_HEADER = 4;
+    public static final byte FOLLOW_WAYPOINT = 5;
+    public static final byte FOLLOW_LEG = 6;
+    public static final byte FOLLOW_BEARING = 7;
+    public static final byte FOLLOW_PROGRESS = 8;
+    public static final byte CREATE_HEADER = 9;
+
+    //--------------------------
+    // Encoding
+    //--------------------------
+
+    /** Encodes the chunks as one message into the buffer, from its position.
+     *  @throws BufferOverflowException if the buffer is too small. */
+    public static void encode(List<Chunk> chunks, ByteBuffer out) {
+        out.put(VERSION);
+        putVarint(out, chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            encode(chunks.get(i), out);
+        }
+    }
+
+    /** Encodes one chunk into the buffer, from its position.
+     *  @throws IllegalArgumentException for a chunk of a class it does not know. */
+    public static void encode(Chunk chunk, ByteBuffer out) {
+        if (chunk instanceof Chunk.FollowBearing) {
+            Chunk.FollowBearing bearing = (Chunk.FollowBearing) chunk;
+            out.put(FOLLOW_BEARING);
+            putShown(out, bearing.bearing, 1);
+            putShown(out, bearing.distance, 1);
+        } else if (chunk instanceof Chunk.FollowHeader) {
+            Chunk.FollowHeader header = (Chunk.FollowHeader) chunk;
+            out.put(FOLLOW_HEADER);
+            putString(out, header.title);
+            putVarint(out, header.currentStage);
+            putVarint(out, header.numberWaypoints);
+        } else if (chunk instanceof Chunk.FollowLeg) {
+            out.put(FOLLOW_LEG);
+            putString(out, text(((Chunk.FollowLeg) chunk).annotation));
+        } else if (chunk instanceof Chunk.FollowWaypoint) {
+            out.put(FOLLOW_WAYPOINT);
+            putString(out, text(((Chunk.FollowWaypoint) chunk).annotation));
+        } else if (chunk instanceof Chunk.FollowProgress) {
+            Chunk.FollowProgress progress = (Chunk.FollowProgress) chunk;
+            out.put(FOLLOW_PROGRESS);
+            putShown(out, progress.percentComplete, 1);
+            putShown(out, progress.remainingDistance, 1);
+            putShown(out, progress.etaSeconds, 60);
+        } else if (chunk instanceof Chunk.CreateHeader) {
+            Chunk.CreateHeader header = (Chunk.CreateHeader) chunk;
+            out.put(CREATE_HEADER);
+            putString(out, header.title);
+            putVarint(out, header.numberLegs);
+            putVarint(out, header.numberWaypoints);
+        } else if (chunk instanceof Chunk.BrowseDetails) {
+            Chunk.BrowseDetails details = (Chunk.BrowseDetails) chunk;
+            out.put(DETAILS);
+            putString(out, details.id);
+            putString(out, details.title);
+            putString(out, text(details.details));
+        } else if (chunk instanceof Chunk.BrowseOverview) {
+            Chunk.BrowseOverview overview = (Chunk.BrowseOverview) chunk;
+            boolean page = chunk instanceof Chunk.BrowsePage;
+            out.put(page ? PAGE : OVERVIEW);
+            putVarint(out, overview.overviewLines.size());
+            for (Chunk.OverviewLine line : overview.overviewLines) {
+                putString(out, line.id);
+                putString(out, line.title);
+            }
+            if (page) {
+                putString(out, ((Chunk.BrowsePage) chunk).nextCursor);
+            }
+        } else {
+            throw new IllegalArgumentException("Chunks of " + chunk.getClass() + " cannot be encoded.");
+        }
+    }
+
+    private static String text(Annotation annotation) {
+        return annotation == null ? null : annotation.toString();
+    }
+
+    /*
+     * Puts value as it is shown, value / unit to the nearest whole number,
+     * unless that is not a whole number of units once decoded.
+     */
+    private static void putShown(ByteBuffer out, double value, double unit) {
+        double shown = value / unit;
+        if (Double.isNaN(shown)) {
+            out.put((byte) 0);
+            return;
+        }
+        if (ChunkRenderer.roundsExactly(shown)) {
+            long magnitude = ChunkRenderer.roundedMagnitude(shown);
+            if (magnitude * unit / unit == magnitude) {
+                long sign = Double.doubleToRawLongBits(shown) < 0 ? 1 : 0;
+                putVarlong(out, 2 + 2 * magnitude + sign);
+                return;
+            }
+        }
+        out.put((byte) 1);
+        out.putDouble(value);
+    }
+
+    private static void putVarlong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    // String.getBytes(int, int, byte[], int) copies an ASCII string without encoding it.
+    @SuppressWarnings("deprecation")
+    private static void putString(ByteBuffer out, String s) {
+        if (s == null) {
+            out.put((byte) 0);
+            return;
+        }
+        int length = utf8Length(s);
+        putVarint(out, length + 1);
+        if (length > out.remaining()) {
+            throw new BufferOverflowException();
+        }
+        if (out.hasArray()) {
+            // Straight into the array, rather than a checked put for every byte.
+            int at = out.arrayOffset() + out.position();
+            if (length == s.length() && isAscii(s)) {
+                s.getBytes(0, length, out.array(), at);
+            } else {
+                putUtf8(s, out.array(), at);
+            }
+            out.position(out.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            putUtf8(s, bytes, 0);
+            out.put(bytes);
+        }
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void putUtf8(String s, byte[] out, int at) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[at++] = (byte) c;
+            } else if (c < 0x800) {
+                out[at++] = (byte) (0xC0 | c >> 6);
+                out[at++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, s.charAt(++i));
+                out[at++] = (byte) (0xF0 | code >> 18);
+                out[at++] = (byte) (0x80 | code >> 12 & 0x3F);
+                out[at++] = (byte) (0x80 | code >> 6 & 0x3F);
+                out[at++] = (byte) (0x80 | code & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // A lone surrogate is replaced, as String.getBytes does.
+                out[at++] = (byte) '?';
+            } else {
+                out[at++] = (byte) (0xE0 | c >> 12);
+                out[at++] = (byte) (0x80 | c >> 6 & 0x3F);
+                out[at++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    //--------------------------
+    // Decoding
+    //--------------------------
+
+    /** @return the chunks of the message at the buffer's position.
+     *  @throws IllegalArgumentException if the message is of another version or damaged. */
+    public static List<Chunk> decode(ByteBuffer in) {
+        try {
+            byte version = in.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Chunk messages of version " + version + " cannot be read.");
+            }
+            // Every chunk takes at least a byte, which bounds what a damaged count can allocate.
+            int count = getCount(in, 1);
+            List<Chunk> chunks = new ArrayList<Chunk>(count);
+            for (int i = 0; i < count; i++) {
+                chunks.add(readChunk(in));
+            }
+            return chunks;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The message ends too soon.", e);
+        }
+    }
+
+    /** @return the chunk at the buffer's position.
+     *  @throws IllegalArgumentException if the chunk is damaged. */
+    public static Chunk decodeChunk(ByteBuffer in) {
+        try {
+            return readChunk(in);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The chunk ends too soon.", e);
+        }
+    }
+
+    private static Chunk readChunk(ByteBuffer in) {
+        byte type = in.get();
+        switch (type) {
+            case FOLLOW_BEARING:
+                return new Chunk.FollowBearing(getShown(in, 1), getShown(in, 1));
+            case FOLLOW_HEADER:
+                return new Chunk.FollowHeader(getString(in), getVarint(in), getVarint(in));
+            case FOLLOW_LEG:
+                return new Chunk.FollowLeg(annotation(getString(in)));
+            case FOLLOW_WAYPOINT:
+                return new Chunk.FollowWaypoint(annotation(getString(in)));
+            case FOLLOW_PROGRESS:
+                return new Chunk.FollowProgress(getShown(in, 1), getShown(in, 1), getShown(in, 60));
+            case CREATE_HEADER:
+                return new Chunk.CreateHeader(getString(in), getVarint(in), getVarint(in));
+            case DETAILS:
+                return new Chunk.BrowseDetails(getString(in), getString(in), annotation(getString(in)));
+            case OVERVIEW:
+            case PAGE:
+                // Every line takes at least two bytes.
+                int n = getCount(in, 2);
+                List<Chunk.OverviewLine> lines = new ArrayList<Chunk.OverviewLine>(n);
+                for (int i = 0; i < n; i++) {
+                    lines.add(new Chunk.OverviewLine(getString(in), getString(in)));
+                }
+                if (type == PAGE) {
+                    return new Chunk.BrowsePage(lines, getString(in));
+                }
+                return new Chunk.BrowseOverview(lines);
+            default:
+                throw new IllegalArgumentException("Unknown chunk type " + type + ".");
+        }
+    }
+
+    private static Annotation annotation(String text) {
+        return text == null ? null : new Annotation(text);
+    }
+
+    private static double getShown(ByteBuffer in, double unit) {
+        long code = getVarlong(in);
+        if (code == 0) {
+            return Double.NaN;
+        }
+        if (code == 1) {
+            return in.getDouble();
+        }
+        double magnitude = ((code - 2) >>> 1) * unit;
+        return (code & 1) != 0 ? -magnitude : magnitude;
+    }
+
+    private static long getVarlong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint too long.");
+    }
+
+    /*
+     * A count of items taking at least size bytes each, which cannot be
+     * more than the rest of the message holds.
+     */
+    private static int getCount(ByteBuffer in, int size) {
+        int count = getVarint(in);
+        if (count < 0 || count > in.remaining() / size) {
+            throw new IllegalArgumentException("Count of " + count + " runs past the end of the message.");
+        }
+        return count;
+    }
+
+    private static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint too long.");
+    }
+
+    private static String getString(ByteBuffer in) {
+        int encoded = getVarint(in);
+        if (encoded == 0) {
+            return null;
+        }
+        int length = encoded - 1;
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("String runs past the end of the message.");
+        }
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+}
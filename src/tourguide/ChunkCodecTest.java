@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class ChunkCodecTest {
+
+    @Test
+    public void everyKindRoundTrips() {
+        List<Chunk> chunks = ChunkRendererTest.everyKind();
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        ChunkCodec.encode(chunks, buffer);
+        buffer.flip();
+
+        List<Chunk> decoded = ChunkCodec.decode(buffer);
+        Assert.assertFalse(buffer.hasRemaining());
+        // Numbers come back as they are shown, so compare those chunks by their text.
+        Assert.assertEquals(chunks.subList(0, 7), decoded.subList(0, 7));
+        Assert.assertEquals(chunks.get(10), decoded.get(10));
+        Assert.assertEquals("T2", ((Chunk.BrowsePage) decoded.get(2)).nextCursor);
+        Assert.assertTrue(Double.isNaN(((Chunk.FollowProgress) decoded.get(8)).etaSeconds));
+        for (int i = 0; i < chunks.size(); i++) {
+            Assert.assertEquals(chunks.get(i).toString(), decoded.get(i).toString());
+        }
+    }
+
+    @Test
+    public void followOutputIsCompact() {
+        Chunk.FollowHeader header = new Chunk.FollowHeader("Old Town", 2, 5);
+        Chunk.FollowBearing bearing = new Chunk.FollowBearing(123.4, 56.7);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        ChunkCodec.encode(Arrays.asList(header, bearing), buffer);
+        // Version and count, then the header's title and numbers, then 123 and 57.
+        Assert.assertEquals(2 + 12 + 4, buffer.position());
+        Assert.assertTrue(buffer.position() < header.toString().length() + bearing.toString().length());
+    }
+
+    @Test
+    public void nullStringsAndDirectBuffers() {
+        Chunk.BrowsePage last = new Chunk.BrowsePage(Arrays.asList(
+                new Chunk.OverviewLine("T1", "Old Town")), null);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        ChunkCodec.encode(last, buffer);
+        buffer.flip();
+        Chunk.BrowsePage decoded = (Chunk.BrowsePage) ChunkCodec.decodeChunk(buffer);
+        Assert.assertEquals(last, decoded);
+        Assert.assertNull(decoded.nextCursor);
+    }
+
+    private static String roundTrip(Chunk chunk) {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        ChunkCodec.encode(chunk, buffer);
+        buffer.flip();
+        return ChunkCodec.decodeChunk(buffer).toString();
+    }
+
+    @Test
+    public void numbersShownAsBeforeEncoding() {
+        for (Chunk chunk : Arrays.asList(
+                new Chunk.FollowBearing(12.4999999, 0.5),
+                new Chunk.FollowBearing(-0.3, 1e6 + 0.49),
+                new Chunk.FollowBearing(Double.NaN, Double.POSITIVE_INFINITY),
+                new Chunk.FollowBearing(1e300, -4.5),
+                new Chunk.FollowProgress(12.5, 3e15 + 0.5, 89.9),
+                new Chunk.FollowProgress(-0.0, 0.49, 1e20))) {
+            Assert.assertEquals(chunk.toString(), roundTrip(chunk));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedMessagesRefused() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        ChunkCodec.encode(Arrays.asList((Chunk) new Chunk.FollowHeader("Old Town", 2, 5)), buffer);
+        buffer.flip();
+        buffer.limit(buffer.limit() - 1);
+        ChunkCodec.decode(buffer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void countsBeyondTheMessageRefused() {
+        // Version 1, then a count of 2^28 chunks that the message cannot hold.
+        ChunkCodec.decode(ByteBuffer.wrap(new byte[] {1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherVersionsRefused() {
+        ChunkCodec.decode(ByteBuffer.wrap(new byte[] {2, 0}));
+    }
+
+}
@@ -0,0 +1,146 @@
+package tourguide;
+
+/** The class ChunkRenderer renders output chunks as text into a
+ *  StringBuilder that is kept from one rendering to the next.
+ *
+ *  The text is the same as each chunk's toString(), but appended field by
+ *  field instead of going through a Formatter, so rendering the follow
+ *  output of a fix allocates nothing once the builder has grown. Numbers
+ *  shown to the nearest whole unit are rounded half up, as %.0f does;
+ *  values too large to round exactly and chunks of classes it does not
+ *  know are left to String.format and toString().
+ *
+ *  A renderer is for one thread at a time, such as the one serving a
+ *  session.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.io.IOException;
+import java.util.List;
+
+public class ChunkRenderer {
+    private static final String LS = System.lineSeparator();
+
+    // Below this every double has a fraction that can be compared to a half exactly.
+    private static final double EXACT_LIMIT = 1L << 52;
+
+    private final StringBuilder text;
+
+    public ChunkRenderer() {
+        this.text = new StringBuilder(256);
+    }
+
+    /** Forgets what has been rendered so far, keeping the space for it. */
+    public ChunkRenderer clear() {
+        text.setLength(0);
+        return this;
+    }
+
+    /** @return the text rendered since the last clear(). It changes as more is rendered. */
+    public CharSequence text() {
+        return text;
+    }
+
+    public String toString() {
+        return text.toString();
+    }
+
+    /** Renders the given chunks one after another, after what is already there. */
+    public ChunkRenderer render(List<Chunk> chunks) {
+        for (int i = 0; i < chunks.size(); i++) {
+            render(chunks.get(i));
+        }
+        return this;
+    }
+
+    /** Renders a chunk as its toString() would, after what is already there. */
+    public ChunkRenderer render(Chunk chunk) {
+        // The follow chunks come first, as they are output for every fix.
+        if (chunk instanceof Chunk.FollowBearing) {
+            Chunk.FollowBearing bearing = (Chunk.FollowBearing) chunk;
+            text.append("Next waypoint is on bearing ");
+            appendRounded(bearing.bearing);
+            text.append(" degrees at ");
+            appendRounded(bearing.distance);
+            text.append("m ").append(LS);
+        } else if (chunk instanceof Chunk.FollowHeader) {
+            Chunk.FollowHeader header = (Chunk.FollowHeader) chunk;
+            text.append(header.title).append("  ").append(header.currentStage)
+                .append('/').append(header.numberWaypoints).append(LS);
+        } else if (chunk instanceof Chunk.FollowLeg) {
+            text.append("Leg to next waypoint:").append(LS).append(((Chunk.FollowLeg) chunk).annotation);
+        } else if (chunk instanceof Chunk.FollowWaypoint) {
+            text.append("Current waypoint: ").append(LS).append(((Chunk.FollowWaypoint) chunk).annotation);
+        } else if (chunk instanceof Chunk.FollowProgress) {
+            Chunk.FollowProgress progress = (Chunk.FollowProgress) chunk;
+            text.append("Tour ");
+            appendRounded(progress.percentComplete);
+            text.append("% complete, ");
+            appendRounded(progress.remainingDistance);
+            text.append("m to go");
+            if (!Double.isNaN(progress.etaSeconds)) {
+                text.append(", about ");
+                appendRounded(progress.etaSeconds / 60);
+                text.append(" min left");
+            }
+            text.append(' ').append(LS);
+        } else if (chunk instanceof Chunk.CreateHeader) {
+            Chunk.CreateHeader header = (Chunk.CreateHeader) chunk;
+            text.append("New tour: ").append(header.title).append(". #legs: ").append(header.numberLegs)
+                .append("  #waypoints: ").append(header.numberWaypoints).append(LS);
+        } else if (chunk instanceof Chunk.BrowseDetails) {
+            Chunk.BrowseDetails details = (Chunk.BrowseDetails) chunk;
+            text.append(details.id).append(": ").append(details.title).append(LS).append(details.details);
+        } else if (chunk instanceof Chunk.BrowseOverview) {
+            try {
+                ((Chunk.BrowseOverview) chunk).writeTo(text);
+            } catch (IOException e) {
+                // A StringBuilder never throws.
+            }
+        } else {
+            text.append(chunk);
+        }
+        return this;
+    }
+
+    /*
+     * Appends x to the nearest whole number, halves rounded away from zero,
+     * as String.format("%.0f", x) would, down to the "-0" of a small negative.
+     */
+    private void appendRounded(double x) {
+        if (!roundsExactly(x)) {
+            // NaN, infinities and values Formatter prints from their shortest digits.
+            text.append(String.format("%.0f", x));
+            return;
+        }
+        if (Double.doubleToRawLongBits(x) < 0) {
+            text.append('-');
+        }
+        text.append(roundedMagnitude(x));
+    }
+
+    /** @return whether x is finite and small enough for roundedMagnitude. */
+    static boolean roundsExactly(double x) {
+        return Math.abs(x) < EXACT_LIMIT;
+    }
+
+    /*
+     * The magnitude of x, which must round exactly, to the nearest
+     * whole number with halves rounded up.
+     */
+    static long roundedMagnitude(double x) {
+        double magnitude = Math.abs(x);
+        long whole = (long) magnitude;
+        return magnitude - whole >= 0.5 ? whole + 1 : whole;
+    }
+
+    /** @return whether x and y are shown the same, to the nearest whole number. */
+    static boolean shownAlike(double x, double y) {
+        if (Math.abs(x) < EXACT_LIMIT && Math.abs(y) < EXACT_LIMIT) {
+            return roundedMagnitude(x) == roundedMagnitude(y)
+                    && (Double.doubleToRawLongBits(x) < 0) == (Double.doubleToRawLongBits(y) < 0);
+        }
+        return String.format("%.0f", x).equals(String.format("%.0f", y));
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class ChunkRendererTest {
+
+    private static Annotation ann(String s) { return new Annotation(s); }
+
+    static List<Chunk> everyKind() {
+        List<Chunk.OverviewLine> lines = Arrays.asList(
+                new Chunk.OverviewLine("T1", "Old Town"), new Chunk.OverviewLine("T2", "Caf\u00e9 crawl \ud83d\ude00"));
+        return Arrays.asList(
+                new Chunk.BrowseOverview(lines),
+                new Chunk.BrowseOverview(new ArrayList<Chunk.OverviewLine>()),
+                new Chunk.BrowsePage(lines, "T2"),
+                new Chunk.BrowseDetails("T1", "Old Town", ann("A walk\n")),
+                new Chunk.FollowHeader("Old Town", 2, 5),
+                new Chunk.FollowWaypoint(ann("Castle\n")),
+                new Chunk.FollowLeg(ann("Down the hill\n")),
+                new Chunk.FollowBearing(359.5, 12.49),
+                new Chunk.FollowProgress(42.5, 1234.5, Double.NaN),
+                new Chunk.FollowProgress(99.99, 0.4, 185),
+                new Chunk.CreateHeader("Old Town", 3, 2));
+    }
+
+    @Test
+    public void rendersAsToString() {
+        ChunkRenderer renderer = new ChunkRenderer();
+        StringBuilder expected = new StringBuilder();
+        for (Chunk chunk : everyKind()) {
+            Assert.assertEquals(chunk.toString(), renderer.clear().render(chunk).toString());
+            expected.append(chunk);
+        }
+        Assert.assertEquals(expected.toString(), renderer.clear().render(everyKind()).toString());
+    }
+
+    @Test
+    public void roundsAsFormatterDoes() {
+        double[] edges = {0, -0.0, 0.5, -0.5, 1.5, 2.5, -2.5, 0.49999999999999994, -0.4,
+                359.5, 359.49999999999994, 1e15 + 0.5, 4503599627370495.5, 4503599627370496.0,
+                1e17, -1e300, Double.MAX_VALUE, Double.MIN_VALUE, -Double.MIN_VALUE,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        Random random = new Random(7);
+        double[] values = Arrays.copyOf(edges, edges.length + 100000);
+        for (int i = edges.length; i < values.length; i++) {
+            switch (i % 4) {
+                case 0:
+                    values[i] = random.nextDouble() * 360;
+                    break;
+                case 1:
+                    // Values a whisker either side of a half.
+                    values[i] = Math.nextAfter(random.nextInt(10000) + 0.5, random.nextBoolean() ? 0 : 1e9);
+                    break;
+                case 2:
+                    values[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20));
+                    break;
+                default:
+                    values[i] = random.nextInt(4000) / 8.0 - 250;
+            }
+        }
+        ChunkRenderer renderer = new ChunkRenderer();
+        for (double value : values) {
+            Chunk chunk = new Chunk.FollowBearing(value, -value);
+            Assert.assertEquals(chunk.toString(), renderer.clear().render(chunk).toString());
+        }
+    }
+
+}
@@ -22,6 +22,14 @@ public interface Controller {
 
     Status showToursOverview();
 
+    Status showToursOverview(String afterId, int pageSize);
+
+    Status searchTours(String query, int limit);
+
+    Status showNearestTours(int count);
+
+    Status showToursNear(double radius);
+
     /*
      * Follow tour
      */
@@ -34,5 +42,36 @@ public interface Controller {
      */
     void setLocation(double easting, double northing);
 
+    /*
+     * A location fix taken at the given time in milliseconds.
+     */
+    void setLocation(double easting, double northing, long timestamp);
+
+    /*
+     * A batch of location fixes, oldest first. The output is the state after the
+     * last fix, with every waypoint reached on the way. Timestamps may be null.
+     */
+    Status setLocations(double[] eastings, double[] northings, long[] timestamps);
+
     List<Chunk> getOutput();
+
+    /*
+     * The output as it has changed since the given consumer last read it
+     * this way: nothing if it is shown the same, only the FollowBearing and
+     * FollowProgress chunks if nothing else changed, and otherwise the
+     * whole output.
+     */
+    List<Chunk> getOutputDelta(String consumer);
+
+    /*
+     * Forgets what the consumer has been given, so that its next delta is
+     * the whole output.
+     */
+    void resetOutputDelta(String consumer);
+
+    // Session state
+
+    byte[] snapshot();
+
+    Status restore(byte[] snapshot);
 }
\ No newline at end of file
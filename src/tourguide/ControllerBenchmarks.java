@@ -0,0 +1,599 @@
+/**
+ *
+ */
+package tourguide;
+
+/** The class ControllerBenchmarks measures the hot paths of the controller,
+ *  each parameterized by library size and tour length.
+ *
+ *  Every benchmark is warmed up and then measured over several iterations,
+ *  reporting the mean time per operation and the bytes allocated per
+ *  operation by the measuring thread, much like JMH's average time mode
+ *  with its GC profiler.
+ *
+ *  Usage: java tourguide.ControllerBenchmarks [benchmark] [librarySizes] [tourLengths]
+ *  where the sizes and lengths are comma separated lists.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ControllerBenchmarks {
+
+    private static final long WARMUP_NANOS = 1000000000L;
+    private static final int ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 200000000L;
+
+    private static final double WAYPOINT_RADIUS = 10.0;
+    private static final double WAYPOINT_SEPARATION = 25.0;
+
+    // Keeps the JIT from discarding the measured work.
+    private static long sink;
+
+    /*
+     * One measured operation. The result goes to the sink.
+     */
+    interface Op {
+        long run();
+    }
+
+    public static void main(String[] args) {
+        Logger.getLogger("tourguide").setLevel(Level.OFF);
+
+        String benchmark = args.length > 0 ? args[0] : "all";
+        int[] librarySizes = args.length > 1 ? parse(args[1]) : new int[] {1000, 100000};
+        int[] tourLengths = args.length > 2 ? parse(args[2]) : new int[] {10, 100, 1000};
+
+        System.out.printf("%-52s %12s %12s %12s%n", "Benchmark", "ns/op", "error", "B/op");
+        for (int size : librarySizes) {
+            for (int length : tourLengths) {
+                String params = "(size=" + size + ", length=" + length + ")";
+                Library library = Benchmarks.makeLibrary(size, length);
+                switch (benchmark) {
+                    case "follow":
+                        follow(library, params);
+                        break;
+                    case "batch":
+                        batch(library, params);
+                        break;
+                    case "reckoning":
+                        reckoning(params);
+                        break;
+                    case "displacement":
+                        displacement(params);
+                        break;
+                    case "load":
+                        load(size, length, params);
+                        break;
+                    case "browse":
+                        browse(library, params);
+                        break;
+                    case "render":
+                        render(library, params);
+                        break;
+                    case "snapshot":
+                        snapshot(library, params);
+                        break;
+                    case "logging":
+                        logging(library, params);
+                        break;
+                    case "metrics":
+                        metrics(library, params);
+                        break;
+                    case "transitions":
+                        transitions(params);
+                        break;
+                    default:
+                        follow(library, params);
+                        batch(library, params);
+                        reckoning(params);
+                        displacement(params);
+                        load(size, length, params);
+                        browse(library, params);
+                        render(library, params);
+                        snapshot(library, params);
+                        logging(library, params);
+                        metrics(library, params);
+                        transitions(params);
+                }
+            }
+        }
+        System.out.println("sink: " + sink);
+    }
+
+    private static int[] parse(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    //--------------------------
+    // Measurement
+    //--------------------------
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** This method runs op until warm, then for ITERATIONS timed iterations,
+     *  and prints the mean time per operation, its standard error and the
+     *  bytes allocated per operation.
+     *  opsPerCall is the number of operations a single call of op stands for.
+     */
+    static void measure(String name, int opsPerCall, Op op) {
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            sink += op.run();
+        }
+
+        double[] nanosPerOp = new double[ITERATIONS];
+        long allocated = 0;
+        long ops = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long calls = 0;
+            long startBytes = allocatedBytes();
+            long start = System.nanoTime();
+            long end = start + ITERATION_NANOS;
+            long now;
+            do {
+                for (int batch = 0; batch < 16; batch++) {
+                    sink += op.run();
+                }
+                calls += 16;
+                now = System.nanoTime();
+            } while (now < end);
+            allocated += allocatedBytes() - startBytes;
+            ops += calls * opsPerCall;
+            nanosPerOp[i] = (double) (now - start) / (calls * opsPerCall);
+        }
+
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value / ITERATIONS;
+        }
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean) / (ITERATIONS - 1);
+        }
+        double error = Math.sqrt(variance / ITERATIONS);
+        System.out.printf("%-52s %12.1f %12.1f %12.1f%n", name, mean, error, (double) allocated / ops);
+    }
+
+    //--------------------------
+    // Benchmarks
+    //--------------------------
+
+    /*
+     * A walk along the tour: three fixes on the way to each waypoint and one on it.
+     * Reaching the end of the tour starts it again.
+     */
+    static double[] walk(Tour tour) {
+        int n = tour.waypoints.size();
+        double[] fixes = new double[8 * n];
+        double e = tour.waypoints.get(0).location.easting - 40.0;
+        double north = tour.waypoints.get(0).location.northing;
+        int at = 0;
+        for (int w = 0; w < n; w++) {
+            Location next = tour.waypoints.get(w).location;
+            for (int step = 1; step <= 4; step++) {
+                fixes[at++] = e + (next.easting - e) * step / 4;
+                fixes[at++] = north + (next.northing - north) * step / 4;
+            }
+            e = next.easting;
+            north = next.northing;
+        }
+        return fixes;
+    }
+
+    private static void follow(Library library, String params) {
+        for (GeometryKernel kernel : GeometryKernel.values()) {
+            follow(library, kernel, params);
+        }
+    }
+
+    private static void follow(Library library, GeometryKernel kernel, String params) {
+        final ControllerImp controller = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        final Tour tour = library.getTour(Benchmarks.tourId(0));
+        final double[] fixes = walk(tour);
+        controller.kernel = kernel;
+        controller.setLocation(fixes[0], fixes[1]);
+        controller.followTour(tour.id);
+
+        measure("follow." + kernel.name().toLowerCase() + " setLocation " + params, 1, new Op() {
+            int at = 0;
+
+            public long run() {
+                if (at == fixes.length) {
+                    controller.endSelectedTour();
+                    controller.followTour(tour.id);
+                    at = 0;
+                }
+                controller.setLocation(fixes[at], fixes[at + 1]);
+                at += 2;
+                return controller.getOutput().size();
+            }
+        });
+    }
+
+    /*
+     * A million fixes walking the tour over and over, given one at a time
+     * and then as a single batch.
+     */
+    private static void batch(Library library, String params) {
+        final ControllerImp controller = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        final Tour tour = library.getTour(Benchmarks.tourId(0));
+        double[] fixes = walk(tour);
+        final int count = 1000000;
+        final double[] eastings = new double[count];
+        final double[] northings = new double[count];
+        for (int i = 0; i < count; i++) {
+            int at = (2 * i) % fixes.length;
+            eastings[i] = fixes[at];
+            northings[i] = fixes[at + 1];
+        }
+        controller.setLocation(eastings[0], northings[0]);
+
+        measure("batch.setLocationLoop " + params, count, new Op() {
+            public long run() {
+                controller.followTour(tour.id);
+                for (int i = 0; i < count; i++) {
+                    controller.setLocation(eastings[i], northings[i]);
+                }
+                controller.endSelectedTour();
+                return controller.getOutput().size();
+            }
+        });
+        measure("batch.setLocations " + params, count, new Op() {
+            public long run() {
+                controller.followTour(tour.id);
+                controller.setLocations(eastings, northings, null);
+                controller.endSelectedTour();
+                return controller.getOutput().size();
+            }
+        });
+    }
+
+    /*
+     * A GPS trace of a walk at 1.4 m/s along a tour with waypoints 300m apart,
+     * a fix a second with up to 3m of noise either way, followed with and
+     * without dead reckoning. maxSpeed allows for the noise.
+     */
+    private static void reckoning(String params) {
+        Library library = new Library();
+        Tour tour = new Tour("walk", "GPS walk", new Annotation("A walk"));
+        for (int w = 0; w < 20; w++) {
+            tour.legs.add(new Leg(new Annotation("Leg " + w)));
+            tour.waypoints.add(new Waypoint(new Annotation("Stop " + w), new Location(w * 300, 0)));
+        }
+        library.addTour(tour);
+
+        java.util.Random random = new java.util.Random(17);
+        final int count = (int) (19 * 300 / 1.4) + 60;
+        final double[] eastings = new double[count];
+        final double[] northings = new double[count];
+        final long[] times = new long[count];
+        for (int t = 0; t < count; t++) {
+            eastings[t] = -50 + Math.min(t * 1.4, 19 * 300 + 50) + random.nextDouble() * 6 - 3;
+            northings[t] = random.nextDouble() * 6 - 3;
+            times[t] = t * 1000L;
+        }
+
+        for (final double maxSpeed : new double[] {0, 1.4 + 6}) {
+            final ControllerImp controller = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+            controller.maxSpeed = maxSpeed;
+            String mode = maxSpeed > 0 ? "on " : "off";
+            measure("reckoning." + mode + " setLocation " + params, count, new Op() {
+                long offset = 0;
+
+                public long run() {
+                    controller.setLocation(-50, 0);
+                    controller.followTour("walk");
+                    for (int t = 0; t < count; t++) {
+                        controller.setLocation(eastings[t], northings[t], offset + times[t]);
+                    }
+                    offset += times[count - 1] + 1000;
+                    controller.endSelectedTour();
+                    return controller.getOutput().size();
+                }
+            });
+            measure("reckoning." + mode + " setLocations " + params, count, new Op() {
+                long[] shifted = times.clone();
+
+                public long run() {
+                    for (int t = 0; t < count; t++) {
+                        shifted[t] += times[count - 1] + 1000;
+                    }
+                    controller.setLocation(-50, 0);
+                    controller.followTour("walk");
+                    controller.setLocations(eastings, northings, shifted);
+                    controller.endSelectedTour();
+                    return controller.getOutput().size();
+                }
+            });
+        }
+    }
+
+    private static void displacement(String params) {
+        measure("displacement.distance " + params, 1, new Op() {
+            double e = 1.0;
+
+            public long run() {
+                e += 0.5;
+                return (long) new Displacement(e, 300.0 - e).distance();
+            }
+        });
+        measure("displacement.bearing " + params, 1, new Op() {
+            double e = 1.0;
+
+            public long run() {
+                e += 0.5;
+                return (long) new Displacement(e, 300.0 - e).bearing();
+            }
+        });
+        for (final GeometryKernel kernel : GeometryKernel.values()) {
+            measure("kernel." + kernel.name().toLowerCase() + ".bearing " + params, 1, new Op() {
+                double e = 1.0;
+
+                public long run() {
+                    e += 0.5;
+                    return (long) kernel.bearing(e, 300.0 - e);
+                }
+            });
+        }
+    }
+
+    private static void load(final int size, int length, String params) {
+        final Tour[] tours = new Tour[size];
+        for (int i = 0; i < size; i++) {
+            tours[i] = Benchmarks.makeTour(i, length);
+        }
+        measure("library.addTour " + params, size, new Op() {
+            public long run() {
+                Library library = new Library();
+                for (Tour tour : tours) {
+                    library.addTour(tour);
+                }
+                return library.size();
+            }
+        });
+    }
+
+    private static void browse(final Library library, String params) {
+        final ControllerImp controller = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        final int size = library.size();
+        final String[] ids = new String[1024];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = Benchmarks.tourId((int) ((i * 7919L) % size));
+        }
+        measure("browse.showToursOverview " + params, 1, new Op() {
+            public long run() {
+                controller.showToursOverview();
+                return controller.getOutput().size();
+            }
+        });
+        measure("browse.showTourDetails " + params, 1, new Op() {
+            int at = 0;
+
+            public long run() {
+                controller.showTourDetails(ids[at++ & 1023]);
+                return controller.getOutput().size();
+            }
+        });
+    }
+
+    private static void render(Library library, String params) {
+        final ControllerImp controller = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        Tour tour = library.getTour(Benchmarks.tourId(0));
+        double[] fixes = walk(tour);
+        controller.setLocation(fixes[0], fixes[1]);
+        controller.followTour(tour.id);
+        // Standing on the first waypoint gives every kind of follow chunk.
+        controller.setLocation(fixes[6], fixes[7]);
+        final Chunk[] chunks = controller.getOutput().toArray(new Chunk[0]);
+
+        measure("render.follow " + params, 1, new Op() {
+            public long run() {
+                long length = 0;
+                for (Chunk chunk : chunks) {
+                    length += chunk.toString().length();
+                }
+                return length;
+            }
+        });
+        final List<Chunk> output = Arrays.asList(chunks);
+        final ChunkRenderer renderer = new ChunkRenderer();
+        measure("render.follow.renderer " + params, 1, new Op() {
+            public long run() {
+                return renderer.clear().render(output).text().length();
+            }
+        });
+        final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        measure("render.follow.codec " + params, 1, new Op() {
+            public long run() {
+                buffer.clear();
+                ChunkCodec.encode(output, buffer);
+                return buffer.position();
+            }
+        });
+
+        final Chunk.BrowseOverview page = library.getOverviewPage(null, 50);
+        measure("render.overviewPage " + params, 1, new Op() {
+            public long run() {
+                return page.toString().length();
+            }
+        });
+        measure("render.overviewPage.renderer " + params, 1, new Op() {
+            public long run() {
+                return renderer.clear().render(page).text().length();
+            }
+        });
+        measure("render.overviewPage.codec " + params, 1, new Op() {
+            public long run() {
+                buffer.clear();
+                ChunkCodec.encode(page, buffer);
+                return buffer.position();
+            }
+        });
+    }
+
+    /*
+     * A session halfway along a tour, snapshot and then restored.
+     */
+    private static void snapshot(Library library, String params) {
+        final ControllerImp controller = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        final Tour tour = library.getTour(Benchmarks.tourId(0));
+        final double[] fixes = walk(tour);
+        controller.setLocation(fixes[0], fixes[1]);
+        controller.followTour(tour.id);
+        for (int at = 0; at < fixes.length / 2; at += 2) {
+            controller.setLocation(fixes[at], fixes[at + 1], at * 500L);
+        }
+        final byte[] snapshot = controller.snapshot();
+        final ControllerImp resumed = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+
+        System.out.printf("%-52s %12d%n", "snapshot.bytes " + params, snapshot.length);
+        measure("snapshot.snapshot " + params, 1, new Op() {
+            public long run() {
+                return controller.snapshot().length;
+            }
+        });
+        measure("snapshot.restore " + params, 1, new Op() {
+            public long run() {
+                resumed.restore(snapshot);
+                return resumed.getOutput().size();
+            }
+        });
+    }
+
+    /*
+     * The cost of logging with the logger off: a banner built and handed to
+     * the logger as the app used to, the same through Log, and a round of
+     * commands, each logging a few events, one refused.
+     */
+    private static void logging(Library library, String params) {
+        final Logger logger = Logger.getLogger("tourguide");
+        final String ls = System.lineSeparator();
+        measure("logging.banner " + params, 1, new Op() {
+            int at = 0;
+
+            public long run() {
+                logger.finer(ls + "STATUS: " + " ------- " + "positionUpdated " + at++ + " ------- ");
+                return at;
+            }
+        });
+        measure("logging.event " + params, 1, new Op() {
+            int at = 0;
+
+            public long run() {
+                Log.log(Level.FINER, "positionUpdated", "session", "tour", at++);
+                return at;
+            }
+        });
+        measure("logging.supplier " + params, 1, new Op() {
+            int at = 0;
+
+            public long run() {
+                final int stage = at++;
+                Log.log(Level.FINER, () -> "positionUpdated " + stage);
+                return at;
+            }
+        });
+
+        final ControllerImp controller = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        final String id = Benchmarks.tourId(0);
+        controller.setLocation(0, 0);
+        measure("logging.commands " + params, 4, new Op() {
+            public long run() {
+                controller.showTourDetails(id);
+                controller.addLeg(null);
+                controller.followTour(id);
+                controller.endSelectedTour();
+                return controller.getOutput().size();
+            }
+        });
+    }
+
+    /*
+     * Following a tour with and without every call timed, and the cost
+     * of recording a latency on its own.
+     */
+    private static void metrics(Library library, String params) {
+        final Tour tour = library.getTour(Benchmarks.tourId(0));
+        final double[] fixes = walk(tour);
+        final Metrics metrics = new Metrics(library);
+        final ControllerImp plain = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        final ControllerImp inner = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        inner.metrics = metrics;
+        final Controller metered = new MeteredController(inner, metrics);
+
+        for (final Controller controller : new Controller[] {plain, metered}) {
+            controller.setLocation(fixes[0], fixes[1]);
+            controller.followTour(tour.id);
+            String name = controller == plain ? "plain" : "metered";
+            measure("metrics." + name + " setLocation " + params, 1, new Op() {
+                int at = 0;
+
+                public long run() {
+                    if (at == fixes.length) {
+                        controller.endSelectedTour();
+                        controller.followTour(tour.id);
+                        at = 0;
+                    }
+                    controller.setLocation(fixes[at], fixes[at + 1]);
+                    at += 2;
+                    return controller.getOutput().size();
+                }
+            });
+        }
+
+        final Metrics.Histogram histogram = new Metrics.Histogram();
+        measure("metrics.histogram.record " + params, 1, new Op() {
+            long value = 0;
+
+            public long run() {
+                histogram.record(value++ & 0xFFFF);
+                return value;
+            }
+        });
+    }
+
+    /*
+     * Logging a transition, on the wall clock and on a fixed one to see
+     * what the clock costs, and dumping a full log.
+     */
+    private static void transitions(String params) {
+        final TransitionLog log = new TransitionLog();
+        final TransitionLog unclocked = new TransitionLog(() -> 0L);
+        measure("transitions.stageAdvanced " + params, 1, new Op() {
+            int stage = 0;
+
+            public long run() {
+                log.stageAdvanced("session", "tour", ++stage);
+                return stage;
+            }
+        });
+        measure("transitions.stageAdvanced.fixedClock " + params, 1, new Op() {
+            int stage = 0;
+
+            public long run() {
+                unclocked.stageAdvanced("session", "tour", ++stage);
+                return stage;
+            }
+        });
+        measure("transitions.recent " + params, 1, new Op() {
+            public long run() {
+                return log.recent().size();
+            }
+        });
+    }
+
+}
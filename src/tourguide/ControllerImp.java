@@ -8,39 +8,59 @@ package tourguide;
  *  @author Hristiyan Yaprakov and Kiril Rechanski
  **/
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.logging.Level;
 
 public class ControllerImp implements Controller {
-    private static Logger logger = Logger.getLogger("tourguide");
-    private static final String LS = System.lineSeparator();
 
     //--------------------------
-    // Methods for pretty Logger output
+    // Logging
     //--------------------------
 
-    private String startBanner(String messageName) {
-        return LS
-                + "-------------------------------------------------------------" + LS
-                + "MESSAGE: " + messageName + LS
-                + "-------------------------------------------------------------";
+    /*
+     * Logs an event of this session, with the tour and stage it is at.
+     */
+    private void event(Level level, String name) {
+        if (Log.isLoggable(level)) {
+            Log.log(level, name, this.sessionId, this.tour == null ? null : this.tour.id,
+                    this.mode == Mode.FOLLOW ? this.stage : -1);
+        }
     }
 
-    private String errorBanner(String messageName) {
-        return LS
-                + "ERROR: " + " !!!!! " + messageName + " !!!!! ";
+    /*
+     * Logs why a command was refused.
+     * @return the error status the command fails with.
+     */
+    private Status reject(String reason, String message) {
+        event(Level.WARNING, reason);
+        if (this.metrics != null) {
+            this.metrics.rejected(reason);
+        }
+        this.transitions.rejected(this.sessionId, reason, this.mode, tourId());
+        return new Status.Error(message);
     }
 
-    private String finerBanner(String messageName) {
-        return LS
-                + "STATUS: " + " ------- " + messageName + " ------- ";
+    /*
+     * Changes mode, counting the sessions following a tour.
+     */
+    private void setMode(Mode mode) {
+        if (this.metrics != null && (this.mode == Mode.FOLLOW) != (mode == Mode.FOLLOW)) {
+            this.metrics.following(mode == Mode.FOLLOW ? 1 : -1);
+        }
+        if (this.mode != null && this.mode != mode) {
+            this.transitions.modeChanged(this.sessionId, this.mode, mode, tourId());
+        }
+        this.mode = mode;
     }
 
-    private String finestBanner(String messageName) {
-        return LS
-                + "STATUS: " + " ******* " + messageName + " ******* ";
+    private String tourId() {
+        return this.tour == null ? null : this.tour.id;
     }
 
     //--------------------------
@@ -53,13 +73,65 @@ public class ControllerImp implements Controller {
     public Location currentLocation;
     public Library library;
 
+    // The id of the session this controller serves, for logging, or null.
+    public String sessionId;
+
+    // Where refusals, waypoint arrivals and sessions following a tour are counted, or null.
+    public Metrics metrics;
+
+    // Whether the follow output ends with a FollowProgress chunk.
+    public boolean showProgress;
+
+    // The fastest the user can move, in metres per second, or 0 if not known.
+    // When known, timed fixes that cannot have reached a waypoint skip the checks.
+    public double maxSpeed;
+
+    // How the bearing and distance to the next waypoint are worked out.
+    // FAST is opt-in, as it can show a bearing a degree off near a half.
+    public GeometryKernel kernel = GeometryKernel.EXACT;
+
+    // The latest changes of mode and stage, waypoint revisits and refusals.
+    public final TransitionLog transitions = new TransitionLog();
+
     // Private helper instances
     private Tour tour;
     private int stage;
 
+    // The waypoint whose radius the user was in at the last check, or -1,
+    // so that a revisit is only logged on coming back into it.
+    private int atWaypoint = -1;
+
+    // Geometry of the tour being followed and the user's distance
+    // from its first waypoint when they started following it.
+    private TourGeometry geometry;
+    private double startDistance;
+
+    // Timestamp and location of the latest timed fix, and the user's speed
+    // in metres per second smoothed over the fixes so far.
+    private static final double SPEED_SMOOTHING = 0.2;
+    private long lastFixTime = Long.MIN_VALUE;
+    private double lastFixEasting;
+    private double lastFixNorthing;
+    private double speed = Double.NaN;
+
+    // Until this time no waypoint can be reached without breaking maxSpeed.
+    private long safeUntil = Long.MIN_VALUE;
+
     // List to hold all outputs
     private ArrayList<Chunk> output;
 
+    // What each consumer reading the output by deltas was last given,
+    // or null until one does.
+    private HashMap<String, Delivered> consumers;
+
+    // Chunks reused by every location update while following a tour,
+    // so that steady state following allocates nothing.
+    private final Chunk.FollowHeader followHeader = new Chunk.FollowHeader(null, 0, 0);
+    private final Chunk.FollowWaypoint followWaypoint = new Chunk.FollowWaypoint(null);
+    private final Chunk.FollowLeg followLeg = new Chunk.FollowLeg(null);
+    private final Chunk.FollowBearing followBearing = new Chunk.FollowBearing(0, 0);
+    private final Chunk.FollowProgress followProgress = new Chunk.FollowProgress(0, 0, Double.NaN);
+
     /*
      * Constructor method which takes the necessary parameters 
      * and initiates the necessary instances for the app to start.
@@ -67,15 +139,23 @@ public class ControllerImp implements Controller {
      * puts the app in the BrowseOverview state.
      */
     public ControllerImp(double waypointRadius, double waypointSeparation) {
+        this(waypointRadius, waypointSeparation, new Library());
+    }
+
+    /*
+     * Constructor for an app working on an existing library,
+     * such as one loaded from a TourStore.
+     */
+    public ControllerImp(double waypointRadius, double waypointSeparation, Library library) {
         this.waypointRadius = waypointRadius;
         this.waypointSeparation = waypointSeparation;
-        this.mode = Mode.BROWSE;
-        this.library = new Library();
+        setMode(Mode.BROWSE);
+        this.library = library;
         this.output = new ArrayList<Chunk>();
 
         Status browseStatus = showToursOverview();
         if (browseStatus != Status.OK) {
-            logger.warning(errorBanner("SOMETHING_WENT_WRONG"));
+            event(Level.WARNING, "SOMETHING_WENT_WRONG");
         }
     }
 
@@ -92,11 +172,11 @@ public class ControllerImp implements Controller {
      */
     @Override
     public Status startNewTour(String id, String title, Annotation annotation) {
-        logger.fine(startBanner("startNewTour"));
+        event(Level.FINE, "startNewTour");
 
         // Set the mode
         if (this.mode == Mode.BROWSE) {
-            this.mode = Mode.CREATE;
+            setMode(Mode.CREATE);
 
             // Initialize a tour object
             this.tour = new Tour(id, title, annotation);
@@ -107,12 +187,11 @@ public class ControllerImp implements Controller {
                     this.tour.waypoints.size()
             ));
 
-            logger.finer(finerBanner("newTourStarted"));
+            event(Level.FINER, "newTourStarted");
 
             return Status.OK;
         } else {
-            logger.warning(errorBanner("NOT_IN_BROWSE_MODE"));
-            return new Status.Error("The app must be in BROWSE Mode in order to start creating a tour.");
+            return reject("NOT_IN_BROWSE_MODE", "The app must be in BROWSE Mode in order to start creating a tour.");
         }
     }
 
@@ -126,23 +205,25 @@ public class ControllerImp implements Controller {
      */
     @Override
     public Status addWaypoint(Annotation annotation) {
-        logger.fine(startBanner("addWaypoint"));
+        event(Level.FINE, "addWaypoint");
 
         if (this.mode == Mode.CREATE) {
-            Waypoint waypoint = new Waypoint(annotation, currentLocation);
+            // The waypoint gets its own copy, as the current location is updated in place.
+            Waypoint waypoint = new Waypoint(annotation,
+                    new Location(currentLocation.easting, currentLocation.northing));
             int totalWaypoints = this.tour.waypoints.size();
             this.output.clear();
-            logger.finer(finerBanner("Entering"));
+            event(Level.FINER, "Entering");
 
             // Add an empty leg there isn't a one following the previous waypoint.
             if (this.tour.legs.size() == totalWaypoints) {
                 Status addLegStatus = addLeg(null);
                 if (addLegStatus != Status.OK) {
-                    logger.warning(errorBanner("EMPTY_LEG_NOT_ADDED"));
+                    event(Level.WARNING, "EMPTY_LEG_NOT_ADDED");
                     return addLegStatus;
                 }
                 this.output.clear();
-                logger.finest(finestBanner("emptyLegAdded"));
+                event(Level.FINEST, "emptyLegAdded");
             }
 
             if (totalWaypoints == 0) {
@@ -153,19 +234,12 @@ public class ControllerImp implements Controller {
                         this.tour.legs.size(),
                         this.tour.waypoints.size()
                 ));
-                logger.finer(finerBanner("initialWaypointAdded"));
+                event(Level.FINER, "initialWaypointAdded");
                 return Status.OK;
             } else {
-                Waypoint prevWaypoint = this.tour.waypoints.get(totalWaypoints - 1);
-                Displacement waypointDisplacement = new Displacement(
-                        (currentLocation.easting - prevWaypoint.location.easting),
-                        (currentLocation.northing - prevWaypoint.location.northing)
-                );
-
                 // Assess the distance between the new waypoint and the previous one.
-                if (waypointDisplacement.distance() < this.waypointSeparation) {
-                    logger.warning(errorBanner("WAYPOINT_TOO_CLOSE_TO_PREV"));
-                    return new Status.Error("The distance between two adjacent waypoints should be: " + this.waypointSeparation);
+                if (distanceTo(totalWaypoints - 1) < this.waypointSeparation) {
+                    return reject("WAYPOINT_TOO_CLOSE_TO_PREV", "The distance between two adjacent waypoints should be: " + this.waypointSeparation);
                 } else {
                     this.tour.waypoints.add(waypoint);
                 }
@@ -177,11 +251,10 @@ public class ControllerImp implements Controller {
                     this.tour.waypoints.size()
             ));
 
-            logger.finer(finerBanner("waypointAdded"));
+            event(Level.FINER, "waypointAdded");
             return Status.OK;
         } else {
-            logger.warning(errorBanner("NOT_IN_CREATE_MODE"));
-            return new Status.Error("Invalid operation. The app is not in CREATE Mode.");
+            return reject("NOT_IN_CREATE_MODE", "Invalid operation. The app is not in CREATE Mode.");
         }
     }
 
@@ -193,12 +266,12 @@ public class ControllerImp implements Controller {
      */
     @Override
     public Status addLeg(Annotation annotation) {
-        logger.fine(startBanner("addLeg"));
+        event(Level.FINE, "addLeg");
 
         if (this.mode == Mode.CREATE) {
             this.output.clear();
 
-            logger.finer(finerBanner("Entering"));
+            event(Level.FINER, "Entering");
 
             // Add a default annotation if such a parameter is missing.
             if (annotation == null) {
@@ -211,8 +284,7 @@ public class ControllerImp implements Controller {
             if (this.tour.legs.size() == this.tour.waypoints.size()) {
                 this.tour.legs.add(leg);
             } else {
-                logger.warning(errorBanner("WAYPOINT_MISSING"));
-                return new Status.Error("Cannot add a leg right after another leg.");
+                return reject("WAYPOINT_MISSING", "Cannot add a leg right after another leg.");
             }
 
             this.output.add(new Chunk.CreateHeader(
@@ -221,11 +293,10 @@ public class ControllerImp implements Controller {
                     this.tour.waypoints.size()
             ));
 
-            logger.finer(finerBanner("legAdded"));
+            event(Level.FINER, "legAdded");
             return Status.OK;
         } else {
-            logger.warning(errorBanner("NOT_IN_CREATE_MODE"));
-            return new Status.Error("Invalid operation. The app is not in CREATE Mode.");
+            return reject("NOT_IN_CREATE_MODE", "Invalid operation. The app is not in CREATE Mode.");
         }
     }
 
@@ -238,7 +309,7 @@ public class ControllerImp implements Controller {
      */
     @Override
     public Status endNewTour() {
-        logger.fine(startBanner("endNewTour"));
+        event(Level.FINE, "endNewTour");
 
         if (this.mode == Mode.CREATE) {
 
@@ -247,38 +318,40 @@ public class ControllerImp implements Controller {
 
                 // Check if the tour finishes in a waypoint.
                 if (this.tour.legs.size() == this.tour.waypoints.size()) {
-                    
+
+                    // The tour is complete, so work out its geometry once for all who follow it.
+                    this.tour.geometry();
+
                     // Try to add the tour to the library
                     boolean added = this.library.addTour(this.tour);
 
                     // Check if a tour with this id has not been created yet.
                     if (!added) {
-                        logger.warning(errorBanner("newTourNotAdded"));
-                        return new Status.Error("A tour with id: '" + this.tour.id + "' already exists.");
+                        if (this.library.containsTour(this.tour.id)) {
+                            return reject("TOUR_ID_EXISTS", "A tour with id: '" + this.tour.id + "' already exists.");
+                        }
+                        return reject("TOUR_NOT_SAVED", "The tour with id: '" + this.tour.id + "' could not be saved.");
                     }
-                    logger.finer(finerBanner("newTourAdded"));
+                    event(Level.FINER, "newTourAdded");
 
-                    this.tour = null;
-                    logger.finer(finerBanner("newTourFinished"));
+                    event(Level.FINER, "newTourFinished");
 
-                    // Transition to BROWSE mode.
+                    // Transition to BROWSE mode, leaving the tour behind.
                     Status browseStatus = showToursOverview();
                     if (browseStatus != Status.OK) {
-                        logger.warning(errorBanner("SOMETHING_WENT_WRONG"));
+                        event(Level.WARNING, "SOMETHING_WENT_WRONG");
                     }
+                    this.tour = null;
 
                     return Status.OK;
                 } else {
-                    logger.warning(errorBanner("NO_FINAL_WAYPOINT"));
-                    return new Status.Error("Cannot finish creating a tour without a final waypoint.");
+                    return reject("NO_FINAL_WAYPOINT", "Cannot finish creating a tour without a final waypoint.");
                 }
             } else {
-                logger.warning(errorBanner("NO_WAYPOINTS"));
-                return new Status.Error("A tour should have at least one waypoint.");
+                return reject("NO_WAYPOINTS", "A tour should have at least one waypoint.");
             }
         } else {
-            logger.warning(errorBanner("NOT_IN_CREATE_MODE"));
-            return new Status.Error("Invalid operation. The app is not in CREATE Mode.");
+            return reject("NOT_IN_CREATE_MODE", "Invalid operation. The app is not in CREATE Mode.");
         }
     }
 
@@ -293,28 +366,22 @@ public class ControllerImp implements Controller {
      */
     @Override
     public Status showTourDetails(String tourID) {
-        logger.fine(startBanner("showTourDetails"));
+        event(Level.FINE, "showTourDetails");
         this.output.clear();
 
         if (this.mode == Mode.BROWSE) {
-            for (Tour tour : this.library.tours) {
-
-                // Find a tour with the given id.
-                if (tourID.equalsIgnoreCase(tour.id)) {
-                    this.tour = tour;
-                    this.output.add(new Chunk.BrowseDetails(tour.id, tour.title, tour.annotation));
-                }
-            }
+            // Find a tour with the given id.
+            Tour tour = this.library.getTour(tourID);
 
             // Return an error if a tour with such id has not been found.
-            if (this.tour == null) {
-                logger.warning(errorBanner("TOUR_NOT_FOUND"));
-                return new Status.Error("A Tour with id: '" + tourID + "' has not been found.");
+            if (tour == null) {
+                return reject("TOUR_NOT_FOUND", "A Tour with id: '" + tourID + "' has not been found.");
             }
 
+            this.output.add(new Chunk.BrowseDetails(tour.id, tour.title, tour.annotation));
             return Status.OK;
         } else {
-            return new Status.Error("Invalid. The app is not in BROWSE mode");
+            return reject("NOT_IN_BROWSE_MODE", "Invalid. The app is not in BROWSE mode");
         }
     }
 
@@ -325,21 +392,113 @@ public class ControllerImp implements Controller {
      */
     @Override
     public Status showToursOverview() {
-        logger.fine(startBanner("browseTourOverview"));
+        event(Level.FINE, "browseTourOverview");
         this.output.clear();
 
-        this.mode = Mode.BROWSE;
-        Chunk.BrowseOverview overview = new Chunk.BrowseOverview();
+        setMode(Mode.BROWSE);
+
+        // Output all created tours. The library only rebuilds
+        // its overview when a tour has been added since the last call.
+        this.output.add(this.library.getOverview());
+
+        return Status.OK;
+    }
+
+    /**
+     * This method is the paged version of showToursOverview,
+     * for libraries too large to show at once.
+     * @return the status and
+     *         output up to pageSize tours after the tour with id afterId.
+     */
+    @Override
+    public Status showToursOverview(String afterId, int pageSize) {
+        event(Level.FINE, "browseTourOverviewPage");
+
+        if (pageSize <= 0) {
+            return reject("INVALID_PAGE_SIZE", "The page size should be positive.");
+        }
+        this.output.clear();
+
+        setMode(Mode.BROWSE);
+        this.output.add(this.library.getOverviewPage(afterId, pageSize));
 
-        // Retrieve and output all created tours.
-        for (Tour tour: this.library.tours) {
-           overview.addIdAndTitle(tour.id, tour.title);
+        return Status.OK;
+    }
+
+    /**
+     * This method looks for tours by the words in their titles and annotations.
+     * @return the status and
+     *         output an overview of up to limit matching tours, best match first.
+     */
+    @Override
+    public Status searchTours(String query, int limit) {
+        event(Level.FINE, "searchTours");
+
+        if (this.mode == Mode.BROWSE) {
+            this.output.clear();
+            this.output.add(overviewOf(this.library.search(query, limit)));
+            return Status.OK;
+        } else {
+            return reject("NOT_IN_BROWSE_MODE", "Invalid. The app is not in BROWSE mode");
         }
-        this.output.add(overview);
+    }
+
+    /**
+     * This method finds the tours passing nearest to the user's current location.
+     * @return the status and
+     *         output an overview of up to count tours, nearest first.
+     */
+    @Override
+    public Status showNearestTours(int count) {
+        event(Level.FINE, "showNearestTours");
 
+        Status status = checkCanShowNearby();
+        if (status != Status.OK) {
+            return status;
+        }
+        this.output.clear();
+        this.output.add(overviewOf(this.library.nearestTours(
+                currentLocation.easting, currentLocation.northing, count)));
         return Status.OK;
     }
 
+    /**
+     * This method finds the tours with a waypoint near the user's current location.
+     * @return the status and
+     *         output an overview of the tours within radius, nearest first.
+     */
+    @Override
+    public Status showToursNear(double radius) {
+        event(Level.FINE, "showToursNear");
+
+        Status status = checkCanShowNearby();
+        if (status != Status.OK) {
+            return status;
+        }
+        this.output.clear();
+        this.output.add(overviewOf(this.library.toursWithin(
+                currentLocation.easting, currentLocation.northing, radius)));
+        return Status.OK;
+    }
+
+    private Status checkCanShowNearby() {
+        if (this.mode != Mode.BROWSE) {
+            return reject("NOT_IN_BROWSE_MODE", "Invalid. The app is not in BROWSE mode");
+        }
+        if (this.currentLocation == null) {
+            return reject("NO_LOCATION", "The current location is not known yet.");
+        }
+        return Status.OK;
+    }
+
+    private static Chunk.BrowseOverview overviewOf(List<Tour> tours) {
+        Chunk.BrowseOverview overview = new Chunk.BrowseOverview();
+        for (Tour tour : tours) {
+            overview.addIdAndTitle(tour.id, tour.title);
+        }
+        return overview;
+    }
+
     //--------------------------
     // Follow tour mode
     //--------------------------
@@ -351,122 +510,239 @@ public class ControllerImp implements Controller {
      */
     @Override
     public Status followTour(String id) {
-        logger.fine(startBanner("followTour"));
-        this.output.clear();
+        event(Level.FINE, "followTour");
 
         if (this.mode == Mode.BROWSE) {
-
-            // Initiate a tour
-            this.mode = Mode.FOLLOW;
-            this.stage = 0;
+            this.output.clear();
 
             // Retrieve the selected tour so the user can start following it
-            for (int i=0; i < this.library.tours.size(); i++) {
-                if (this.library.tours.get(i).id == id) {
-                    this.tour = this.library.tours.get(i);
-                }
-            }
+            Tour selected = this.library.getTour(id);
 
             // Check if the desired tour exist in the library.
-            if (this.tour == null) {
-                logger.warning(errorBanner("TOUR_NOT_FOUND"));
-                return new Status.Error("A Tour with id: '" + id + "' has not been found.");
+            if (selected == null) {
+                return reject("TOUR_NOT_FOUND", "A Tour with id: '" + id + "' has not been found.");
+            }
+
+            // The bearing to the first waypoint needs the user's location.
+            if (this.currentLocation == null) {
+                return reject("NO_LOCATION", "The current location is not known yet.");
             }
 
+            // Initiate a tour
+            this.tour = selected;
+            this.geometry = selected.geometry();
+            setMode(Mode.FOLLOW);
+            this.stage = 0;
+            this.atWaypoint = -1;
+            this.safeUntil = Long.MIN_VALUE;
+            this.startDistance = Math.sqrt(
+                    this.geometry.distanceSquared(0, currentLocation.easting, currentLocation.northing));
+
             // Output information about the tour, what stage it is in,
             // the annotation of the first leg and
             // the bearing and distance to the first waypoint.
-            this.output.add(new Chunk.FollowHeader(
-                this.tour.title,
-                this.stage,
-                this.tour.waypoints.size()
-            ));
-            this.output.add(new Chunk.FollowLeg(
-                this.tour.legs.get(0).annotation
-            ));
-            Displacement disp = new Displacement(
-                (this.tour.waypoints.get(0).location.easting - currentLocation.easting),
-                (this.tour.waypoints.get(0).location.northing - currentLocation.northing)
-            );
-            this.output.add(new Chunk.FollowBearing(
-                disp.bearing(),
-                disp.distance()
-            ));
+            addFollowOutput(-1);
 
-            logger.finer(finerBanner("followTourInitiated"));
+            event(Level.FINER, "followTourInitiated");
 
         } else if (this.mode == Mode.FOLLOW) {
+            advance();
+        } else {
+            this.output.clear();
+            return reject("NOT_IN_BROWSE_MODE", "Invalid operation. The app is not in BROWSE Mode.");
+        }
 
-            logger.finer(finerBanner("Entering"));
+        event(Level.FINER, "followingTour");
+        return Status.OK;
 
-            boolean onWaypoint = false;
-            int whichWaypoint = 0;
+    }
 
-            Displacement userNearCurrentWaypoint = new Displacement(
-                (this.tour.waypoints.get(this.stage).location.easting - currentLocation.easting),
-                (this.tour.waypoints.get(this.stage).location.northing - currentLocation.northing)
-            );
+    /*
+     * Moves the follow tour sequence on from the user's current location.
+     * This runs on every location update, so it allocates nothing:
+     * the distances are worked out on primitives and the output reuses
+     * the same chunks each time.
+     */
+    private void advance() {
+        this.output.clear();
+        this.safeUntil = Long.MIN_VALUE;
+        addFollowOutput(step());
+    }
 
-            // Check if the user is in the radius of the current waypoint.
-            if (userNearCurrentWaypoint.distance() <= this.waypointRadius) {
-                onWaypoint = true;
-                whichWaypoint = this.stage;
-                this.stage++;
-                logger.finer(finerBanner("nextWayPointReached"));
-            } else {
-                if (this.stage != 0) {
-                    Displacement userNearPrevWaypoint = new Displacement(
-                        (this.tour.waypoints.get(this.stage-1).location.easting - currentLocation.easting),
-                        (this.tour.waypoints.get(this.stage-1).location.northing - currentLocation.northing)
-                    );
-
-                    // Check if the user has revisited the previous waypoint.
-                    if (userNearCurrentWaypoint.distance() <= this.waypointRadius) {
-                        onWaypoint = true;
-                        whichWaypoint = this.stage-1;
-                        logger.finer(finerBanner("prevWayPointReached"));
-                    }
-                }
-            }
+    /*
+     * Moves the follow tour sequence on from a fix taken at time.
+     * Within the time that the user cannot cover the distance to the next or
+     * previous waypoint's radius at maxSpeed, neither can be reached, so
+     * the output stays as it is apart from the bearing and distance.
+     * Arrival at the next waypoint is still seen straight away even if maxSpeed
+     * is broken, as its distance is worked out for the bearing anyway.
+     */
+    private void advance(long time) {
+        // Another command may have replaced the follow output since.
+        boolean outputKept = !this.output.isEmpty() && this.output.get(0) == this.followHeader;
+        if (time < this.safeUntil && outputKept && refreshBearing() > this.waypointRadius) {
+            return;
+        }
+        advance();
+        if (this.maxSpeed > 0) {
+            this.safeUntil = safeUntil(time, currentLocation.easting, currentLocation.northing);
+        }
+    }
 
-            // Output information about the tour, what stage it is in,
-            // the annotation of the appropriate waypoint if one has been reached,
-            // the annotation of the appropriate leg and
-            // the bearing and distance to the next waypoint.
-            this.output.add(new Chunk.FollowHeader(
-                this.tour.title,
-                this.stage,
-                this.tour.waypoints.size()
-            ));
-            // Check if a waypoint has been reached and output it.
-            if (this.stage != 0 && onWaypoint) {
-                this.output.add(new Chunk.FollowWaypoint(
-                    this.tour.waypoints.get(whichWaypoint).annotation
-                ));
-            }
-            // Check if the current stage isn't the last 
-            // in order to output the leg, bearing and distance.
-            if (this.stage != this.tour.waypoints.size()) {
-                this.output.add(new Chunk.FollowLeg(
-                    this.tour.legs.get(this.stage).annotation
-                ));
-                Displacement userToNextWaypoint = new Displacement(
-                    (this.tour.waypoints.get(this.stage).location.easting - currentLocation.easting),
-                    (this.tour.waypoints.get(this.stage).location.northing - currentLocation.northing)
-                );
-                this.output.add(new Chunk.FollowBearing(
-                    userToNextWaypoint.bearing(),
-                    userToNextWaypoint.distance()
-                ));
-            }
-        } else {
-            logger.warning(errorBanner("NOT_IN_BROWSE_MODE"));
-            return new Status.Error("Invalid operation. The app is not in BROWSE Mode.");
+    /*
+     * The time until which a user at the location at time cannot be within
+     * the radius of the next or previous waypoint.
+     */
+    private long safeUntil(long time, double easting, double northing) {
+        double nearest = Double.POSITIVE_INFINITY;
+        if (this.stage < this.geometry.size()) {
+            nearest = this.geometry.distanceSquared(this.stage, easting, northing);
+        }
+        if (this.stage != 0) {
+            nearest = Math.min(nearest, this.geometry.distanceSquared(this.stage - 1, easting, northing));
+        }
+        // Also covers waypoints without a location, whose distance is NaN.
+        if (!(nearest < Double.POSITIVE_INFINITY)) {
+            return time;
+        }
+        double margin = Math.sqrt(nearest) - this.waypointRadius;
+        if (margin <= 0) {
+            return time;
         }
+        return time + (long) Math.min(margin / this.maxSpeed * 1000, Long.MAX_VALUE / 2);
+    }
 
-        logger.finer(finerBanner("followingTour"));
-        return Status.OK;
+    /*
+     * Checks the user's current location against the current and previous waypoint,
+     * moving to the next stage when the current one has been reached.
+     * @return the waypoint the user is at, or -1 if none.
+     */
+    private int step() {
+        // Distances are compared squared, which saves a square root per waypoint.
+        double radiusSquared = this.waypointRadius * this.waypointRadius;
+
+        double e = currentLocation.easting;
+        double n = currentLocation.northing;
+
+        // Check if the user is in the radius of the current waypoint.
+        if (this.stage < this.geometry.size() && this.geometry.distanceSquared(this.stage, e, n) <= radiusSquared) {
+            return arrive();
+        }
+        // Check if the user has revisited the previous waypoint.
+        if (this.stage != 0 && this.geometry.distanceSquared(this.stage - 1, e, n) <= radiusSquared) {
+            return revisit();
+        }
+        this.atWaypoint = -1;
+        return -1;
+    }
+
+    /*
+     * Moves on to the next stage on reaching its waypoint.
+     * Fixes taken one at a time and in a batch both arrive here,
+     * so they log and count arrivals alike.
+     * @return the waypoint reached.
+     */
+    private int arrive() {
+        event(Level.FINER, "nextWayPointReached");
+        if (this.metrics != null) {
+            this.metrics.waypointsReached(1);
+        }
+        this.atWaypoint = this.stage++;
+        this.transitions.stageAdvanced(this.sessionId, this.tour.id, this.stage);
+        return this.atWaypoint;
+    }
+
+    /*
+     * Notes being in the radius of the previous waypoint, which is a revisit
+     * unless the user has been in it since reaching it.
+     * @return the waypoint revisited.
+     */
+    private int revisit() {
+        event(Level.FINER, "prevWayPointReached");
+        if (this.atWaypoint != this.stage - 1) {
+            this.atWaypoint = this.stage - 1;
+            this.transitions.waypointRevisited(this.sessionId, this.tour.id, this.atWaypoint);
+        }
+        return this.atWaypoint;
+    }
+
+    /*
+     * Outputs information about the tour, what stage it is in,
+     * the annotation of the waypoint reached, if any, and while the tour is not
+     * finished, the annotation of the next leg and the bearing and distance
+     * to the next waypoint.
+     */
+    private void addFollowOutput(int reached) {
+        fillFollowHeader();
+        this.output.add(this.followHeader);
+
+        if (reached >= 0) {
+            this.followWaypoint.annotation = this.tour.waypoints.get(reached).annotation;
+            this.output.add(this.followWaypoint);
+        }
+
+        addNextLegOutput();
+    }
+
+    private void fillFollowHeader() {
+        this.followHeader.title = this.tour.title;
+        this.followHeader.currentStage = this.stage;
+        this.followHeader.numberWaypoints = this.tour.waypoints.size();
+    }
+
+    /*
+     * Outputs the next leg, the bearing and distance to the next waypoint
+     * and, if asked for, the progress along the tour.
+     */
+    private void addNextLegOutput() {
+        if (this.stage != this.geometry.size()) {
+            this.followLeg.annotation = this.tour.legs.get(this.stage).annotation;
+            this.output.add(this.followLeg);
+            this.output.add(this.followBearing);
+        }
+        if (this.showProgress) {
+            this.output.add(this.followProgress);
+        }
+        refreshBearing();
+    }
+
+    /*
+     * Works out the bearing and distance to the next waypoint and the progress
+     * from the user's current location, in the chunks already output.
+     * @return the distance to the next waypoint, or infinity once finished.
+     */
+    private double refreshBearing() {
+        double distance = Double.POSITIVE_INFINITY;
+        double remaining = 0;
+        if (this.stage != this.geometry.size()) {
+            double east = this.geometry.easting(this.stage) - currentLocation.easting;
+            double north = this.geometry.northing(this.stage) - currentLocation.northing;
+            distance = this.kernel.distance(east, north);
+
+            this.followBearing.bearing = this.kernel.bearing(east, north);
+            this.followBearing.distance = distance;
+
+            remaining = distance + this.geometry.remainingAfter(this.stage);
+        }
 
+        if (this.showProgress) {
+            double total = this.startDistance + this.geometry.length();
+            double done = total > 0 ? (total - remaining) / total : (remaining > 0 ? 0 : 1);
+            this.followProgress.percentComplete = 100 * Math.max(0, Math.min(1, done));
+            this.followProgress.remainingDistance = remaining;
+            this.followProgress.etaSeconds = this.speed > 0 ? remaining / this.speed : Double.NaN;
+        }
+        return distance;
+    }
+
+    /*
+     * The distance from the user's current location to a waypoint of the tour.
+     */
+    private double distanceTo(int waypoint) {
+        Location location = this.tour.waypoints.get(waypoint).location;
+        return Displacement.distance(
+                location.easting - currentLocation.easting,
+                location.northing - currentLocation.northing);
     }
 
     /**
@@ -478,17 +754,17 @@ public class ControllerImp implements Controller {
     public Status endSelectedTour() {
         if (this.mode == Mode.FOLLOW) {
             this.output.clear();
-            this.tour = null;
 
-            logger.finer(finerBanner("endFollowTour"));
+            event(Level.FINER, "endFollowTour");
 
             Status browseStatus = showToursOverview();
             if (browseStatus != Status.OK) {
-                logger.warning(errorBanner("SOMETHING_WENT_WRONG"));
+                event(Level.WARNING, "SOMETHING_WENT_WRONG");
             }
+            this.tour = null;
+            this.geometry = null;
         } else {
-            logger.warning(errorBanner("NOT_IN_FOLLOW_MODE"));
-            return new Status.Error("Invalid operation. The app is not in FOLLOW Mode.");
+            return reject("NOT_IN_FOLLOW_MODE", "Invalid operation. The app is not in FOLLOW Mode.");
         }
 
         return Status.OK;
@@ -500,31 +776,460 @@ public class ControllerImp implements Controller {
 
     /**
      * The user's current location is updated by this method.
+     * The location is updated in place, so hold on to its coordinates
+     * rather than to the currentLocation object itself.
      */
     @Override
     public void setLocation(double easting, double northing) {
-        this.currentLocation = new Location (easting, northing);
-        logger.finer(finerBanner("positionUpdated"));
+        updateLocation(easting, northing);
 
-        // Advance the follow tour sequence with the 
+        // Advance the follow tour sequence with the
         // change in the user's current position.
         if (this.mode == Mode.FOLLOW) {
-            Status followStatus = followTour(this.tour.id);
-            if (followStatus != Status.OK) {
-                logger.warning(errorBanner("SOMETHING_WENT_WRONG"));
+            advance();
+        }
+
+    }
+
+    private void updateLocation(double easting, double northing) {
+        if (this.currentLocation == null) {
+            this.currentLocation = new Location(easting, northing);
+        } else {
+            this.currentLocation.easting = easting;
+            this.currentLocation.northing = northing;
+        }
+        event(Level.FINER, "positionUpdated");
+    }
+
+    /**
+     * This method updates the user's location with a fix taken at the given time
+     * in milliseconds, from which the user's speed is estimated.
+     * A fix older than one already taken is out of order and is skipped.
+     */
+    @Override
+    public void setLocation(double easting, double northing, long timestamp) {
+        if (timestamp < this.lastFixTime) {
+            return;
+        }
+        observeSpeed(easting, northing, timestamp);
+        updateLocation(easting, northing);
+        if (this.mode == Mode.FOLLOW) {
+            advance(timestamp);
+        }
+    }
+
+    /*
+     * Folds the speed since the last timed fix into the smoothed speed.
+     * The speed only goes into the ETA, so is not worked out while
+     * progress is not shown.
+     */
+    private void observeSpeed(double easting, double northing, long timestamp) {
+        if (this.showProgress && this.lastFixTime != Long.MIN_VALUE && timestamp > this.lastFixTime) {
+            double seconds = (timestamp - this.lastFixTime) / 1000.0;
+            double observed = Displacement.distance(
+                    easting - this.lastFixEasting, northing - this.lastFixNorthing) / seconds;
+            this.speed = Double.isNaN(this.speed) ? observed
+                    : this.speed + SPEED_SMOOTHING * (observed - this.speed);
+        }
+        this.lastFixTime = timestamp;
+        this.lastFixEasting = easting;
+        this.lastFixNorthing = northing;
+    }
+
+    /**
+     * This method takes a batch of location fixes in one pass.
+     * Fixes older than one already taken are out of order and are skipped.
+     * In FOLLOW mode only the waypoints are checked per fix, and the output
+     * is built once: the header, every waypoint reached in the batch in order,
+     * then the next leg, bearing and distance from the last location.
+     * Staying within a waypoint's radius over several fixes reaches it once.
+     * @return the status.
+     */
+    @Override
+    public Status setLocations(double[] eastings, double[] northings, long[] timestamps) {
+        event(Level.FINE, "setLocations");
+
+        if (eastings.length != northings.length
+                || (timestamps != null && timestamps.length != eastings.length)) {
+            return reject("BATCH_LENGTHS_DIFFER", "Every fix in a batch needs an easting, a northing and, if given, a timestamp.");
+        }
+
+        // Find the last fix to take, dropping any that are out of order.
+        long since = this.lastFixTime;
+        int last = -1;
+        for (int i = 0; i < eastings.length; i++) {
+            if (timestamps == null || timestamps[i] >= this.lastFixTime) {
+                last = i;
+                if (timestamps != null) {
+                    observeSpeed(eastings[i], northings[i], timestamps[i]);
+                }
             }
         }
+        if (last < 0) {
+            // A batch with nothing new in it leaves the output as it was.
+            return Status.OK;
+        }
 
+        if (this.mode == Mode.FOLLOW) {
+            followBatch(eastings, northings, timestamps, since, last);
+        }
+
+        updateLocation(eastings[last], northings[last]);
+        if (this.mode == Mode.FOLLOW) {
+            fillFollowHeader();
+            addNextLegOutput();
+        }
+        return Status.OK;
+    }
+
+    /*
+     * Runs the fixes of a batch up to last and no older than since
+     * through the follow tour sequence,
+     * keeping the current and previous waypoints in locals rather than
+     * going back to the tour for every fix.
+     * This is already no more than dead reckoning would leave to do per fix,
+     * so every fix is checked whatever maxSpeed is.
+     */
+    private void followBatch(double[] eastings, double[] northings, long[] timestamps, long since, int last) {
+        this.output.clear();
+        this.output.add(this.followHeader);
+
+        TourGeometry geometry = this.geometry;
+        double radiusSquared = this.waypointRadius * this.waypointRadius;
+        double nextE = Double.NaN, nextN = Double.NaN, prevE = Double.NaN, prevN = Double.NaN;
+        if (this.stage < geometry.size()) {
+            nextE = geometry.easting(this.stage);
+            nextN = geometry.northing(this.stage);
+        }
+        if (this.stage != 0) {
+            prevE = geometry.easting(this.stage - 1);
+            prevN = geometry.northing(this.stage - 1);
+        }
+
+        this.safeUntil = Long.MIN_VALUE;
+        long time = since;
+        int inside = -1;
+        for (int i = 0; i <= last; i++) {
+            if (timestamps != null) {
+                if (timestamps[i] < time) {
+                    continue;
+                }
+                time = timestamps[i];
+            }
+            double e = eastings[i];
+            double n = northings[i];
+
+            // NaN never compares as within the radius, so a missing waypoint is never reached.
+            int reached = -1;
+            if ((nextE - e) * (nextE - e) + (nextN - n) * (nextN - n) <= radiusSquared) {
+                reached = arrive();
+                prevE = nextE;
+                prevN = nextN;
+                if (this.stage < geometry.size()) {
+                    nextE = geometry.easting(this.stage);
+                    nextN = geometry.northing(this.stage);
+                } else {
+                    nextE = Double.NaN;
+                    nextN = Double.NaN;
+                }
+            } else if ((prevE - e) * (prevE - e) + (prevN - n) * (prevN - n) <= radiusSquared) {
+                reached = revisit();
+            } else {
+                this.atWaypoint = -1;
+            }
+
+            if (reached >= 0 && reached != inside) {
+                this.output.add(new Chunk.FollowWaypoint(this.tour.waypoints.get(reached).annotation));
+            }
+            inside = reached;
+        }
+    }
+
+    //--------------------------
+    // Session state
+    //--------------------------
+
+    // Version of the snapshot layout, its first byte.
+    public static final byte SNAPSHOT_VERSION = 1;
+
+    private static final int HAS_LOCATION = 1;
+    private static final int HAS_TIMED_FIX = 2;
+    private static final int HAS_SPEED = 4;
+    private static final int SHOW_PROGRESS = 8;
+    private static final int HAS_MAX_SPEED = 16;
+
+    /**
+     * This method captures the state of the session, so that it can be
+     * resumed later or elsewhere by restore().
+     * A snapshot is laid out as
+     *   version byte, mode byte, flags byte,
+     *   [easting, northing]                    the current location
+     *   FOLLOW: tour id (int length + UTF-8), stage int, start distance double
+     *   CREATE: length int + the tour so far, in TourCodec's format
+     *   [time long, easting, northing]         the latest timed fix
+     *   [speed double] [maxSpeed double]
+     * where the bracketed parts are there if their flag is set.
+     * The output and the radius and separation settings are not included.
+     * @return the snapshot, a few dozen bytes while following a tour.
+     */
+    @Override
+    public byte[] snapshot() {
+        int flags = (currentLocation != null ? HAS_LOCATION : 0)
+                | (lastFixTime != Long.MIN_VALUE ? HAS_TIMED_FIX : 0)
+                | (!Double.isNaN(speed) ? HAS_SPEED : 0)
+                | (showProgress ? SHOW_PROGRESS : 0)
+                | (maxSpeed > 0 ? HAS_MAX_SPEED : 0);
+
+        byte[] id = null;
+        byte[] draft = null;
+        int size = 3 + 16 + 24 + 16;
+        if (this.mode == Mode.FOLLOW) {
+            id = this.tour.id.getBytes(StandardCharsets.UTF_8);
+            size += 4 + id.length + 4 + 8;
+        } else if (this.mode == Mode.CREATE) {
+            draft = TourCodec.encode(this.tour);
+            size += 4 + draft.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(SNAPSHOT_VERSION);
+        buffer.put((byte) this.mode.ordinal());
+        buffer.put((byte) flags);
+        if ((flags & HAS_LOCATION) != 0) {
+            buffer.putDouble(currentLocation.easting).putDouble(currentLocation.northing);
+        }
+        if (id != null) {
+            buffer.putInt(id.length).put(id);
+            buffer.putInt(this.stage).putDouble(this.startDistance);
+        } else if (draft != null) {
+            buffer.putInt(draft.length).put(draft);
+        }
+        if ((flags & HAS_TIMED_FIX) != 0) {
+            buffer.putLong(lastFixTime).putDouble(lastFixEasting).putDouble(lastFixNorthing);
+        }
+        if ((flags & HAS_SPEED) != 0) {
+            buffer.putDouble(speed);
+        }
+        if ((flags & HAS_MAX_SPEED) != 0) {
+            buffer.putDouble(maxSpeed);
+        }
+        byte[] snapshot = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * This method resumes the session captured by snapshot(), replacing
+     * whatever this one was doing. A session following a tour carries on
+     * from the same stage, with its follow output shown again.
+     * If the snapshot cannot be read, or its tour is no longer in the library,
+     * the session is left in BROWSE mode.
+     * @return the status.
+     */
+    @Override
+    public Status restore(byte[] snapshot) {
+        event(Level.FINE, "restore");
+
+        Status status;
+        try {
+            status = read(ByteBuffer.wrap(snapshot));
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            status = reject("SNAPSHOT_DAMAGED", "The session snapshot is damaged.");
+        }
+        if (status != Status.OK) {
+            event(Level.WARNING, "SESSION_NOT_RESTORED");
+            this.tour = null;
+            this.geometry = null;
+            showToursOverview();
+        }
+        return status;
+    }
+
+    private Status read(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != SNAPSHOT_VERSION) {
+            return reject("SNAPSHOT_VERSION_UNKNOWN", "Session snapshots of version " + version + " cannot be read.");
+        }
+        Mode mode = Mode.values()[buffer.get()];
+        int flags = buffer.get();
+
+        Location location = null;
+        if ((flags & HAS_LOCATION) != 0) {
+            location = new Location(buffer.getDouble(), buffer.getDouble());
+        }
+
+        Tour tour = null;
+        int stage = 0;
+        double startDistance = 0;
+        if (mode == Mode.FOLLOW) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                return reject("SNAPSHOT_DAMAGED", "The session snapshot is damaged.");
+            }
+            byte[] id = new byte[length];
+            buffer.get(id);
+            stage = buffer.getInt();
+            startDistance = buffer.getDouble();
+            tour = this.library.getTour(new String(id, StandardCharsets.UTF_8));
+            if (tour == null) {
+                return reject("SNAPSHOT_TOUR_MISSING", "The tour being followed is no longer in the library.");
+            }
+            if (stage < 0 || stage > tour.waypoints.size() || location == null) {
+                return reject("SNAPSHOT_DAMAGED", "The session snapshot is damaged.");
+            }
+        } else if (mode == Mode.CREATE) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                return reject("SNAPSHOT_DAMAGED", "The session snapshot is damaged.");
+            }
+            ByteBuffer draft = buffer.slice();
+            draft.limit(length);
+            tour = TourCodec.decode(draft);
+            buffer.position(buffer.position() + length);
+        }
+
+        long fixTime = Long.MIN_VALUE;
+        double fixEasting = 0, fixNorthing = 0;
+        if ((flags & HAS_TIMED_FIX) != 0) {
+            fixTime = buffer.getLong();
+            fixEasting = buffer.getDouble();
+            fixNorthing = buffer.getDouble();
+        }
+        double speed = (flags & HAS_SPEED) != 0 ? buffer.getDouble() : Double.NaN;
+        double maxSpeed = (flags & HAS_MAX_SPEED) != 0 ? buffer.getDouble() : 0;
+
+        // Everything has been read, so the session can be replaced.
+        this.currentLocation = location;
+        this.lastFixTime = fixTime;
+        this.lastFixEasting = fixEasting;
+        this.lastFixNorthing = fixNorthing;
+        this.speed = speed;
+        this.maxSpeed = maxSpeed;
+        this.showProgress = (flags & SHOW_PROGRESS) != 0;
+        this.safeUntil = Long.MIN_VALUE;
+        this.tour = tour;
+        this.geometry = null;
+        this.output.clear();
+
+        if (mode == Mode.FOLLOW) {
+            setMode(Mode.FOLLOW);
+            this.geometry = tour.geometry();
+            this.stage = stage;
+            this.atWaypoint = -1;
+            this.startDistance = startDistance;
+            addFollowOutput(-1);
+        } else if (mode == Mode.CREATE) {
+            setMode(Mode.CREATE);
+            this.output.add(new Chunk.CreateHeader(tour.title, tour.legs.size(), tour.waypoints.size()));
+        } else {
+            showToursOverview();
+        }
+        return Status.OK;
     }
 
     /**
      * This method returns the output of the app and
      * can be called at any time.
+     * The list and, while following a tour, its chunks are reused
+     * by the next call, so copy anything that has to outlive it.
      */
     @Override
     public List<Chunk> getOutput() {
         return this.output;
     }
 
+    //--------------------------
+    // Delta output
+    //--------------------------
+
+    /*
+     * What a consumer reading the output by deltas was last given,
+     * as copies that later output cannot change.
+     */
+    private static class Delivered {
+        final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+        final ArrayList<Chunk> delta = new ArrayList<Chunk>();
+    }
+
+    /**
+     * This method returns what has changed in the output since the consumer
+     * last called it, as text would show it. While only the bearing,
+     * distance or progress have changed, that is just the FollowBearing and
+     * FollowProgress chunks that are shown differently, each in place of
+     * the one given before, and nothing at all while their rounded numbers
+     * stay the same. Any other change gives the whole output, to replace
+     * all that was given before. An empty output, as left by some refused
+     * commands, is never given, so the consumer keeps what it has.
+     * The list and its chunks are reused as getOutput()'s are.
+     */
+    @Override
+    public List<Chunk> getOutputDelta(String consumer) {
+        if (this.consumers == null) {
+            this.consumers = new HashMap<String, Delivered>();
+        }
+        Delivered delivered = this.consumers.get(consumer);
+        if (delivered == null) {
+            delivered = new Delivered();
+            this.consumers.put(consumer, delivered);
+        }
+        ArrayList<Chunk> delta = delivered.delta;
+        delta.clear();
+        if (this.output.isEmpty()) {
+            return delta;
+        }
+
+        ArrayList<Chunk> given = delivered.chunks;
+        boolean whole = given.size() != this.output.size();
+        for (int i = 0; i < this.output.size() && !whole; i++) {
+            Chunk now = this.output.get(i);
+            Chunk then = given.get(i);
+            if (now.getClass() != then.getClass()) {
+                whole = true;
+            } else if (now instanceof Chunk.FollowBearing) {
+                Chunk.FollowBearing bearing = (Chunk.FollowBearing) now;
+                Chunk.FollowBearing shown = (Chunk.FollowBearing) then;
+                if (!ChunkRenderer.shownAlike(bearing.bearing, shown.bearing)
+                        || !ChunkRenderer.shownAlike(bearing.distance, shown.distance)) {
+                    shown.bearing = bearing.bearing;
+                    shown.distance = bearing.distance;
+                    delta.add(now);
+                }
+            } else if (now instanceof Chunk.FollowProgress) {
+                Chunk.FollowProgress progress = (Chunk.FollowProgress) now;
+                Chunk.FollowProgress shown = (Chunk.FollowProgress) then;
+                if (!ChunkRenderer.shownAlike(progress.percentComplete, shown.percentComplete)
+                        || !ChunkRenderer.shownAlike(progress.remainingDistance, shown.remainingDistance)
+                        || Double.isNaN(progress.etaSeconds) != Double.isNaN(shown.etaSeconds)
+                        || !Double.isNaN(progress.etaSeconds)
+                                && !ChunkRenderer.shownAlike(progress.etaSeconds / 60, shown.etaSeconds / 60)) {
+                    shown.percentComplete = progress.percentComplete;
+                    shown.remainingDistance = progress.remainingDistance;
+                    shown.etaSeconds = progress.etaSeconds;
+                    delta.add(now);
+                }
+            } else if (now != then && !now.equals(then)) {
+                whole = true;
+            }
+        }
+
+        if (whole) {
+            delta.clear();
+            given.clear();
+            for (Chunk chunk : this.output) {
+                given.add(chunk.copy());
+                delta.add(chunk);
+            }
+        }
+        return delta;
+    }
+
+    @Override
+    public void resetOutputDelta(String consumer) {
+        if (this.consumers != null) {
+            this.consumers.remove(consumer);
+        }
+    }
+
 
 }
@@ -1,6 +1,6 @@
 package tourguide;
 
-import java.util.logging.Logger;
+import java.util.logging.Level;
 
 /** The class Displacement calculates the position of a given location
  *  relative to another.
@@ -8,14 +8,6 @@ import java.util.logging.Logger;
  **/
 
 public class Displacement {
-    private static Logger logger = Logger.getLogger("tourguide");
-    private static final String LS = System.lineSeparator();
-
-    private String finerBanner(String messageName) {
-        return LS
-                + "STATUS: " + " ------- " + messageName + " ------- ";
-    }
-
     public double east;
     public double north;
 
@@ -27,8 +19,11 @@ public class Displacement {
      * */
 
     public Displacement(double e, double n) {
-        logger.finer(finerBanner("East: " + e + "  North: "  + n));
-        
+        // Checked first, as a lambda capturing e and n is made before Log can check.
+        if (Log.isLoggable(Level.FINER)) {
+            Log.log(Level.FINER, () -> "East: " + e + "  North: "  + n);
+        }
+
         east = e;
         north = n;
     }
@@ -40,11 +35,20 @@ public class Displacement {
      */
 
     public double distance() {
-        logger.finer(finerBanner("Entering"));
-        
-        return Math.sqrt(east * east + north * north);
+        Log.finer("Entering");
+
+        return distance(east, north);
     }
 
+    /** This method is the allocation free version of distance(),
+     *  for callers that only need the number.
+     *
+     * @return the distance covered by a displacement of e east and n north.
+     */
+
+    public static double distance(double e, double n) {
+        return Math.sqrt(e * e + n * n);
+    }
 
     /** This method returns the bearings measured clockwise from north direction.
      * Also atan2(y,x) computes angle from x-axis towards y-axis, returning a negative result
@@ -54,17 +58,24 @@ public class Displacement {
      */
 
     public double bearing() {
-        logger.finer(finerBanner("Entering"));
-        
-        double inRadians = Math.atan2(east, north);
-        
+        Log.finer("Entering");
+
+        return bearing(east, north);
+    }
+
+    /** This method is the allocation free version of bearing().
+     *
+     * @return the bearing in degrees of a displacement of e east and n north.
+     */
+
+    public static double bearing(double e, double n) {
+        double inRadians = Math.atan2(e, n);
+
         if (inRadians < 0) {
             inRadians = inRadians + 2 * Math.PI;
         }
-        
+
         return Math.toDegrees(inRadians);
     }
-        
-    
-    
+
 }
@@ -0,0 +1,276 @@
+package tourguide;
+
+/** The class FleetEngine follows tours for a whole fleet of users at once.
+ *
+ *  Rather than a controller per user, each follower is a slot in parallel
+ *  primitive arrays holding its tour, stage and last location, and the
+ *  waypoints of every tour followed sit end to end in one pair of coordinate
+ *  arrays. A location update for the fleet checks every follower for
+ *  arrival in chunks spread over the common ForkJoin pool.
+ *
+ *  Arrival works exactly as in ControllerImp: a follower reaches its next
+ *  waypoint when within waypointRadius of it, and is at its previous waypoint
+ *  again when within waypointRadius of that instead. output() gives the
+ *  same chunks a controller would.
+ *
+ *  Followers are started, ended and updated from one thread at a time.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+public class FleetEngine {
+
+    // Followers checked together by one task.
+    public static final int CHUNK = 4096;
+
+    private final Library library;
+    private final double waypointRadius;
+
+    // How output() works out bearings and distances, as in ControllerImp.
+    public GeometryKernel kernel = GeometryKernel.EXACT;
+
+    // Tours being followed, and where their waypoints start in the coordinate arrays.
+    private final Map<String, Integer> tourIndexes = new HashMap<String, Integer>();
+    private final List<Tour> tours = new ArrayList<Tour>();
+    private int[] tourStart = new int[16];
+    private int[] tourSize = new int[16];
+    private double[] waypointEastings = new double[256];
+    private double[] waypointNorthings = new double[256];
+    private int waypoints;
+
+    // One slot per follower. A free slot follows tour -1.
+    private final int[] tour;
+    private final int[] stage;
+    private final int[] reached;
+    private final double[] eastings;
+    private final double[] northings;
+
+    private final int[] free;
+    private int freeCount;
+    private int used;
+
+    public FleetEngine(Library library, double waypointRadius, int capacity) {
+        this.library = library;
+        this.waypointRadius = waypointRadius;
+        this.tour = new int[capacity];
+        this.stage = new int[capacity];
+        this.reached = new int[capacity];
+        this.eastings = new double[capacity];
+        this.northings = new double[capacity];
+        this.free = new int[capacity];
+        Arrays.fill(this.tour, -1);
+    }
+
+    //--------------------------
+    // Followers
+    //--------------------------
+
+    /** This method starts a follower on the tour with the given id
+     *  from the given location.
+     *
+     * @return the follower, or -1 if there is no such tour or no room.
+     */
+    public int follow(String tourId, double easting, double northing) {
+        int index = tourIndex(tourId);
+        if (index < 0) {
+            return -1;
+        }
+        int follower;
+        if (freeCount > 0) {
+            follower = free[--freeCount];
+        } else if (used < tour.length) {
+            follower = used++;
+        } else {
+            return -1;
+        }
+        tour[follower] = index;
+        stage[follower] = 0;
+        reached[follower] = -1;
+        eastings[follower] = easting;
+        northings[follower] = northing;
+        return follower;
+    }
+
+    /** Stops the follower, freeing its slot. */
+    public void end(int follower) {
+        if (tour[follower] >= 0) {
+            tour[follower] = -1;
+            free[freeCount++] = follower;
+        }
+    }
+
+    /** @return the number of slots handed out so far, free or not. */
+    public int slots() {
+        return used;
+    }
+
+    public int capacity() {
+        return tour.length;
+    }
+
+    private int tourIndex(String tourId) {
+        Tour found = library.getTour(tourId);
+        if (found == null) {
+            return -1;
+        }
+        Integer known = tourIndexes.get(found.id);
+        if (known != null) {
+            return known;
+        }
+        TourGeometry geometry = found.geometry();
+        int index = tours.size();
+        if (index == tourStart.length) {
+            tourStart = Arrays.copyOf(tourStart, index * 2);
+            tourSize = Arrays.copyOf(tourSize, index * 2);
+        }
+        if (waypoints + geometry.size() > waypointEastings.length) {
+            int length = Math.max(waypointEastings.length * 2, waypoints + geometry.size());
+            waypointEastings = Arrays.copyOf(waypointEastings, length);
+            waypointNorthings = Arrays.copyOf(waypointNorthings, length);
+        }
+        tourStart[index] = waypoints;
+        tourSize[index] = geometry.size();
+        for (int i = 0; i < geometry.size(); i++) {
+            waypointEastings[waypoints + i] = geometry.easting(i);
+            waypointNorthings[waypoints + i] = geometry.northing(i);
+        }
+        waypoints += geometry.size();
+        tours.add(found);
+        tourIndexes.put(found.id, index);
+        return index;
+    }
+
+    //--------------------------
+    // Location updates
+    //--------------------------
+
+    /** This method gives the follower a new location, to be checked
+     *  by the next call of advance().
+     */
+    public void setLocation(int follower, double easting, double northing) {
+        eastings[follower] = easting;
+        northings[follower] = northing;
+    }
+
+    /** This method gives every slot a new location, indexed by follower,
+     *  and checks the whole fleet for arrival.
+     */
+    public void setLocations(double[] newEastings, double[] newNorthings) {
+        System.arraycopy(newEastings, 0, eastings, 0, used);
+        System.arraycopy(newNorthings, 0, northings, 0, used);
+        advance();
+    }
+
+    /** This method checks every follower for arrival at its last location. */
+    public void advance() {
+        int chunks = (used + CHUNK - 1) / CHUNK;
+        if (chunks <= 1) {
+            advance(0, used);
+        } else {
+            IntStream.range(0, chunks).parallel().forEach(chunk ->
+                    advance(chunk * CHUNK, Math.min(used, (chunk + 1) * CHUNK)));
+        }
+    }
+
+    private void advance(int from, int to) {
+        double radiusSquared = waypointRadius * waypointRadius;
+        int[] tour = this.tour;
+        int[] stage = this.stage;
+        int[] reached = this.reached;
+        double[] eastings = this.eastings;
+        double[] northings = this.northings;
+        double[] waypointEastings = this.waypointEastings;
+        double[] waypointNorthings = this.waypointNorthings;
+
+        for (int f = from; f < to; f++) {
+            int t = tour[f];
+            if (t < 0) {
+                continue;
+            }
+            int s = stage[f];
+            int first = tourStart[t];
+            double e = eastings[f];
+            double n = northings[f];
+
+            int at = -1;
+            if (s < tourSize[t]) {
+                double east = waypointEastings[first + s] - e;
+                double north = waypointNorthings[first + s] - n;
+                if (east * east + north * north <= radiusSquared) {
+                    at = s;
+                    stage[f] = s + 1;
+                }
+            }
+            if (at < 0 && s != 0) {
+                double east = waypointEastings[first + s - 1] - e;
+                double north = waypointNorthings[first + s - 1] - n;
+                if (east * east + north * north <= radiusSquared) {
+                    at = s - 1;
+                }
+            }
+            reached[f] = at;
+        }
+    }
+
+    //--------------------------
+    // Follower state
+    //--------------------------
+
+    /** @return whether the follower is following a tour. */
+    public boolean isFollowing(int follower) {
+        return tour[follower] >= 0;
+    }
+
+    public Tour tour(int follower) {
+        return tours.get(tour[follower]);
+    }
+
+    public int stage(int follower) {
+        return stage[follower];
+    }
+
+    /** @return the waypoint the follower was at on the last update, or -1. */
+    public int reached(int follower) {
+        return reached[follower];
+    }
+
+    public double easting(int follower) {
+        return eastings[follower];
+    }
+
+    public double northing(int follower) {
+        return northings[follower];
+    }
+
+    /** This method gives the output a controller following the same tour
+     *  from the same locations would have.
+     *
+     * @return the follow chunks of the follower.
+     */
+    public List<Chunk> output(int follower) {
+        Tour followed = tour(follower);
+        int t = tour[follower];
+        int s = stage[follower];
+        List<Chunk> output = new ArrayList<Chunk>(4);
+
+        output.add(new Chunk.FollowHeader(followed.title, s, tourSize[t]));
+        if (reached[follower] >= 0) {
+            output.add(new Chunk.FollowWaypoint(followed.waypoints.get(reached[follower]).annotation));
+        }
+        if (s != tourSize[t]) {
+            double east = waypointEastings[tourStart[t] + s] - eastings[follower];
+            double north = waypointNorthings[tourStart[t] + s] - northings[follower];
+            output.add(new Chunk.FollowLeg(followed.legs.get(s).annotation));
+            output.add(new Chunk.FollowBearing(kernel.bearing(east, north),
+                    kernel.distance(east, north)));
+        }
+        return output;
+    }
+
+}
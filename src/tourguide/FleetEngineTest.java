@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class FleetEngineTest {
+
+    private static final double WAYPOINT_RADIUS = 10.0;
+    private static final double WAYPOINT_SEPARATION = 25.0;
+
+    private Library library;
+
+    @Before
+    public void setup() {
+        library = new Library();
+        library.addTour(TestTours.makeTour("T1", 0, 0, 30, 0, 60, 0));
+        library.addTour(TestTours.makeTour("T2", 0, 0, 0, 40));
+    }
+
+    @Test
+    public void startsAndEnds() {
+        FleetEngine fleet = new FleetEngine(library, WAYPOINT_RADIUS, 2);
+
+        int first = fleet.follow("T1", -20, 0);
+        int second = fleet.follow("t2", 0, -20);
+        Assert.assertEquals(-1, fleet.follow("T1", 0, 0));
+        Assert.assertEquals(-1, fleet.follow("T3", 0, 0));
+
+        fleet.end(first);
+        Assert.assertFalse(fleet.isFollowing(first));
+        Assert.assertEquals(first, fleet.follow("T2", 0, 0));
+        Assert.assertEquals("T2", fleet.tour(second).id);
+    }
+
+    /*
+     * Followers and controllers taken along the same random walks
+     * must give the same output at every step.
+     */
+    @Test
+    public void matchesController() {
+        int count = 200;
+        FleetEngine fleet = new FleetEngine(library, WAYPOINT_RADIUS, count);
+        ControllerImp[] controllers = new ControllerImp[count];
+        Random random = new Random(15);
+
+        double[] eastings = new double[count];
+        double[] northings = new double[count];
+        for (int f = 0; f < count; f++) {
+            String id = f % 2 == 0 ? "T1" : "T2";
+            controllers[f] = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+            controllers[f].setLocation(0, 0);
+            Assert.assertEquals(Status.OK, controllers[f].followTour(id));
+            Assert.assertEquals(f, fleet.follow(id, 0, 0));
+        }
+
+        for (int step = 0; step < 200; step++) {
+            for (int f = 0; f < count; f++) {
+                eastings[f] = random.nextInt(80) - 10 + random.nextDouble();
+                northings[f] = random.nextInt(60) - 10 + random.nextDouble();
+                controllers[f].setLocation(eastings[f], northings[f]);
+            }
+            fleet.setLocations(eastings, northings);
+            for (int f = 0; f < count; f++) {
+                Assert.assertEquals(controllers[f].getOutput(), fleet.output(f));
+            }
+        }
+    }
+
+}
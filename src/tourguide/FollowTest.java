@@ -1,8 +1,12 @@
 package tourguide;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.logging.Handler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 import org.junit.Assert;
@@ -259,6 +263,335 @@ public class FollowTest {
         checkStatusNotOK( controller.followTour("T4") );
     }
 
+    @Test
+    public void testFollowByEqualId() {
+        logger.info(makeBanner("testFollowByEqualId"));
+
+        createOnePointTour();
+        createFourPointTour();
+
+        // A freshly built string, so that the tour cannot be found by reference.
+        checkStatus( controller.followTour(new String("t2")) );
+        controller.setLocation(1000, -1000);
+        checkOutput(3,0, new Chunk.FollowHeader("Royal Mile Walk", 0, 4) );
+    }
+
+    @Test
+    public void testNonExistentStaysInBrowse() {
+        logger.info(makeBanner("testNonExistentStaysInBrowse"));
+
+        createOnePointTour();
+
+        checkStatusNotOK( controller.followTour("T4") );
+        checkStatus( controller.followTour("T1") );
+    }
+
+    /*
+     * The waypoint events logged while following T2 through the given fixes,
+     * taken one at a time or as one batch.
+     */
+    private List<String> waypointEvents(double[] eastings, double[] northings, boolean batch) {
+        Controller follower = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION,
+                ((ControllerImp) controller).library);
+        follower.setLocation(1000, -1000);
+        checkStatus( follower.followTour("T2") );
+
+        final List<String> events = new ArrayList<String>();
+        Handler handler = new Handler() {
+            public void publish(LogRecord record) {
+                String event = ((Log.Event) record).event;
+                if (event.endsWith("WayPointReached")) {
+                    events.add(event);
+                }
+            }
+            public void flush() {
+            }
+            public void close() {
+            }
+        };
+        Level level = logger.getLevel();
+        logger.setLevel(Level.FINER);
+        logger.addHandler(handler);
+        try {
+            if (batch) {
+                checkStatus( follower.setLocations(eastings, northings, null) );
+            } else {
+                for (int i = 0; i < eastings.length; i++) {
+                    follower.setLocation(eastings[i], northings[i]);
+                }
+            }
+        } finally {
+            logger.removeHandler(handler);
+            logger.setLevel(level);
+        }
+        return events;
+    }
+
+    @Test
+    public void testBatchLogsWaypointsAlike() {
+        logger.info(makeBanner("testBatchLogsWaypointsAlike"));
+
+        createFourPointTour();
+
+        double[] eastings = {700, 701, 500, 702, 400};
+        double[] northings = {-900, -901, -700, -898, -590};
+        List<String> single = waypointEvents(eastings, northings, false);
+        Assert.assertEquals(Arrays.asList("nextWayPointReached", "prevWayPointReached",
+                "prevWayPointReached", "nextWayPointReached"), single);
+        Assert.assertEquals(single, waypointEvents(eastings, northings, true));
+    }
+
+    @Test
+    public void testFollowWithoutLocation() {
+        logger.info(makeBanner("testFollowWithoutLocation"));
+
+        Library library = new Library();
+        Tour tour = new Tour("T1", "Informatics at UoE", ann("The Informatics Forum\n"));
+        tour.legs.add(new Leg(Annotation.DEFAULT));
+        tour.waypoints.add(new Waypoint(ann("Informatics Forum"), new Location(300, -500)));
+        library.addTour(tour);
+        controller = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+
+        checkStatusNotOK( controller.followTour("T1") );
+        checkStatus( controller.showTourDetails("T1") );
+
+        controller.setLocation(0, 0);
+        checkStatus( controller.followTour("T1") );
+    }
+
+    @Test
+    public void testRevisitPreviousWaypoint() {
+        logger.info(makeBanner("testRevisitPreviousWaypoint"));
+
+        createFourPointTour();
+
+        checkStatus( controller.followTour("T2") );
+        controller.setLocation(700, -900);
+        controller.setLocation(500, -700);
+        controller.setLocation(702, -898);
+
+        checkOutput(4,0, new Chunk.FollowHeader("Royal Mile Walk", 1, 4) );
+        checkOutput(4,1, new Chunk.FollowWaypoint(ann("Edinburgh Castle")));
+        checkOutput(4,2, new Chunk.FollowLeg(ann("Go down to the famous illusion museum.\n")));
+    }
+
+    @Test
+    public void testLocationAfterFinish() {
+        logger.info(makeBanner("testLocationAfterFinish"));
 
+        followFourPointTour();
+        checkStatus( controller.followTour("T2") );
+        controller.setLocation(700, -900);
+        controller.setLocation(400, -590);
+        controller.setLocation(105, -305);
+        controller.setLocation(0, 0);
+        controller.setLocation(50, 50);
+
+        checkOutput(1,0, new Chunk.FollowHeader("Royal Mile Walk", 4, 4) );
+    }
+
+    @Test
+    public void testBatchOfLocations() {
+        logger.info(makeBanner("testBatchOfLocations"));
+
+        createFourPointTour();
+
+        checkStatus( controller.followTour("T2") );
+        checkStatus( controller.setLocations(
+                new double[] {1000, 700, 701, 500, 400},
+                new double[] {-1000, -900, -901, -700, -590},
+                new long[] {1, 2, 3, 4, 5}) );
+
+        checkOutput(5,0, new Chunk.FollowHeader("Royal Mile Walk", 2, 4) );
+        checkOutput(5,1, new Chunk.FollowWaypoint(ann("Edinburgh Castle")));
+        checkOutput(5,2, new Chunk.FollowWaypoint(ann("Camera Obscura")));
+        checkOutput(5,3, new Chunk.FollowLeg(ann("Check the fancy shops and stop by to taste the finest whiskies.\n")));
+        checkOutput(5,4, new Chunk.FollowBearing(314, 417));
+
+        // Fixes older than the last one taken are skipped.
+        checkStatus( controller.setLocations(
+                new double[] {105, 100}, new double[] {-305, -615}, new long[] {4, 6}) );
+        checkOutput(3,0, new Chunk.FollowHeader("Royal Mile Walk", 2, 4) );
+        checkOutput(3,2, new Chunk.FollowBearing(0, 315));
+
+        checkStatusNotOK( controller.setLocations(new double[] {0}, new double[0], null) );
+    }
+
+    @Test
+    public void testProgress() {
+        logger.info(makeBanner("testProgress"));
+
+        createFourPointTour();
+        ((ControllerImp) controller).showProgress = true;
+
+        controller.setLocation(1000, -1000, 0);
+        checkStatus( controller.followTour("T2") );
+        checkOutput(4,0, new Chunk.FollowHeader("Royal Mile Walk", 0, 4) );
+        checkOutput(4,3, new Chunk.FollowProgress(0, 1481, Double.NaN));
+
+        // 316m in 100 seconds.
+        controller.setLocation(700, -900, 100000);
+        checkOutput(5,1, new Chunk.FollowWaypoint(ann("Edinburgh Castle")));
+        checkOutput(5,4, new Chunk.FollowProgress(21.4, 1165, 368));
+
+        controller.setLocation(0, 0, 50000);
+        checkOutput(5,0, new Chunk.FollowHeader("Royal Mile Walk", 1, 4) );
+
+        checkStatus( controller.setLocations(
+                new double[] {400, 100, 0}, new double[] {-600, -300, 0}, null) );
+        checkOutput(5,0, new Chunk.FollowHeader("Royal Mile Walk", 4, 4) );
+        checkOutput(5,3, new Chunk.FollowWaypoint(ann("St Giles Cathedral")));
+        checkOutput(5,4, new Chunk.FollowProgress(100, 0, 0));
+    }
+
+    @Test
+    public void testDeadReckoningKeepsOutput() {
+        logger.info(makeBanner("testDeadReckoningKeepsOutput"));
+
+        Library library = new Library();
+        Tour tour = new Tour("T9", "Long Walk", ann("Far apart"));
+        for (int w = 0; w < 5; w++) {
+            tour.legs.add(new Leg(ann("Leg " + w)));
+            tour.waypoints.add(new Waypoint(ann("Stop " + w), new Location(w * 200, (w % 2) * 100)));
+        }
+        library.addTour(tour);
+
+        ControllerImp plain = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        ControllerImp reckoning = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        reckoning.maxSpeed = 2.0;
+        plain.setLocation(-50, 0);
+        reckoning.setLocation(-50, 0);
+        checkStatus( plain.followTour("T9") );
+        checkStatus( reckoning.followTour("T9") );
+
+        // A walk at up to 1.8 m/s, a fix a second, that wanders back now and then.
+        Random random = new Random(17);
+        double e = -50, n = 0;
+        double[] eastings = new double[2000];
+        double[] northings = new double[2000];
+        long[] times = new long[2000];
+        int next = 0;
+        for (int t = 0; t < 2000; t++) {
+            Location target = tour.waypoints.get(Math.min(next, 4)).location;
+            double de = target.easting - e, dn = target.northing - n;
+            double d = Math.sqrt(de * de + dn * dn);
+            double step = random.nextDouble() * 1.8;
+            double sign = random.nextInt(10) == 0 ? -1 : 1;
+            if (d > 0) {
+                e += sign * de / d * Math.min(step, d);
+                n += sign * dn / d * Math.min(step, d);
+            }
+            if (d < 1) {
+                next++;
+            }
+            eastings[t] = e;
+            northings[t] = n;
+            times[t] = t * 1000L;
+
+            plain.setLocation(e, n, times[t]);
+            reckoning.setLocation(e, n, times[t]);
+            Assert.assertEquals("Fix " + t, plain.getOutput(), reckoning.getOutput());
+        }
+        Assert.assertEquals(new Chunk.FollowHeader("Long Walk", 5, 5), plain.getOutput().get(0));
+
+        // The same walk as one batch.
+        plain.endSelectedTour();
+        reckoning.endSelectedTour();
+        plain.setLocation(-50, 0);
+        reckoning.setLocation(-50, 0);
+        checkStatus( plain.followTour("T9") );
+        checkStatus( reckoning.followTour("T9") );
+        for (int t = 0; t < 2000; t++) {
+            times[t] += 3000000L;
+        }
+        checkStatus( plain.setLocations(eastings, northings, times) );
+        checkStatus( reckoning.setLocations(eastings, northings, times) );
+        Assert.assertEquals(plain.getOutput(), reckoning.getOutput());
+    }
+
+    @Test
+    public void testSnapshotAndRestore() {
+        logger.info(makeBanner("testSnapshotAndRestore"));
+
+        createOnePointTour();
+        createFourPointTour();
+        Library library = ((ControllerImp) controller).library;
+
+        checkStatus( controller.followTour("T2") );
+        controller.setLocation(700, -900);
+        controller.setLocation(500, -700, 5000);
+
+        byte[] snapshot = controller.snapshot();
+        Assert.assertTrue("Snapshot of " + snapshot.length + " bytes", snapshot.length <= 64);
+
+        // Resumed elsewhere, the session carries on from the same stage.
+        Controller resumed = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        checkStatus( resumed.restore(snapshot) );
+        Assert.assertEquals(controller.getOutput(), resumed.getOutput());
+
+        controller.setLocation(400, -590, 6000);
+        resumed.setLocation(400, -590, 6000);
+        Assert.assertEquals(controller.getOutput(), resumed.getOutput());
+        Assert.assertEquals(new Chunk.FollowHeader("Royal Mile Walk", 2, 4), resumed.getOutput().get(0));
+
+        // A fix older than the snapshot's latest is still dropped.
+        resumed.setLocation(700, -900, 4000);
+        Assert.assertEquals(controller.getOutput(), resumed.getOutput());
+
+        // Without the tour, the session is left browsing.
+        Controller elsewhere = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION);
+        checkStatusNotOK( elsewhere.restore(snapshot) );
+        Assert.assertTrue(elsewhere.getOutput().get(0) instanceof Chunk.BrowseOverview);
+        checkStatusNotOK( elsewhere.restore(new byte[] {ControllerImp.SNAPSHOT_VERSION, 1}) );
+
+        // A damaged length is refused rather than trusted.
+        byte[] damaged = snapshot.clone();
+        damaged[19] = (byte) 0x80;
+        checkStatusNotOK( resumed.restore(damaged) );
+        Assert.assertTrue(resumed.getOutput().get(0) instanceof Chunk.BrowseOverview);
+    }
+
+    @Test
+    public void testSnapshotOfLongId() {
+        logger.info(makeBanner("testSnapshotOfLongId"));
+
+        // An id longer than a short length can hold.
+        StringBuilder id = new StringBuilder();
+        while (id.length() <= Short.MAX_VALUE) {
+            id.append("T");
+        }
+        Library library = new Library();
+        Tour tour = new Tour(id.toString(), "Long Id", ann("A tour with a long id\n"));
+        tour.legs.add(new Leg(Annotation.DEFAULT));
+        tour.waypoints.add(new Waypoint(ann("Only stop"), new Location(0, 0)));
+        library.addTour(tour);
+
+        controller = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        controller.setLocation(100, 0);
+        checkStatus( controller.followTour(id.toString()) );
+
+        Controller resumed = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library);
+        checkStatus( resumed.restore(controller.snapshot()) );
+        Assert.assertEquals(controller.getOutput(), resumed.getOutput());
+    }
+
+    @Test
+    public void testSnapshotWhileCreating() {
+        logger.info(makeBanner("testSnapshotWhileCreating"));
+
+        checkStatus( controller.startNewTour("T5", "Half Done", ann("Not yet finished")) );
+        controller.setLocation(0, 0);
+        checkStatus( controller.addWaypoint(ann("First")) );
+        checkStatus( controller.addLeg(ann("Onwards")) );
+
+        Controller resumed = new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION);
+        checkStatus( resumed.restore(controller.snapshot()) );
+        Assert.assertEquals(new Chunk.CreateHeader("Half Done", 2, 1), resumed.getOutput().get(0));
+
+        resumed.setLocation(0, 100);
+        checkStatus( resumed.addWaypoint(ann("Second")) );
+        checkStatus( resumed.endNewTour() );
+        checkStatus( resumed.showTourDetails("T5") );
+    }
 
 }
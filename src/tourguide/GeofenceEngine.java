@@ -0,0 +1,166 @@
+package tourguide;
+
+/** The class GeofenceEngine tells when a session enters or leaves the
+ *  surroundings of any waypoint in the library, whichever tour it is on.
+ *
+ *  Every waypoint goes into a spatial hash with cells sized to the
+ *  waypoint radius, kept up to date as tours are added to the library.
+ *  A location update then only looks at the few cells around the session,
+ *  however many waypoints there are. Each session keeps the waypoints it is
+ *  within, and an update reports the difference as enter and exit events.
+ *
+ *  A session is updated by one thread at a time; different sessions may be
+ *  updated at once.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class GeofenceEngine implements Library.Listener {
+
+    /*
+     * A session entering or leaving the radius of a waypoint of a tour.
+     */
+    public static class Event {
+        public enum Kind { ENTER, EXIT }
+
+        public final Kind kind;
+        public final String sessionId;
+        public final Tour tour;
+        public final int waypoint;
+
+        public Event(Kind kind, String sessionId, Tour tour, int waypoint) {
+            this.kind = kind;
+            this.sessionId = sessionId;
+            this.tour = tour;
+            this.waypoint = waypoint;
+        }
+
+        public Annotation annotation() {
+            return tour.waypoints.get(waypoint).annotation;
+        }
+
+        public String toString() {
+            return kind + " " + sessionId + " " + tour.id + "/" + waypoint;
+        }
+    }
+
+    /*
+     * The waypoints a session is within, in parallel arrays.
+     */
+    private static class Inside {
+        Tour[] tours = new Tour[4];
+        int[] waypoints = new int[4];
+        int size;
+
+        void add(Tour tour, int waypoint) {
+            if (size == tours.length) {
+                tours = Arrays.copyOf(tours, size * 2);
+                waypoints = Arrays.copyOf(waypoints, size * 2);
+            }
+            tours[size] = tour;
+            waypoints[size] = waypoint;
+            size++;
+        }
+
+        boolean contains(Tour tour, int waypoint) {
+            for (int i = 0; i < size; i++) {
+                if (tours[i] == tour && waypoints[i] == waypoint) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final Library library;
+    private final double waypointRadius;
+    private final SpatialIndex index;
+    private final ConcurrentHashMap<String, Inside> sessions;
+
+    /*
+     * An engine over every waypoint of the library, now and to come.
+     */
+    public GeofenceEngine(Library library, double waypointRadius) {
+        this.library = library;
+        this.waypointRadius = waypointRadius;
+        // Cells a radius across would put a query over up to nine of them;
+        // at twice the radius it is never more than four.
+        this.index = new SpatialIndex(2 * waypointRadius);
+        this.sessions = new ConcurrentHashMap<String, Inside>();
+        library.addListener(this);
+    }
+
+    @Override
+    public void tourAdded(Tour tour) {
+        index.add(tour);
+    }
+
+    /** Stops following the library's new tours. */
+    public void close() {
+        library.removeListener(this);
+    }
+
+    /** This method moves the session to a new location.
+     *
+     * @return the waypoints left, then the waypoints entered, in no
+     *         particular order within each. Empty if nothing changed.
+     */
+    public List<Event> update(final String sessionId, double easting, double northing) {
+        final Inside now = new Inside();
+        index.visitWithin(easting, northing, waypointRadius, new SpatialIndex.Visitor() {
+            public void visit(Tour tour, int waypoint, double distance) {
+                now.add(tour, waypoint);
+            }
+        });
+
+        Inside before = now.size == 0 ? sessions.remove(sessionId) : sessions.put(sessionId, now);
+        return changes(sessionId, before, now);
+    }
+
+    /** This method forgets the session.
+     *
+     * @return an exit event for every waypoint the session was within.
+     */
+    public List<Event> endSession(String sessionId) {
+        return changes(sessionId, sessions.remove(sessionId), new Inside());
+    }
+
+    /** @return the number of sessions within some waypoint's radius. */
+    public int size() {
+        return sessions.size();
+    }
+
+    private static List<Event> changes(String sessionId, Inside before, Inside now) {
+        if (before == null && now.size == 0) {
+            return Collections.emptyList();
+        }
+        List<Event> events = null;
+        if (before != null) {
+            for (int i = 0; i < before.size; i++) {
+                if (!now.contains(before.tours[i], before.waypoints[i])) {
+                    events = add(events, new Event(Event.Kind.EXIT, sessionId, before.tours[i], before.waypoints[i]));
+                }
+            }
+        }
+        for (int i = 0; i < now.size; i++) {
+            if (before == null || !before.contains(now.tours[i], now.waypoints[i])) {
+                events = add(events, new Event(Event.Kind.ENTER, sessionId, now.tours[i], now.waypoints[i]));
+            }
+        }
+        return events == null ? Collections.<Event>emptyList() : events;
+    }
+
+    private static List<Event> add(List<Event> events, Event event) {
+        if (events == null) {
+            events = new ArrayList<Event>(2);
+        }
+        events.add(event);
+        return events;
+    }
+
+}
@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class GeofenceEngineTest {
+
+    private static final double WAYPOINT_RADIUS = 10.0;
+
+    private Library library;
+    private GeofenceEngine geofence;
+
+    private static void checkEvent(Event expected, GeofenceEngine.Event actual) {
+        Assert.assertEquals(expected.kind, actual.kind);
+        Assert.assertEquals(expected.tourId, actual.tour.id);
+        Assert.assertEquals(expected.waypoint, actual.waypoint);
+    }
+
+    private static class Event {
+        final GeofenceEngine.Event.Kind kind;
+        final String tourId;
+        final int waypoint;
+
+        Event(GeofenceEngine.Event.Kind kind, String tourId, int waypoint) {
+            this.kind = kind;
+            this.tourId = tourId;
+            this.waypoint = waypoint;
+        }
+    }
+
+    private static Event enter(String tourId, int waypoint) {
+        return new Event(GeofenceEngine.Event.Kind.ENTER, tourId, waypoint);
+    }
+
+    private static Event exit(String tourId, int waypoint) {
+        return new Event(GeofenceEngine.Event.Kind.EXIT, tourId, waypoint);
+    }
+
+    @Before
+    public void setup() {
+        library = new Library();
+        library.addTour(TestTours.makeTour("T1", 0, 0, 100, 0));
+        geofence = new GeofenceEngine(library, WAYPOINT_RADIUS);
+    }
+
+    @Test
+    public void enterAndExit() {
+        Assert.assertTrue(geofence.update("alice", 50, 0).isEmpty());
+
+        List<GeofenceEngine.Event> events = geofence.update("alice", 95, 3);
+        Assert.assertEquals(1, events.size());
+        checkEvent(enter("T1", 1), events.get(0));
+        Assert.assertEquals("Stop 1", events.get(0).annotation().toString());
+
+        Assert.assertTrue(geofence.update("alice", 100, 0).isEmpty());
+        Assert.assertTrue(geofence.update("bob", 50, 0).isEmpty());
+
+        events = geofence.update("alice", 111, 0);
+        Assert.assertEquals(1, events.size());
+        checkEvent(exit("T1", 1), events.get(0));
+        Assert.assertEquals(0, geofence.size());
+    }
+
+    @Test
+    public void toursAddedLater() {
+        library.addTour(TestTours.makeTour("T2", 5, 5));
+
+        List<GeofenceEngine.Event> events = geofence.update("alice", 3, 3);
+        Assert.assertEquals(2, events.size());
+
+        events = geofence.update("alice", -8, 0);
+        Assert.assertEquals(1, events.size());
+        checkEvent(exit("T2", 0), events.get(0));
+
+        events = geofence.endSession("alice");
+        Assert.assertEquals(1, events.size());
+        checkEvent(exit("T1", 0), events.get(0));
+        Assert.assertTrue(geofence.endSession("alice").isEmpty());
+    }
+
+    @Test
+    public void closedEngineMissesNewTours() {
+        geofence.close();
+        library.addTour(TestTours.makeTour("T2", 500, 500));
+
+        Assert.assertTrue(geofence.update("alice", 500, 500).isEmpty());
+    }
+
+}
@@ -0,0 +1,72 @@
+package tourguide;
+
+/** The enum GeometryKernel works out the bearing and distance of a
+ *  displacement for the follow output.
+ *
+ *  EXACT is Displacement's bearing and distance, and the default. FAST
+ *  replaces atan2 with a polynomial over one octant, accurate to within
+ *  0.001 degrees. That is far below the whole degrees a FollowBearing is
+ *  shown to, but a bearing that close to a half can still be shown a
+ *  degree off, so FAST is for those who choose speed over that.
+ *  Distances are the same in both: a square root is a single instruction,
+ *  and whether a waypoint is within reach is decided on squared distances
+ *  before either is called.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+public enum GeometryKernel {
+
+    EXACT {
+        @Override
+        public double bearing(double e, double n) {
+            return Displacement.bearing(e, n);
+        }
+    },
+
+    FAST {
+        @Override
+        public double bearing(double e, double n) {
+            double ae = Math.abs(e);
+            double an = Math.abs(n);
+            double max = Math.max(ae, an);
+            if (max == 0) {
+                return 0;
+            }
+            double t = Math.min(ae, an) / max;
+            double degrees = atan(t) * DEGREES;
+            // The angle from north within the quadrant, then the quadrant.
+            if (ae > an) {
+                degrees = 90 - degrees;
+            }
+            if (n < 0) {
+                degrees = 180 - degrees;
+            }
+            if (e < 0) {
+                degrees = 360 - degrees;
+            }
+            return degrees;
+        }
+    };
+
+    private static final double DEGREES = 180 / Math.PI;
+
+    /** @return the bearing in degrees, clockwise from north, of a displacement
+     *          of e east and n north. */
+    public abstract double bearing(double e, double n);
+
+    /** @return the distance covered by a displacement of e east and n north. */
+    public double distance(double e, double n) {
+        return Math.sqrt(e * e + n * n);
+    }
+
+    /*
+     * Arctangent of t in [0, 1] in radians, by an odd minimax polynomial
+     * with an error under 1e-5.
+     */
+    private static double atan(double t) {
+        double s = t * t;
+        return t * (0.99997726 + s * (-0.33262347 + s * (0.19354346
+                + s * (-0.11643287 + s * (0.05265332 + s * -0.01172120)))));
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class GeometryKernelTest {
+
+    // Well within the whole degree a bearing is shown to.
+    private static final double BEARING_EPS = 0.001;
+
+    private static void checkBearing(double e, double n) {
+        double exact = GeometryKernel.EXACT.bearing(e, n);
+        double fast = GeometryKernel.FAST.bearing(e, n);
+        double error = Math.abs(exact - fast);
+        // The message is only built on failure, as this runs for every point below.
+        if (!(fast >= 0 && fast <= 360 && Math.min(error, 360 - error) <= BEARING_EPS)) {
+            Assert.fail("Bearing of (" + e + ", " + n + "): " + fast + " for " + exact);
+        }
+    }
+
+    @Test
+    public void everyWholeMetreWithinTwoHundred() {
+        for (int e = -200; e <= 200; e++) {
+            for (int n = -200; n <= 200; n++) {
+                checkBearing(e, n);
+            }
+        }
+    }
+
+    @Test
+    public void everyDirectionAtEveryScale() {
+        // A thousandth of a degree apart, from a millimetre to a thousand kilometres.
+        for (int step = 0; step < 360000; step++) {
+            double radians = Math.toRadians(step / 1000.0);
+            double scale = Math.pow(10, step % 10 - 3);
+            checkBearing(scale * Math.sin(radians), scale * Math.cos(radians));
+        }
+        Random random = new Random(17);
+        for (int i = 0; i < 100000; i++) {
+            checkBearing(random.nextGaussian() * 300, random.nextGaussian() * 300);
+        }
+    }
+
+    @Test
+    public void axesAndOrigin() {
+        double[] values = {0.0, -0.0, 1e-300, -1e-300, 1, -1, 1e300, -1e300};
+        for (double e : values) {
+            for (double n : values) {
+                // Signed zeros give atan2 a direction for no displacement at all.
+                if (e != 0 || n != 0) {
+                    checkBearing(e, n);
+                }
+            }
+        }
+        Assert.assertEquals(0, GeometryKernel.FAST.bearing(0, 0), 0);
+        Assert.assertEquals(90, GeometryKernel.FAST.bearing(5, 0), 0);
+        Assert.assertEquals(180, GeometryKernel.FAST.bearing(0, -5), 0);
+        Assert.assertEquals(270, GeometryKernel.FAST.bearing(-5, 0), 0);
+    }
+
+    @Test
+    public void exactUnlessChosen() {
+        // FAST shows 356 here, a degree off what Displacement shows.
+        Assert.assertEquals("355", String.format("%.0f", GeometryKernel.EXACT.bearing(-34.618, 439.862)));
+        Assert.assertEquals(GeometryKernel.EXACT, new ControllerImp(10.0, 25.0).kernel);
+        Assert.assertEquals(GeometryKernel.EXACT, new FleetEngine(new Library(), 10.0, 1).kernel);
+    }
+
+    @Test
+    public void distancesAreExact() {
+        Random random = new Random(17);
+        for (int i = 0; i < 100000; i++) {
+            double e = random.nextGaussian() * 300;
+            double n = random.nextGaussian() * 300;
+            Assert.assertEquals(Displacement.distance(e, n), GeometryKernel.FAST.distance(e, n), 0);
+        }
+    }
+
+}
@@ -5,11 +5,11 @@ package tourguide;
  *  @author Hristiyan Yaprakov and Kiril Rechanski
  **/
 
-import java.util.logging.Logger;
+import java.io.Serializable;
 
-public class Leg {
+public class Leg implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-    private static Logger logger = Logger.getLogger("tourguide");
 
     public Annotation annotation;
 
@@ -2,55 +2,293 @@
 package tourguide;
 
 /** The class Library stores all tours created.
+ *  Tours are indexed by their normalized id so that
+ *  lookups do not depend on the size of the library.
+ *
+ *  A library can be shared by many sessions. Lookups and browsing
+ *  never lock, while tours are added one at a time.
  *  @author Hristiyan Yaprakov and Kiril Rechanski
  **/
 
+import java.io.IOException;
 import java.util.*;
-import java.util.logging.Logger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
 
 public class Library {
 
-    public List<Tour> tours;
-    private static Logger logger = Logger.getLogger("tourguide");
-    private static final String LS = System.lineSeparator();
+    private final ConcurrentHashMap<String, Tour> index;
+    // Sorted by normalized id, so that paging cursors are case-insensitive too.
+    private final ConcurrentSkipListMap<String, Tour> catalogue;
+    private volatile Chunk.BrowseOverview overview;
+    private final SearchIndex searchIndex;
+    private final SpatialIndex spatialIndex;
+    private TourStore store;
+    private final List<Listener> listeners;
 
-    private String errorBanner(String messageName) {
-        return LS
-                + "ERROR: " + " !!!!! " + messageName + " !!!!! ";
+    public Library() {
+
+        this.index = new ConcurrentHashMap<String, Tour>();
+        this.catalogue = new ConcurrentSkipListMap<String, Tour>();
+        this.searchIndex = new SearchIndex();
+        this.spatialIndex = new SpatialIndex(SpatialIndex.DEFAULT_CELL_SIZE);
+        this.listeners = new CopyOnWriteArrayList<Listener>();
+    }
+
+    /** Creates a library backed by the given store. The stored tours are
+     *  loaded straight away and every tour added later is committed to it.
+     */
+    public Library(TourStore store) throws IOException {
+        this();
+        for (Tour tour : store.load()) {
+            insert(tour);
+        }
+        this.store = store;
     }
-    private String finerBanner(String messageName) {
-        return LS
-                + "STATUS: " + " ------- " + messageName + " ------- ";
+
+    /*
+     * Told about every tour in the library, for keeping indexes of its own.
+     */
+    public interface Listener {
+        void tourAdded(Tour tour);
     }
 
-    public Library() {
+    /** This method tells the listener about every tour in the library
+     *  and then about each tour as it is added, so it misses none.
+     */
+    public synchronized void addListener(Listener listener) {
+        for (Tour tour : this.catalogue.values()) {
+            listener.tourAdded(tour);
+        }
+        this.listeners.add(listener);
+    }
 
-        this.tours = new ArrayList<Tour>();
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /** Tour ids are compared case-insensitively everywhere,
+     *  so this is the single place that decides when two ids are equal.
+     *
+     * @return the key under which a tour with the given id is indexed.
+     */
+    public static String normalizeId(String id) {
+        return id.toLowerCase(Locale.ROOT);
     }
 
-    /** This method adds a created tour to the list of tours
-     *  and sorts that list
+    /** This method adds a created tour to the library.
+     *  The catalogue is kept sorted by id as tours are inserted.
+     *  Tours are added one at a time, and a tour is already in the
+     *  catalogue by the time getTour can find it. The add that fills
+     *  the store's log goes on to compact it, after letting other
+     *  adds through.
      *
      * @return confirmation whether a tour has been 
      *         successfuly added or not.
      */
 
     public boolean addTour(Tour tour) {
-        boolean contains = false;
-        for (Tour t : this.tours) {
-            if (t.id == tour.id) {
-                contains = true;
+        boolean compact;
+        synchronized (this) {
+            if (this.containsTour(tour.id)) {
+                Log.log(Level.WARNING, "tourWithIdExists", null, tour.id, -1);
+                return false;
+            }
+
+            if (this.store != null) {
+                try {
+                    this.store.append(tour);
+                } catch (IOException e) {
+                    Log.log(Level.WARNING, () -> "tourNotStored: " + e.getMessage());
+                    return false;
+                }
             }
+
+            insert(tour);
+            Log.log(Level.FINER, "newTourAdded", null, tour.id, -1);
+            compact = this.store != null && this.store.needsCompaction();
+        }
+
+        if (compact) {
+            compact();
         }
-        if (contains) {
-            logger.warning(errorBanner("tourWitIdExists"));
+        return true;
+    }
+
+    private boolean insert(Tour tour) {
+        String key = normalizeId(tour.id);
+        if (this.index.containsKey(key)) {
             return false;
         }
-        
-        this.tours.add(tour);
-        Collections.sort(tours, new TourComparator());
-        logger.finer(finerBanner("newTourAdded"));
+        this.searchIndex.add(tour);
+        this.spatialIndex.add(tour);
+        this.catalogue.put(key, tour);
+        this.index.put(key, tour);
+        this.overview = null;
+        for (Listener listener : this.listeners) {
+            listener.tourAdded(tour);
+        }
         return true;
     }
 
+    /** This method writes a fresh snapshot of the library to its store.
+     *  Only taking the tours to write holds the library, so tours can be
+     *  added while the snapshot is written. A tour that has already been
+     *  committed stays in the log if the snapshot cannot be written.
+     *  Nothing is done while another compaction is under way.
+     */
+    public void compact() {
+        if (this.store == null) {
+            return;
+        }
+        List<Tour> tours;
+        try {
+            synchronized (this) {
+                if (!this.store.startCompaction()) {
+                    return;
+                }
+                tours = new ArrayList<Tour>(this.catalogue.values());
+            }
+            this.store.compact(tours);
+        } catch (IOException e) {
+            Log.log(Level.WARNING, () -> "snapshotNotWritten: " + e.getMessage());
+        }
+    }
+
+    /** This method looks up a tour by its id.
+     *
+     * @return the tour with the given id or null if there is none.
+     */
+    public Tour getTour(String id) {
+        if (id == null) {
+            return null;
+        }
+        return this.index.get(normalizeId(id));
+    }
+
+    /** This method finds tours by words in their titles and annotations.
+     *  Each word of the query matches as a prefix.
+     *
+     * @return up to limit tours matching all words, best match first.
+     */
+    public List<Tour> search(String query, int limit) {
+        return this.searchIndex.search(query, limit);
+    }
+
+    /** @return the k tours passing nearest to the location, nearest first. */
+    public List<Tour> nearestTours(double easting, double northing, int k) {
+        return this.spatialIndex.nearestTours(easting, northing, k);
+    }
+
+    /** @return the tours passing within radius of the location, nearest first. */
+    public List<Tour> toursWithin(double easting, double northing, double radius) {
+        return this.spatialIndex.toursWithin(easting, northing, radius);
+    }
+
+    /** @return the tours starting within radius of the location, nearest first. */
+    public List<Tour> toursStartingWithin(double easting, double northing, double radius) {
+        return this.spatialIndex.toursStartingWithin(easting, northing, radius);
+    }
+
+    /** @return whether a tour with the given id is in the library. */
+    public boolean containsTour(String id) {
+        return getTour(id) != null;
+    }
+
+    /** The view reflects tours added while it is being iterated over,
+     *  so use getOverview for a consistent picture of the library.
+     *
+     * @return a read-only view of all tours, sorted by id.
+     */
+    public Collection<Tour> tours() {
+        return Collections.unmodifiableCollection(this.catalogue.values());
+    }
+
+    /** The overview of all tours is built only when the library
+     *  has changed since it was last asked for.
+     *
+     * @return an immutable overview of all tours, sorted by id.
+     */
+    public Chunk.BrowseOverview getOverview() {
+        Chunk.BrowseOverview cached = this.overview;
+        if (cached != null) {
+            return cached;
+        }
+        return rebuildOverview();
+    }
+
+    /*
+     * Rebuilding holds the same lock as addTour, so the overview never
+     * misses a tour added before it, and a tour added after it clears it.
+     */
+    private synchronized Chunk.BrowseOverview rebuildOverview() {
+        Chunk.BrowseOverview rebuilt = this.overview;
+        if (rebuilt == null) {
+            List<Chunk.OverviewLine> lines = new ArrayList<Chunk.OverviewLine>(this.catalogue.size());
+            for (Tour tour : this.catalogue.values()) {
+                lines.add(new Chunk.OverviewLine(tour.id, tour.title));
+            }
+            rebuilt = new Chunk.BrowseOverview(lines);
+            this.overview = rebuilt;
+            Log.finer("overviewRebuilt");
+        }
+        return rebuilt;
+    }
+
+    /** This method returns up to pageSize tours following the cursor,
+     *  which is the id of the last tour on the previous page. As the
+     *  cursor is an id rather than a position, tours added meanwhile
+     *  do not shift the pages that follow.
+     *
+     * @param afterId the cursor, or null for the first page.
+     * @return one page of the overview.
+     */
+    public Chunk.BrowsePage getOverviewPage(String afterId, int pageSize) {
+        List<Chunk.OverviewLine> lines = new ArrayList<Chunk.OverviewLine>(Math.min(pageSize, 1024));
+        Iterator<Tour> it = page(afterId).iterator();
+        while (lines.size() < pageSize && it.hasNext()) {
+            Tour tour = it.next();
+            lines.add(new Chunk.OverviewLine(tour.id, tour.title));
+        }
+        String next = it.hasNext() && !lines.isEmpty() ? lines.get(lines.size() - 1).id : null;
+        return new Chunk.BrowsePage(lines, next);
+    }
+
+    /** This method writes up to pageSize overview lines following the cursor
+     *  straight to out, so that memory use does not depend on the size
+     *  of the library.
+     *
+     * @return the cursor for the next page, or null if there is none.
+     */
+    public String writeOverview(Appendable out, String afterId, int pageSize) throws IOException {
+        Iterator<Tour> it = page(afterId).iterator();
+        if (!it.hasNext()) {
+            if (afterId == null) {
+                Chunk.BrowseOverview.writeEmpty(out);
+            }
+            return null;
+        }
+        String last = null;
+        for (int written = 0; written < pageSize && it.hasNext(); written++) {
+            Tour tour = it.next();
+            Chunk.OverviewLine.appendTo(out, tour.id, tour.title);
+            last = tour.id;
+        }
+        return it.hasNext() ? last : null;
+    }
+
+    private Collection<Tour> page(String afterId) {
+        if (afterId == null) {
+            return this.catalogue.values();
+        }
+        return this.catalogue.tailMap(normalizeId(afterId), false).values();
+    }
+
+    /** @return the number of tours in the library. */
+    public int size() {
+        return this.index.size();
+    }
+
 }
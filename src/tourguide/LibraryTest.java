@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class LibraryTest {
+
+    private static Tour makeTour(String id) {
+        Tour tour = new Tour(id, "Tour " + id, new Annotation("About " + id));
+        tour.legs.add(new Leg(Annotation.DEFAULT));
+        tour.waypoints.add(new Waypoint(new Annotation("Start"), new Location(0, 0)));
+        return tour;
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void toursViewIsReadOnly() {
+        Library library = new Library();
+        library.addTour(makeTour("T1"));
+        library.tours().clear();
+    }
+
+    @Test
+    public void overviewFollowsAdds() {
+        Library library = new Library();
+        library.addTour(makeTour("T2"));
+        Chunk.BrowseOverview first = library.getOverview();
+        Assert.assertSame(first, library.getOverview());
+
+        library.addTour(makeTour("T1"));
+        Chunk.BrowseOverview second = library.getOverview();
+        Assert.assertEquals(2, second.overviewLines.size());
+        Assert.assertEquals("T1", second.overviewLines.get(0).id);
+        Assert.assertEquals(1, first.overviewLines.size());
+    }
+
+    @Test
+    public void sharedOverviewCannotBeChanged() {
+        Library library = new Library();
+        library.addTour(makeTour("T1"));
+        Chunk.BrowseOverview shared = library.getOverview();
+        try {
+            shared.addIdAndTitle("T9", "Not a tour");
+            Assert.fail("A shared overview was changed.");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+        Assert.assertEquals(1, library.getOverview().overviewLines.size());
+    }
+
+    @Test
+    public void concurrentAddsOfSameIdsSucceedOnce() throws InterruptedException {
+        final Library library = new Library();
+        final int threads = 8;
+        final int ids = 500;
+        final AtomicInteger added = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < ids; i++) {
+                        if (library.addTour(makeTour("T" + i))) {
+                            added.incrementAndGet();
+                        }
+                        Assert.assertNotNull(library.getOverview());
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Assert.assertEquals(ids, added.get());
+        Assert.assertEquals(ids, library.size());
+        Assert.assertEquals(ids, library.getOverview().overviewLines.size());
+    }
+
+}
@@ -6,10 +6,11 @@ package tourguide;
  *  @author Hristiyan Yaprakov and Kiril Rechanski
  **/
 
-import java.util.logging.Logger;
+import java.io.Serializable;
+
+public class Location implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-public class Location {
-    private static Logger logger = Logger.getLogger("tourguide");
 
     public double easting;
     public double northing;
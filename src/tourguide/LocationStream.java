@@ -0,0 +1,255 @@
+package tourguide;
+
+/** The class LocationStream takes location fixes for many sessions as a
+ *  Flow and feeds them to a SessionHost, publishing each session's output.
+ *
+ *  Fixes are coalesced per session: while a session waits to be processed,
+ *  a newer fix for it replaces the one waiting, so a flood of fixes from one
+ *  device costs no more than its latest. At most capacity sessions wait at
+ *  once. Fixes are only requested from upstream while there is room for
+ *  them, and outputs are published through a bounded SubmissionPublisher,
+ *  which holds the stream back while its subscribers fall behind.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+public class LocationStream implements Flow.Processor<LocationStream.Fix, LocationStream.Update>,
+        AutoCloseable {
+    /*
+     * A location fix for a session, taken at timestamp milliseconds.
+     */
+    public static class Fix {
+        public final String sessionId;
+        public final double easting;
+        public final double northing;
+        public final long timestamp;
+
+        public Fix(String sessionId, double easting, double northing, long timestamp) {
+            this.sessionId = sessionId;
+            this.easting = easting;
+            this.northing = northing;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /*
+     * The output of a session after taking the fix with the given timestamp.
+     * The chunks are copies, so they stay as they are.
+     */
+    public static class Update {
+        public final String sessionId;
+        public final long timestamp;
+        public final List<Chunk> output;
+
+        public Update(String sessionId, long timestamp, List<Chunk> output) {
+            this.sessionId = sessionId;
+            this.timestamp = timestamp;
+            this.output = output;
+        }
+    }
+
+    private final SessionHost host;
+    private final int capacity;
+    private final Executor executor;
+    private final SubmissionPublisher<Update> publisher;
+
+    // The latest fix of each waiting session, and the waiting sessions in arrival order.
+    private final ConcurrentHashMap<String, Fix> pending;
+    private final ArrayBlockingQueue<String> ready;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile Flow.Subscription subscription;
+    private volatile boolean completed;
+    private volatile Throwable failure;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+
+    /*
+     * A stream processing fixes on the executor and delivering updates
+     * on the common pool.
+     */
+    public LocationStream(SessionHost host, int capacity, Executor executor) {
+        this(host, capacity, executor, ForkJoinPool.getCommonPoolParallelism() > 1
+                ? ForkJoinPool.commonPool() : task -> new Thread(task).start());
+    }
+
+    /*
+     * A stream processing fixes on the executor, with at most capacity sessions
+     * waiting and at most capacity updates buffered for each subscriber.
+     * Updates are delivered on the delivery executor, which must not be
+     * the executor itself, as processing waits for slow subscribers.
+     */
+    public LocationStream(SessionHost host, int capacity, Executor executor, Executor delivery) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity should be positive.");
+        }
+        this.host = host;
+        this.capacity = capacity;
+        this.executor = executor;
+        this.publisher = new SubmissionPublisher<Update>(delivery,
+                Math.max(capacity, Flow.defaultBufferSize()));
+        this.pending = new ConcurrentHashMap<String, Fix>();
+        this.ready = new ArrayBlockingQueue<String>(capacity);
+    }
+
+    //--------------------------
+    // Upstream
+    //--------------------------
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(capacity);
+    }
+
+    @Override
+    public void onNext(Fix fix) {
+        received.increment();
+        if (pending.put(fix.sessionId, fix) != null) {
+            // The session was already waiting and will take this fix instead.
+            coalesced.increment();
+            subscription.request(1);
+            return;
+        }
+        if (!ready.offer(fix.sessionId)) {
+            // Only an upstream sending more than it was asked for gets here.
+            pending.remove(fix.sessionId, fix);
+            Log.log(Level.WARNING, "LOCATION_STREAM_OVERFLOW", fix.sessionId, null, -1);
+            return;
+        }
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        failure = throwable;
+        completed = true;
+        schedule();
+    }
+
+    @Override
+    public void onComplete() {
+        completed = true;
+        schedule();
+    }
+
+    //--------------------------
+    // Downstream
+    //--------------------------
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Update> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /** Stops taking fixes and closes the stream to its subscribers. */
+    @Override
+    public void close() {
+        Flow.Subscription upstream = subscription;
+        if (upstream != null) {
+            upstream.cancel();
+        }
+        publisher.close();
+    }
+
+    //--------------------------
+    // Processing
+    //--------------------------
+
+    private void schedule() {
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /*
+     * Runs on the executor, one drain at a time, until no session is waiting.
+     */
+    private void drain() {
+        while (true) {
+            String sessionId = ready.poll();
+            if (sessionId == null) {
+                // Still the only drain, so nothing is being processed.
+                if (completed && !publisher.isClosed()) {
+                    if (failure != null) {
+                        publisher.closeExceptionally(failure);
+                    } else {
+                        publisher.close();
+                    }
+                }
+                draining.set(false);
+                // A session that became ready after the poll but before the flag was
+                // cleared found the drain still running, so it is picked up here.
+                if (ready.isEmpty() || !draining.compareAndSet(false, true)) {
+                    break;
+                }
+                continue;
+            }
+            process(sessionId);
+            subscription.request(1);
+        }
+    }
+
+    private void process(String sessionId) {
+        final Fix fix = pending.remove(sessionId);
+        if (fix == null) {
+            return;
+        }
+        Update update = host.execute(sessionId, controller -> {
+            controller.setLocation(fix.easting, fix.northing, fix.timestamp);
+            List<Chunk> output = new ArrayList<Chunk>(controller.getOutput().size());
+            for (Chunk chunk : controller.getOutput()) {
+                output.add(chunk.copy());
+            }
+            return new Update(sessionId, fix.timestamp, Collections.unmodifiableList(output));
+        });
+        processed.increment();
+        if (publisher.hasSubscribers() && !publisher.isClosed()) {
+            // Blocks while a subscriber's buffer is full.
+            publisher.submit(update);
+        }
+    }
+
+    //--------------------------
+    // Statistics
+    //--------------------------
+
+    /** @return the number of fixes received. */
+    public long received() {
+        return received.sum();
+    }
+
+    /** @return the number of fixes replaced by a newer one before being processed. */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /** @return the number of fixes processed. */
+    public long processed() {
+        return processed.sum();
+    }
+
+    /** @return the number of sessions waiting to be processed. */
+    public int waiting() {
+        return ready.size();
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class LocationStreamTest {
+
+    private SessionHost host;
+    private ArrayDeque<Runnable> tasks;
+    private LocationStream stream;
+    private long requested;
+    private List<LocationStream.Update> updates;
+
+    private static Annotation ann(String s) { return new Annotation(s); }
+
+    @Before
+    public void setup() {
+        host = new SessionHost(new Library(), 10.0, 25.0, 60000, 100);
+        host.execute("author", c -> {
+            c.startNewTour("T1", "Tour", ann("About"));
+            c.setLocation(0, 0);
+            c.addWaypoint(ann("Start"));
+            c.addLeg(ann("Walk north"));
+            c.setLocation(0, 100);
+            c.addWaypoint(ann("End"));
+            return c.endNewTour();
+        });
+
+        // Fixes are processed only when the test runs the queued tasks.
+        tasks = new ArrayDeque<Runnable>();
+        stream = new LocationStream(host, 2, tasks::add, Runnable::run);
+
+        requested = 0;
+        stream.onSubscribe(new Flow.Subscription() {
+            public void request(long n) {
+                requested += n;
+            }
+            public void cancel() {
+            }
+        });
+
+        updates = new ArrayList<LocationStream.Update>();
+        stream.subscribe(new Flow.Subscriber<LocationStream.Update>() {
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+            public void onNext(LocationStream.Update update) {
+                updates.add(update);
+            }
+            public void onError(Throwable throwable) {
+            }
+            public void onComplete() {
+            }
+        });
+    }
+
+    private void follow(String sessionId) {
+        host.execute(sessionId, c -> {
+            c.setLocation(0, -50);
+            return c.followTour("T1");
+        });
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+    }
+
+    @Test
+    public void latestFixWins() {
+        follow("alice");
+
+        stream.onNext(new LocationStream.Fix("alice", 0, -40, 1));
+        stream.onNext(new LocationStream.Fix("alice", 0, -30, 2));
+        stream.onNext(new LocationStream.Fix("alice", 0, 1, 3));
+        runTasks();
+
+        Assert.assertEquals(3, stream.received());
+        Assert.assertEquals(2, stream.coalesced());
+        Assert.assertEquals(1, stream.processed());
+        Assert.assertEquals(1, updates.size());
+        Assert.assertEquals(3, updates.get(0).timestamp);
+        Assert.assertEquals(new Chunk.FollowHeader("Tour", 1, 2), updates.get(0).output.get(0));
+        Assert.assertEquals(new Chunk.FollowWaypoint(ann("Start")), updates.get(0).output.get(1));
+    }
+
+    @Test
+    public void demandFollowsRoom() {
+        follow("alice");
+        follow("bob");
+
+        Assert.assertEquals(2, requested);
+        stream.onNext(new LocationStream.Fix("alice", 0, -40, 1));
+        stream.onNext(new LocationStream.Fix("bob", 0, -40, 1));
+        Assert.assertEquals(2, stream.waiting());
+        // A fix for a waiting session takes no room, so it is requested again at once.
+        stream.onNext(new LocationStream.Fix("bob", 0, -30, 2));
+        Assert.assertEquals(3, requested);
+
+        runTasks();
+        Assert.assertEquals(0, stream.waiting());
+        Assert.assertEquals(5, requested);
+        Assert.assertEquals(2, updates.size());
+    }
+
+    @Test
+    public void updatesAreCopies() {
+        follow("alice");
+
+        stream.onNext(new LocationStream.Fix("alice", 0, -40, 1));
+        runTasks();
+        stream.onNext(new LocationStream.Fix("alice", 0, 1, 2));
+        runTasks();
+
+        Assert.assertEquals(new Chunk.FollowHeader("Tour", 0, 2), updates.get(0).output.get(0));
+        Assert.assertEquals(new Chunk.FollowHeader("Tour", 1, 2), updates.get(1).output.get(0));
+    }
+
+}
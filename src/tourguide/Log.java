@@ -0,0 +1,138 @@
+package tourguide;
+
+/** The class Log is how the app logs, to the "tourguide" logger.
+ *
+ *  Nothing is formatted unless the logger would publish it: a message is
+ *  either the name of an event, passed as a constant, or a Supplier only
+ *  called once the level is known to be enabled. Logging at a disabled
+ *  level costs a level check and no allocation. A Supplier capturing
+ *  local values is allocated before Log is called, so on hot paths it is
+ *  only made after checking isLoggable.
+ *
+ *  Each message is published as an Event, a LogRecord carrying the event
+ *  name, session id, tour id and stage alongside the banner the message is
+ *  shown in, so that handlers can pick the fields out rather than parse
+ *  the text.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+public final class Log {
+    private static final Logger logger = Logger.getLogger("tourguide");
+    private static final String LS = System.lineSeparator();
+    private static final StackWalker walker = StackWalker.getInstance();
+
+    /*
+     * A structured log record. The session and tour id are null and
+     * the stage is -1 where they do not apply.
+     */
+    public static class Event extends LogRecord {
+        private static final long serialVersionUID = 1L;
+
+        public final String event;
+        public final String session;
+        public final String tourId;
+        public final int stage;
+
+        Event(Level level, String event, String session, String tourId, int stage) {
+            super(level, banner(level, event, session, tourId, stage));
+            this.event = event;
+            this.session = session;
+            this.tourId = tourId;
+            this.stage = stage;
+            setLoggerName(logger.getName());
+        }
+    }
+
+    private Log() {
+    }
+
+    /** @return whether a message at the given level would be published. */
+    public static boolean isLoggable(Level level) {
+        return logger.isLoggable(level);
+    }
+
+    public static void fine(String event) {
+        log(Level.FINE, event, null, null, -1);
+    }
+
+    public static void finer(String event) {
+        log(Level.FINER, event, null, null, -1);
+    }
+
+    public static void finest(String event) {
+        log(Level.FINEST, event, null, null, -1);
+    }
+
+    public static void warning(String event) {
+        log(Level.WARNING, event, null, null, -1);
+    }
+
+    /** Logs a message only made if the level is enabled. */
+    public static void log(Level level, Supplier<String> event) {
+        if (logger.isLoggable(level)) {
+            publish(new Event(level, event.get(), null, null, -1));
+        }
+    }
+
+    /** Logs an event of the given session, on the given tour and stage. */
+    public static void log(Level level, String event, String session, String tourId, int stage) {
+        if (logger.isLoggable(level)) {
+            publish(new Event(level, event, session, tourId, stage));
+        }
+    }
+
+    private static void publish(Event record) {
+        // Attribute the record to whoever called Log, or ControllerImp's
+        // logging helpers, as a Logger would.
+        walker.walk(frames -> frames
+                .filter(frame -> !isLogging(frame))
+                .findFirst())
+            .ifPresent(frame -> {
+                record.setSourceClassName(frame.getClassName());
+                record.setSourceMethodName(frame.getMethodName());
+            });
+        logger.log(record);
+    }
+
+    private static boolean isLogging(StackWalker.StackFrame frame) {
+        String className = frame.getClassName();
+        return className.equals(Log.class.getName())
+                || className.equals(ControllerImp.class.getName())
+                        && (frame.getMethodName().equals("event") || frame.getMethodName().equals("reject"));
+    }
+
+    /*
+     * The banner each level has always been shown in.
+     */
+    private static String banner(Level level, String event, String session, String tourId, int stage) {
+        StringBuilder fields = new StringBuilder();
+        if (session != null) {
+            fields.append(", session ").append(session);
+        }
+        if (tourId != null) {
+            fields.append(", tour ").append(tourId);
+        }
+        if (stage >= 0) {
+            fields.append(", stage ").append(stage);
+        }
+        String message = fields.length() == 0 ? event : event + " [" + fields.substring(2) + "]";
+        if (level.intValue() >= Level.WARNING.intValue()) {
+            return LS + "ERROR: " + " !!!!! " + message + " !!!!! ";
+        } else if (level.intValue() >= Level.FINE.intValue()) {
+            return LS
+                    + "-------------------------------------------------------------" + LS
+                    + "MESSAGE: " + message + LS
+                    + "-------------------------------------------------------------";
+        } else if (level.intValue() >= Level.FINER.intValue()) {
+            return LS + "STATUS: " + " ------- " + message + " ------- ";
+        } else {
+            return LS + "STATUS: " + " ******* " + message + " ******* ";
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+package tourguide;
+
+/** The class MeteredController times every operation of the controller it
+ *  wraps and counts those that fail, in a Metrics.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.util.List;
+
+public class MeteredController implements Controller {
+
+    private final Controller controller;
+    private final Metrics metrics;
+
+    public MeteredController(Controller controller, Metrics metrics) {
+        this.controller = controller;
+        this.metrics = metrics;
+    }
+
+    private Status record(Metrics.Operation operation, long start, Status status) {
+        metrics.record(operation, start, status != Status.OK);
+        return status;
+    }
+
+    @Override
+    public Status startNewTour(String id, String title, Annotation annotation) {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.START_NEW_TOUR, start, controller.startNewTour(id, title, annotation));
+    }
+
+    @Override
+    public Status addWaypoint(Annotation annotation) {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.ADD_WAYPOINT, start, controller.addWaypoint(annotation));
+    }
+
+    @Override
+    public Status addLeg(Annotation annotation) {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.ADD_LEG, start, controller.addLeg(annotation));
+    }
+
+    @Override
+    public Status endNewTour() {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.END_NEW_TOUR, start, controller.endNewTour());
+    }
+
+    @Override
+    public Status showTourDetails(String id) {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.SHOW_TOUR_DETAILS, start, controller.showTourDetails(id));
+    }
+
+    @Override
+    public Status showToursOverview() {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.SHOW_TOURS_OVERVIEW, start, controller.showToursOverview());
+    }
+
+    @Override
+    public Status showToursOverview(String afterId, int pageSize) {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.SHOW_TOURS_PAGE, start, controller.showToursOverview(afterId, pageSize));
+    }
+
+    @Override
+    public Status searchTours(String query, int limit) {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.SEARCH_TOURS, start, controller.searchTours(query, limit));
+    }
+
+    @Override
+    public Status showNearestTours(int count) {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.SHOW_NEAREST_TOURS, start, controller.showNearestTours(count));
+    }
+
+    @Override
+    public Status showToursNear(double radius) {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.SHOW_TOURS_NEAR, start, controller.showToursNear(radius));
+    }
+
+    @Override
+    public Status followTour(String id) {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.FOLLOW_TOUR, start, controller.followTour(id));
+    }
+
+    @Override
+    public Status endSelectedTour() {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.END_SELECTED_TOUR, start, controller.endSelectedTour());
+    }
+
+    @Override
+    public void setLocation(double easting, double northing) {
+        long start = System.nanoTime();
+        controller.setLocation(easting, northing);
+        metrics.record(Metrics.Operation.SET_LOCATION, start, false);
+    }
+
+    @Override
+    public void setLocation(double easting, double northing, long timestamp) {
+        long start = System.nanoTime();
+        controller.setLocation(easting, northing, timestamp);
+        metrics.record(Metrics.Operation.SET_LOCATION, start, false);
+    }
+
+    @Override
+    public Status setLocations(double[] eastings, double[] northings, long[] timestamps) {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.SET_LOCATIONS, start,
+                controller.setLocations(eastings, northings, timestamps));
+    }
+
+    @Override
+    public List<Chunk> getOutput() {
+        return controller.getOutput();
+    }
+
+    @Override
+    public List<Chunk> getOutputDelta(String consumer) {
+        return controller.getOutputDelta(consumer);
+    }
+
+    @Override
+    public void resetOutputDelta(String consumer) {
+        controller.resetOutputDelta(consumer);
+    }
+
+    @Override
+    public byte[] snapshot() {
+        long start = System.nanoTime();
+        byte[] snapshot = controller.snapshot();
+        metrics.record(Metrics.Operation.SNAPSHOT, start, false);
+        return snapshot;
+    }
+
+    @Override
+    public Status restore(byte[] snapshot) {
+        long start = System.nanoTime();
+        return record(Metrics.Operation.RESTORE, start, controller.restore(snapshot));
+    }
+
+}
@@ -0,0 +1,363 @@
+package tourguide;
+
+/** The class Metrics counts and times what the sessions of a host do.
+ *
+ *  Every Controller operation has a count of calls and of errors and a
+ *  latency histogram; refused commands are also counted by the reason
+ *  they were refused for. Alongside are the size of the library, the
+ *  number of sessions following a tour and the waypoints they reach.
+ *
+ *  Counters are LongAdders, which spread updates from different threads
+ *  over separate cells. A histogram has a fixed set of buckets, exact up
+ *  to 16ns and then eight to every power of two, so that a latency is
+ *  known to within 12.5% whatever its size and recording one is a few
+ *  shifts and an atomic add.
+ *
+ *  Everything can be read as platform MXBeans, registered by
+ *  register(), or as text from dump().
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class Metrics implements MetricsMXBean {
+
+    public static final String DOMAIN = "tourguide";
+
+    /*
+     * The operations of a Controller.
+     */
+    public enum Operation {
+        START_NEW_TOUR("startNewTour"),
+        ADD_WAYPOINT("addWaypoint"),
+        ADD_LEG("addLeg"),
+        END_NEW_TOUR("endNewTour"),
+        SHOW_TOUR_DETAILS("showTourDetails"),
+        SHOW_TOURS_OVERVIEW("showToursOverview"),
+        SHOW_TOURS_PAGE("showToursOverviewPage"),
+        SEARCH_TOURS("searchTours"),
+        SHOW_NEAREST_TOURS("showNearestTours"),
+        SHOW_TOURS_NEAR("showToursNear"),
+        FOLLOW_TOUR("followTour"),
+        END_SELECTED_TOUR("endSelectedTour"),
+        SET_LOCATION("setLocation"),
+        SET_LOCATIONS("setLocations"),
+        SNAPSHOT("snapshot"),
+        RESTORE("restore");
+
+        public final String method;
+
+        Operation(String method) {
+            this.method = method;
+        }
+    }
+
+    public interface OperationMXBean {
+        long getCalls();
+
+        long getErrors();
+
+        double getMeanNanos();
+
+        long getP50Nanos();
+
+        long getP90Nanos();
+
+        long getP99Nanos();
+
+        long getP999Nanos();
+
+        long getMaxNanos();
+    }
+
+    //--------------------------
+    // Histograms
+    //--------------------------
+
+    /*
+     * Latencies in nanoseconds, in fixed buckets.
+     */
+    public static class Histogram {
+        // Values below are bucketed exactly; above, eight buckets per power of two.
+        private static final int LINEAR = 16;
+        private static final int SUB_BUCKETS = 8;
+        private static final int MAX_EXPONENT = 40;
+        public static final int BUCKETS = LINEAR + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        static int bucket(long value) {
+            if (value < LINEAR) {
+                return (int) Math.max(0, value);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent > MAX_EXPONENT) {
+                return BUCKETS - 1;
+            }
+            int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+        }
+
+        /*
+         * The largest value that falls in the bucket.
+         */
+        static long highest(int bucket) {
+            if (bucket < LINEAR) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+            int sub = (bucket - LINEAR) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+        }
+
+        public void record(long nanos) {
+            counts.getAndIncrement(bucket(nanos));
+            sum.add(nanos);
+            if (nanos > max.get()) {
+                max.accumulate(nanos);
+            }
+        }
+
+        public long count() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+
+        public double mean() {
+            long count = count();
+            return count == 0 ? 0 : (double) sum.sum() / count;
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        /** @return a value at least as large as the given percentage of those
+         *          recorded, and at most 12.5% above the smallest such value. */
+        public long percentile(double percentile) {
+            long[] snapshot = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                count += snapshot[i];
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(highest(i), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+    /*
+     * What is known about one operation.
+     */
+    public static class OperationStats implements OperationMXBean {
+        public final Operation operation;
+        final LongAdder errors = new LongAdder();
+        final Histogram latency = new Histogram();
+
+        OperationStats(Operation operation) {
+            this.operation = operation;
+        }
+
+        public long getCalls() {
+            return latency.count();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public double getMeanNanos() {
+            return latency.mean();
+        }
+
+        public long getP50Nanos() {
+            return latency.percentile(50);
+        }
+
+        public long getP90Nanos() {
+            return latency.percentile(90);
+        }
+
+        public long getP99Nanos() {
+            return latency.percentile(99);
+        }
+
+        public long getP999Nanos() {
+            return latency.percentile(99.9);
+        }
+
+        public long getMaxNanos() {
+            return latency.max();
+        }
+
+        public Histogram histogram() {
+            return latency;
+        }
+    }
+
+    private final Library library;
+    private final OperationStats[] operations;
+    private final ConcurrentHashMap<String, LongAdder> reasons;
+    private final LongAdder following = new LongAdder();
+    private final LongAdder arrivals = new LongAdder();
+
+    public Metrics(Library library) {
+        this.library = library;
+        this.operations = new OperationStats[Operation.values().length];
+        for (Operation operation : Operation.values()) {
+            this.operations[operation.ordinal()] = new OperationStats(operation);
+        }
+        this.reasons = new ConcurrentHashMap<String, LongAdder>();
+    }
+
+    //--------------------------
+    // Recording
+    //--------------------------
+
+    /** Records a call of the operation that started at the given System.nanoTime(). */
+    public void record(Operation operation, long startNanos, boolean failed) {
+        OperationStats stats = operations[operation.ordinal()];
+        stats.latency.record(System.nanoTime() - startNanos);
+        if (failed) {
+            stats.errors.increment();
+        }
+    }
+
+    /** Counts a command refused for the given reason. */
+    public void rejected(String reason) {
+        LongAdder count = reasons.get(reason);
+        if (count == null) {
+            count = reasons.computeIfAbsent(reason, r -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /** Counts sessions starting, for a positive change, or stopping following a tour. */
+    public void following(int change) {
+        following.add(change);
+    }
+
+    public void waypointsReached(int count) {
+        arrivals.add(count);
+    }
+
+    //--------------------------
+    // Reading
+    //--------------------------
+
+    public OperationStats operation(Operation operation) {
+        return operations[operation.ordinal()];
+    }
+
+    public long rejections(String reason) {
+        LongAdder count = reasons.get(reason);
+        return count == null ? 0 : count.sum();
+    }
+
+    @Override
+    public int getLibrarySize() {
+        return library.size();
+    }
+
+    @Override
+    public long getActiveFollowSessions() {
+        return following.sum();
+    }
+
+    @Override
+    public long getWaypointArrivals() {
+        return arrivals.sum();
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByReason() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongAdder> entry : reasons.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    /** @return every metric as text, an operation to a line. */
+    @Override
+    public String dump() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-18s %10s %8s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "calls", "errors", "mean ns", "p50", "p90", "p99", "p99.9", "max"));
+        for (OperationStats stats : operations) {
+            if (stats.getCalls() == 0) {
+                continue;
+            }
+            text.append(String.format("%-18s %10d %8d %10.0f %10d %10d %10d %10d %10d%n",
+                    stats.operation.method, stats.getCalls(), stats.getErrors(), stats.getMeanNanos(),
+                    stats.getP50Nanos(), stats.getP90Nanos(), stats.getP99Nanos(),
+                    stats.getP999Nanos(), stats.getMaxNanos()));
+        }
+        text.append(String.format("library size %d, follow sessions %d, waypoint arrivals %d%n",
+                getLibrarySize(), getActiveFollowSessions(), getWaypointArrivals()));
+        for (Map.Entry<String, Long> entry : getErrorsByReason().entrySet()) {
+            text.append(String.format("refused %-28s %10d%n", entry.getKey(), entry.getValue()));
+        }
+        return text.toString();
+    }
+
+    //--------------------------
+    // JMX
+    //--------------------------
+
+    /** Registers the metrics with the platform MBean server under the given name. */
+    public void register(String name) throws JMException {
+        register(ManagementFactory.getPlatformMBeanServer(), name);
+    }
+
+    /** Registers the metrics as tourguide:type=Metrics,name=name and one
+     *  tourguide:type=Operation,host=name,name=method bean per operation. */
+    public void register(MBeanServer server, String name) throws JMException {
+        server.registerMBean(this, metricsName(name));
+        for (OperationStats stats : operations) {
+            server.registerMBean(stats, operationName(name, stats.operation));
+        }
+    }
+
+    public void unregister(MBeanServer server, String name) throws JMException {
+        server.unregisterMBean(metricsName(name));
+        for (OperationStats stats : operations) {
+            server.unregisterMBean(operationName(name, stats.operation));
+        }
+    }
+
+    public static ObjectName metricsName(String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+    }
+
+    public static ObjectName operationName(String name, Operation operation) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Operation,host=" + ObjectName.quote(name)
+                + ",name=" + operation.method);
+    }
+
+}
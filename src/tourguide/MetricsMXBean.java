@@ -0,0 +1,21 @@
+package tourguide;
+
+/** The interface MetricsMXBean is what JMX shows of a host's Metrics,
+ *  besides a bean per operation.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.util.Map;
+
+public interface MetricsMXBean {
+
+    int getLibrarySize();
+
+    long getActiveFollowSessions();
+
+    long getWaypointArrivals();
+
+    Map<String, Long> getErrorsByReason();
+
+    String dump();
+}
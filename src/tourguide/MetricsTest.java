@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class MetricsTest {
+
+    private SessionHost host;
+    private Metrics metrics;
+
+    private static Annotation ann(String s) { return new Annotation(s); }
+
+    @Before
+    public void setup() {
+        host = new SessionHost(new Library(), 10.0, 25.0, 60000, 10);
+        metrics = host.getMetrics();
+        host.execute("alice", c -> {
+            c.startNewTour("T1", "Walk", ann("A walk"));
+            c.setLocation(0, 0);
+            c.addWaypoint(ann("Start"));
+            c.addLeg(ann("Onwards"));
+            c.setLocation(0, 100);
+            c.addWaypoint(ann("End"));
+            return c.endNewTour();
+        });
+    }
+
+    @Test
+    public void operationsCountedAndTimed() {
+        Assert.assertEquals(Status.OK, host.execute("bob", c -> {
+            c.setLocation(0, 0);
+            return c.followTour("T1");
+        }));
+        host.execute("bob", c -> c.addLeg(null));
+        host.execute("carol", c -> c.followTour("T9"));
+
+        Metrics.OperationStats follow = metrics.operation(Metrics.Operation.FOLLOW_TOUR);
+        Assert.assertEquals(2, follow.getCalls());
+        Assert.assertEquals(1, follow.getErrors());
+        Assert.assertTrue(follow.getMaxNanos() > 0);
+        Assert.assertTrue(follow.getP50Nanos() <= follow.getMaxNanos());
+        Assert.assertEquals(2, metrics.operation(Metrics.Operation.ADD_WAYPOINT).getCalls());
+        Assert.assertEquals(1, metrics.operation(Metrics.Operation.ADD_LEG).getErrors());
+
+        Assert.assertEquals(1, metrics.rejections("NOT_IN_CREATE_MODE"));
+        Assert.assertEquals(1, metrics.rejections("TOUR_NOT_FOUND"));
+        Assert.assertEquals(1, metrics.getLibrarySize());
+    }
+
+    @Test
+    public void everyRefusalCounted() {
+        host.execute("bob", c -> {
+            c.startNewTour("T1", "Again", ann("A second T1"));
+            c.setLocation(0, 0);
+            c.addWaypoint(ann("Start"));
+            Assert.assertNotEquals(Status.OK, c.showTourDetails("T1"));
+            return c.endNewTour();
+        });
+        host.execute("carol", c -> c.restore(new byte[] {ControllerImp.SNAPSHOT_VERSION}));
+        host.execute("carol", c -> c.restore(new byte[] {99}));
+
+        Assert.assertEquals(1, metrics.rejections("NOT_IN_BROWSE_MODE"));
+        Assert.assertEquals(1, metrics.rejections("TOUR_ID_EXISTS"));
+        Assert.assertEquals(1, metrics.rejections("SNAPSHOT_DAMAGED"));
+        Assert.assertEquals(1, metrics.rejections("SNAPSHOT_VERSION_UNKNOWN"));
+    }
+
+    @Test
+    public void followSessionsAndArrivals() {
+        host.execute("bob", c -> {
+            c.setLocation(0, 0);
+            return c.followTour("T1");
+        });
+        host.execute("carol", c -> {
+            c.setLocation(0, 0);
+            return c.followTour("T1");
+        });
+        Assert.assertEquals(2, metrics.getActiveFollowSessions());
+
+        host.execute("bob", c -> {
+            c.setLocation(0, 3);
+            c.setLocation(0, 50);
+            return c.setLocations(new double[] {0, 0}, new double[] {95, 101}, null);
+        });
+        Assert.assertEquals(2, metrics.getWaypointArrivals());
+
+        host.execute("bob", c -> c.endSelectedTour());
+        host.endSession("carol");
+        Assert.assertEquals(0, metrics.getActiveFollowSessions());
+    }
+
+    @Test
+    public void histogramWithinBucketPrecision() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        for (double percentile : new double[] {1, 50, 90, 99, 99.9}) {
+            long exact = (long) Math.ceil(percentile * 1000);
+            long reported = histogram.percentile(percentile);
+            Assert.assertTrue(percentile + ": " + reported + " for " + exact,
+                    reported >= exact && reported <= exact * 1.125);
+        }
+        Assert.assertEquals(100000, histogram.percentile(100));
+        Assert.assertEquals(50000.5, histogram.mean(), 1e-9);
+
+        for (long value : new long[] {0, 15, 16, 31, 32, 1L << 40, Long.MAX_VALUE}) {
+            int bucket = Metrics.Histogram.bucket(value);
+            Assert.assertTrue(bucket >= 0 && bucket < Metrics.Histogram.BUCKETS);
+        }
+    }
+
+    @Test
+    public void exportedAsMXBeans() throws Exception {
+        host.execute("bob", c -> c.addLeg(null));
+
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        metrics.register(server, "test");
+        ObjectName name = Metrics.metricsName("test");
+        Assert.assertEquals(1, server.getAttribute(name, "LibrarySize"));
+        Assert.assertNotNull(server.getAttribute(name, "ErrorsByReason"));
+        Assert.assertEquals(1L, server.getAttribute(
+                Metrics.operationName("test", Metrics.Operation.ADD_LEG), "Errors"));
+        String dump = (String) server.invoke(name, "dump", null, null);
+        Assert.assertTrue(dump, dump.contains("addLeg"));
+        Assert.assertTrue(dump, dump.contains("NOT_IN_CREATE_MODE"));
+        Assert.assertTrue(dump, dump.contains("library size 1"));
+
+        metrics.unregister(server, "test");
+        Assert.assertFalse(server.isRegistered(name));
+
+        Map<String, Long> reasons = metrics.getErrorsByReason();
+        Assert.assertEquals(Long.valueOf(1), reasons.get("NOT_IN_CREATE_MODE"));
+    }
+
+}
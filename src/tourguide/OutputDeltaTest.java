@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class OutputDeltaTest {
+
+    private Library library;
+    private ControllerImp controller;
+
+    private static Annotation ann(String s) { return new Annotation(s); }
+
+    @Before
+    public void setup() {
+        library = new Library();
+        controller = new ControllerImp(10.0, 25.0, library);
+        controller.startNewTour("T1", "Walk", ann("A walk"));
+        controller.setLocation(0, 0);
+        controller.addWaypoint(ann("Start"));
+        controller.addLeg(ann("Onwards"));
+        controller.setLocation(0, 100);
+        controller.addWaypoint(ann("End"));
+        controller.endNewTour();
+        controller.setLocation(0, -20);
+        controller.followTour("T1");
+    }
+
+    @Test
+    public void onlyWhatIsShownDifferently() {
+        List<Chunk> delta = controller.getOutputDelta("phone");
+        Assert.assertEquals(controller.getOutput(), delta);
+        Assert.assertEquals(3, delta.size());
+        Assert.assertTrue(controller.getOutputDelta("phone").isEmpty());
+
+        // Still 20m on a bearing of 0 degrees once rounded.
+        controller.setLocation(0, -19.8);
+        Assert.assertTrue(controller.getOutputDelta("phone").isEmpty());
+
+        controller.setLocation(-0.1, -19);
+        delta = controller.getOutputDelta("phone");
+        Assert.assertEquals(1, delta.size());
+        Assert.assertEquals(new Chunk.FollowBearing(0, 19), delta.get(0));
+
+        // Reaching a waypoint changes the header and adds a chunk, so all of it is sent.
+        controller.setLocation(0, -2);
+        delta = controller.getOutputDelta("phone");
+        Assert.assertEquals(4, delta.size());
+        Assert.assertEquals(new Chunk.FollowHeader("Walk", 1, 2), delta.get(0));
+
+        controller.setLocation(0, -2.2);
+        Assert.assertTrue(controller.getOutputDelta("phone").isEmpty());
+    }
+
+    @Test
+    public void consumersAreIndependent() {
+        controller.getOutputDelta("phone");
+        controller.setLocation(0, -15);
+        Assert.assertEquals(1, controller.getOutputDelta("phone").size());
+        Assert.assertEquals(3, controller.getOutputDelta("watch").size());
+        Assert.assertTrue(controller.getOutputDelta("watch").isEmpty());
+
+        controller.resetOutputDelta("phone");
+        Assert.assertEquals(3, controller.getOutputDelta("phone").size());
+    }
+
+    @Test
+    public void progressAndModeChanges() {
+        controller.showProgress = true;
+        controller.setLocation(0, -18);
+        Assert.assertEquals(4, controller.getOutputDelta("phone").size());
+
+        controller.setLocation(0, -16);
+        List<Chunk> delta = controller.getOutputDelta("phone");
+        Assert.assertEquals(2, delta.size());
+        Assert.assertTrue(delta.get(0) instanceof Chunk.FollowBearing);
+        Assert.assertTrue(delta.get(1) instanceof Chunk.FollowProgress);
+
+        controller.endSelectedTour();
+        Assert.assertEquals(controller.getOutput(), controller.getOutputDelta("phone"));
+
+        // A refused command leaves no output, and the consumer keeps what it has.
+        Assert.assertNotEquals(Status.OK, controller.followTour("T9"));
+        Assert.assertTrue(controller.getOutputDelta("phone").isEmpty());
+        controller.showToursOverview();
+        Assert.assertTrue(controller.getOutputDelta("phone").isEmpty());
+    }
+
+    @Test
+    public void throughTheSessionHost() {
+        SessionHost host = new SessionHost(library, 10.0, 25.0, 60000, 10);
+        host.execute("alice", c -> {
+            c.setLocation(0, -20);
+            return c.followTour("T1");
+        });
+        Assert.assertEquals(3, (int) host.execute("alice", c -> c.getOutputDelta("phone").size()));
+        Assert.assertEquals(0, (int) host.execute("alice", c -> {
+            c.setLocation(0, -19.9);
+            return c.getOutputDelta("phone").size();
+        }));
+    }
+
+}
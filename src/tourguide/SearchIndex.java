@@ -0,0 +1,323 @@
+package tourguide;
+
+/** The class SearchIndex is an inverted index over the text of tours:
+ *  their titles and annotations and the annotations of their waypoints
+ *  and legs. Every query term matches as a prefix of the indexed words,
+ *  all terms have to match, and tours are ranked by where and how
+ *  often the terms appear.
+ *
+ *  Each tour is numbered as it is added, and each word keeps the numbers
+ *  of the tours containing it in ascending order, so that matches can be
+ *  merged without any hashing. Tours are added one at a time; queries do
+ *  not lock and can run alongside an add.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+public class SearchIndex {
+
+    // Weights of a word depending on where in a tour it appears.
+    public static final int TITLE_WEIGHT = 8;
+    public static final int ANNOTATION_WEIGHT = 4;
+    public static final int STOP_WEIGHT = 1;
+
+    // A whole word match scores twice as much as a prefix match.
+    private static final int WORD_FACTOR = 2;
+    private static final int PREFIX_FACTOR = 1;
+
+    private final ConcurrentSkipListMap<String, Postings> postings;
+    private volatile Tour[] tours;
+    private volatile int size;
+
+    /*
+     * The tours containing one word, in the order they were added, with the
+     * word's weight in each. Only the adding thread writes; a reader sees the
+     * first size entries, which are never changed again.
+     */
+    private static class Postings {
+        final int[] tours;
+        final int[] weights;
+        volatile int size;
+
+        Postings(int capacity) {
+            this.tours = new int[capacity];
+            this.weights = new int[capacity];
+        }
+    }
+
+    public SearchIndex() {
+        this.postings = new ConcurrentSkipListMap<String, Postings>();
+        this.tours = new Tour[16];
+    }
+
+    /** This method adds every word of the tour to the index.
+     *  Tours have to be added one at a time.
+     */
+    public void add(Tour tour) {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        addWords(weights, tour.title, TITLE_WEIGHT);
+        addWords(weights, text(tour.annotation), ANNOTATION_WEIGHT);
+        for (Waypoint waypoint : tour.waypoints) {
+            addWords(weights, text(waypoint.annotation), STOP_WEIGHT);
+        }
+        for (Leg leg : tour.legs) {
+            if (leg.annotation != null && !leg.annotation.isDefault()) {
+                addWords(weights, leg.annotation.toString(), STOP_WEIGHT);
+            }
+        }
+
+        int number = this.size;
+        Tour[] all = this.tours;
+        if (number == all.length) {
+            all = Arrays.copyOf(all, number * 2);
+        }
+        all[number] = tour;
+        this.tours = all;
+
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            Postings word = this.postings.get(entry.getKey());
+            if (word == null || word.size == word.tours.length) {
+                Postings grown = new Postings(word == null ? 2 : word.size * 2);
+                if (word != null) {
+                    System.arraycopy(word.tours, 0, grown.tours, 0, word.size);
+                    System.arraycopy(word.weights, 0, grown.weights, 0, word.size);
+                    grown.size = word.size;
+                }
+                word = grown;
+                append(word, number, entry.getValue());
+                this.postings.put(entry.getKey(), word);
+            } else {
+                append(word, number, entry.getValue());
+            }
+        }
+        this.size = number + 1;
+    }
+
+    private static void append(Postings word, int tour, int weight) {
+        int at = word.size;
+        word.tours[at] = tour;
+        word.weights[at] = weight;
+        word.size = at + 1;
+    }
+
+    /** This method finds the tours matching every word of the query,
+     *  each word being taken as a prefix.
+     *
+     * @return up to limit tours, best match first.
+     */
+    public List<Tour> search(String query, int limit) {
+        List<String> terms = words(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // Only tours fully added before the query started are looked at.
+        int known = this.size;
+        Tour[] all = this.tours;
+
+        // Start from the term matching the fewest tours,
+        // and narrow its matches down with the other terms.
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (String term : terms) {
+            counts.put(term, count(term));
+        }
+        Collections.sort(terms, (a, b) -> Integer.compare(counts.get(a), counts.get(b)));
+        long[] scores = match(terms.get(0), known);
+        for (int i = 1; i < terms.size() && scores.length > 0; i++) {
+            scores = narrow(scores, terms.get(i));
+        }
+
+        // Keep the best limit tours, ties going to the tour added first.
+        long[] best = top(scores, limit);
+        List<Tour> result = new ArrayList<Tour>(best.length);
+        for (int i = best.length - 1; i >= 0; i--) {
+            result.add(all[Integer.MAX_VALUE - (int) best[i]]);
+        }
+        return result;
+    }
+
+    /*
+     * Selects the limit best matches with a min-heap of rank keys, and returns
+     * their keys in ascending order. A rank key orders by score and then by
+     * tour number, lowest tour number ranking highest.
+     */
+    private static long[] top(long[] matches, int limit) {
+        int k = Math.min(limit, matches.length);
+        long[] heap = new long[k];
+        int size = 0;
+        for (long match : matches) {
+            long key = ((long) score(match) << 32) | (Integer.MAX_VALUE - tour(match));
+            if (size < k) {
+                int i = size++;
+                while (i > 0 && heap[(i - 1) / 2] > key) {
+                    heap[i] = heap[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                heap[i] = key;
+            } else if (key > heap[0]) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= k) {
+                        break;
+                    }
+                    if (child + 1 < k && heap[child + 1] < heap[child]) {
+                        child++;
+                    }
+                    if (heap[child] >= key) {
+                        break;
+                    }
+                    heap[i] = heap[child];
+                    i = child;
+                }
+                heap[i] = key;
+            }
+        }
+        Arrays.sort(heap);
+        return heap;
+    }
+
+    /*
+     * A match packs a tour number and its score into one long, so that
+     * matches sort by tour number.
+     */
+    private static long pack(int tour, int score) {
+        return ((long) tour << 32) | score;
+    }
+
+    private static int tour(long match) {
+        return (int) (match >>> 32);
+    }
+
+    private static int score(long match) {
+        return (int) match;
+    }
+
+    /*
+     * Scores every tour containing a word that starts with the term,
+     * keeping the best scoring word for each tour. Only the first
+     * known tours are looked at, so that all terms see the same tours.
+     */
+    private long[] match(String term, int known) {
+        Map<String, Postings> words = wordsStartingWith(term);
+        List<long[]> parts = new ArrayList<long[]>();
+        int count = 0;
+        for (Map.Entry<String, Postings> entry : words.entrySet()) {
+            Postings word = entry.getValue();
+            int factor = entry.getKey().equals(term) ? WORD_FACTOR : PREFIX_FACTOR;
+            int size = word.size;
+            long[] part = new long[size];
+            int n = 0;
+            while (n < size && word.tours[n] < known) {
+                part[n] = pack(word.tours[n], factor * word.weights[n]);
+                n++;
+            }
+            parts.add(n == size ? part : Arrays.copyOf(part, n));
+            count += n;
+        }
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+
+        long[] matches = new long[count];
+        int at = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, matches, at, part.length);
+            at += part.length;
+        }
+        Arrays.sort(matches);
+        int kept = 0;
+        for (int i = 0; i < matches.length; i++) {
+            if (kept > 0 && tour(matches[kept - 1]) == tour(matches[i])) {
+                matches[kept - 1] = matches[i];
+            } else {
+                matches[kept++] = matches[i];
+            }
+        }
+        return Arrays.copyOf(matches, kept);
+    }
+
+    /*
+     * Returns the number of postings of the words that a term matches.
+     */
+    private int count(String term) {
+        int postings = 0;
+        for (Postings word : wordsStartingWith(term).values()) {
+            postings += word.size;
+        }
+        return postings;
+    }
+
+    private Map<String, Postings> wordsStartingWith(String term) {
+        return this.postings.subMap(term, true, term + Character.MAX_VALUE, false);
+    }
+
+    /*
+     * Keeps the matches whose tours also match the term. Both the matches and
+     * the postings of each word are in tour order, so each word takes one merge.
+     */
+    private long[] narrow(long[] matches, String term) {
+        int[] best = new int[matches.length];
+        for (Map.Entry<String, Postings> entry : wordsStartingWith(term).entrySet()) {
+            Postings word = entry.getValue();
+            int factor = entry.getKey().equals(term) ? WORD_FACTOR : PREFIX_FACTOR;
+            int size = word.size;
+            int j = 0;
+            for (int i = 0; i < matches.length && j < size; i++) {
+                int tour = tour(matches[i]);
+                while (j < size && word.tours[j] < tour) {
+                    j++;
+                }
+                if (j < size && word.tours[j] == tour) {
+                    best[i] = Math.max(best[i], factor * word.weights[j]);
+                }
+            }
+        }
+        long[] kept = new long[matches.length];
+        int n = 0;
+        for (int i = 0; i < matches.length; i++) {
+            if (best[i] > 0) {
+                kept[n++] = pack(tour(matches[i]), score(matches[i]) + best[i]);
+            }
+        }
+        return Arrays.copyOf(kept, n);
+    }
+
+    private static void addWords(Map<String, Integer> weights, String text, int weight) {
+        for (String word : words(text)) {
+            Integer sum = weights.get(word);
+            weights.put(word, sum == null ? weight : sum + weight);
+        }
+    }
+
+    private static String text(Annotation annotation) {
+        return annotation == null ? null : annotation.toString();
+    }
+
+    /** Splits text into lower case words of letters and digits. */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<String>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+}
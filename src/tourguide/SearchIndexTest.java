@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class SearchIndexTest {
+
+    private Library library;
+
+    private static Annotation ann(String s) { return new Annotation(s); }
+
+    private static Tour makeTour(String id, String title, String about, String... stops) {
+        Tour tour = new Tour(id, title, ann(about));
+        for (int i = 0; i < stops.length; i++) {
+            tour.legs.add(new Leg(Annotation.DEFAULT));
+            tour.waypoints.add(new Waypoint(ann(stops[i]), new Location(i * 100, 0)));
+        }
+        return tour;
+    }
+
+    private static void checkIds(List<Tour> tours, String... ids) {
+        Assert.assertEquals("Number of tours", ids.length, tours.size());
+        for (int i = 0; i < ids.length; i++) {
+            Assert.assertEquals(ids[i], tours.get(i).id);
+        }
+    }
+
+    @Before
+    public void setup() {
+        library = new Library();
+        library.addTour(makeTour("T1", "Informatics at UoE",
+                "The Informatics Forum and Appleton Tower", "Informatics Forum"));
+        library.addTour(makeTour("T2", "Old Town",
+                "From Edinburgh Castle to Holyrood", "Edinburgh Castle", "Holyrood Palace"));
+        library.addTour(makeTour("T3", "Royal Mile Walk",
+                "A stroll down the famous Royal Mile", "Edinburgh Castle", "St Giles Cathedral"));
+    }
+
+    @Test
+    public void wholeWord() {
+        checkIds(library.search("holyrood", 10), "T2");
+    }
+
+    @Test
+    public void prefix() {
+        checkIds(library.search("INFORM", 10), "T1");
+        checkIds(library.search("cath", 10), "T3");
+    }
+
+    @Test
+    public void allTermsMustMatch() {
+        checkIds(library.search("edinburgh castle", 10), "T2", "T3");
+        checkIds(library.search("castle giles", 10), "T3");
+        checkIds(library.search("castle forum", 10));
+    }
+
+    @Test
+    public void titleRanksAboveStops() {
+        library.addTour(makeTour("T4", "Castle Trail", "Every castle in town", "Craigmillar"));
+        checkIds(library.search("castle", 10), "T4", "T2", "T3");
+        checkIds(library.search("castle", 1), "T4");
+    }
+
+    @Test
+    public void noMatches() {
+        checkIds(library.search("", 10));
+        checkIds(library.search("  ?! ", 10));
+        checkIds(library.search("leith", 10));
+    }
+
+    @Test
+    public void throughController() {
+        ControllerImp controller = new ControllerImp(10.0, 25.0, library);
+        Assert.assertEquals(Status.OK, controller.searchTours("edin", 10));
+
+        Chunk.BrowseOverview expected = new Chunk.BrowseOverview();
+        expected.addIdAndTitle("T2", "Old Town");
+        expected.addIdAndTitle("T3", "Royal Mile Walk");
+        Assert.assertEquals(expected, controller.getOutput().get(0));
+    }
+
+}
@@ -0,0 +1,267 @@
+package tourguide;
+
+/** The class SessionHost runs the apps of many users on one library.
+ *
+ *  Each user gets a session: a lightweight controller with its own mode,
+ *  location and output, sharing the host's library. Commands are routed to
+ *  a session by its id, and a session only runs one command at a time.
+ *  Sessions left idle for too long, or the least recently used ones when
+ *  memory runs short, are evicted by maintain(). Every command is timed
+ *  and counted in the host's Metrics, and each session's latest
+ *  transitions can be dumped at any time.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+public class SessionHost {
+
+    // Share of the maximum heap in use above which sessions are trimmed.
+    public static final double MEMORY_HIGH_WATER = 0.85;
+
+    private final Library library;
+    private final double waypointRadius;
+    private final double waypointSeparation;
+    private final long idleMillis;
+    private final int maxSessions;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Session> sessions;
+    private final Metrics metrics;
+
+    /*
+     * A session's fields are only used while holding its monitor.
+     */
+    private static class Session {
+        final ControllerImp controller;
+        final Controller metered;
+        long lastUsed;
+        boolean evicted;
+
+        Session(ControllerImp controller, Controller metered, long now) {
+            this.controller = controller;
+            this.metered = metered;
+            this.lastUsed = now;
+        }
+    }
+
+    public SessionHost(Library library, double waypointRadius, double waypointSeparation,
+                       long idleMillis, int maxSessions) {
+        this(library, waypointRadius, waypointSeparation, idleMillis, maxSessions,
+                System::currentTimeMillis);
+    }
+
+    public SessionHost(Library library, double waypointRadius, double waypointSeparation,
+                       long idleMillis, int maxSessions, LongSupplier clock) {
+        this.library = library;
+        this.waypointRadius = waypointRadius;
+        this.waypointSeparation = waypointSeparation;
+        this.idleMillis = idleMillis;
+        this.maxSessions = maxSessions;
+        this.clock = clock;
+        this.sessions = new ConcurrentHashMap<String, Session>();
+        this.metrics = new Metrics(library);
+    }
+
+    public Library getLibrary() {
+        return library;
+    }
+
+    /** @return the metrics of every session of this host. */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /** This method runs a command on the session with the given id,
+     *  starting a new session if there is none.
+     *
+     * @return the result of the command.
+     */
+    public <T> T execute(String sessionId, Function<Controller, T> command) {
+        while (true) {
+            Session session = sessions.computeIfAbsent(sessionId, this::newSession);
+            synchronized (session) {
+                // Evicted after we found it: start again with a fresh session.
+                if (session.evicted) {
+                    continue;
+                }
+                session.lastUsed = clock.getAsLong();
+                return command.apply(session.metered);
+            }
+        }
+    }
+
+    private Session newSession(String sessionId) {
+        Log.log(Level.FINER, "sessionStarted", sessionId, null, -1);
+        ControllerImp controller = new ControllerImp(waypointRadius, waypointSeparation, library);
+        controller.sessionId = sessionId;
+        controller.metrics = metrics;
+        return new Session(controller, new MeteredController(controller, metrics), clock.getAsLong());
+    }
+
+    /** @return whether a session with the given id is live. */
+    public boolean hasSession(String sessionId) {
+        return sessions.containsKey(sessionId);
+    }
+
+    /** Ends the session with the given id. */
+    public void endSession(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session != null) {
+            synchronized (session) {
+                evict(sessionId, session);
+            }
+        }
+    }
+
+    /** @return the latest transitions of the session with the given id as text,
+     *          or null if there is none. The session is not locked, so
+     *          one stuck in a command can be dumped too. */
+    public String dumpTransitions(String sessionId) {
+        Session session = sessions.get(sessionId);
+        return session == null ? null : session.controller.transitions.dump();
+    }
+
+    /** @return the number of live sessions. */
+    public int size() {
+        return sessions.size();
+    }
+
+    //--------------------------
+    // Session state
+    //--------------------------
+
+    /** @return a snapshot of the session with the given id, or null if there is none. */
+    public byte[] snapshot(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            return null;
+        }
+        synchronized (session) {
+            return session.evicted ? null : session.controller.snapshot();
+        }
+    }
+
+    /** This method resumes a session from a snapshot, taken by this host
+     *  or another one with the same tours, under the given id.
+     *
+     * @return the status.
+     */
+    public Status restore(String sessionId, final byte[] snapshot) {
+        return execute(sessionId, controller -> controller.restore(snapshot));
+    }
+
+    /** This method ends every session, handing each one's snapshot to the sink
+     *  first, so that the sessions can be restored later or elsewhere.
+     *
+     * @return the number of sessions drained.
+     */
+    public int drain(BiConsumer<String, byte[]> sink) {
+        int drained = 0;
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            Session session = entry.getValue();
+            synchronized (session) {
+                if (session.evicted) {
+                    continue;
+                }
+                sink.accept(entry.getKey(), session.controller.snapshot());
+                evict(entry.getKey(), session);
+                drained++;
+            }
+        }
+        final int count = drained;
+        Log.log(Level.FINER, () -> "sessionsDrained: " + count);
+        return drained;
+    }
+
+    //--------------------------
+    // Eviction
+    //--------------------------
+
+    /** This method evicts sessions idle for longer than idleMillis, and then
+     *  the least recently used sessions over maxSessions. Should the heap be
+     *  fuller than MEMORY_HIGH_WATER, the older half of the sessions go too.
+     *
+     * @return the number of sessions evicted.
+     */
+    public int maintain() {
+        long now = clock.getAsLong();
+        int evicted = 0;
+
+        List<Map.Entry<String, Session>> live = new ArrayList<Map.Entry<String, Session>>();
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            Session session = entry.getValue();
+            synchronized (session) {
+                if (now - session.lastUsed > idleMillis) {
+                    evict(entry.getKey(), session);
+                    evicted++;
+                } else {
+                    live.add(entry);
+                }
+            }
+        }
+
+        int keep = maxSessions;
+        if (memoryUsed() > MEMORY_HIGH_WATER) {
+            keep = Math.min(keep, live.size() / 2);
+        }
+        if (live.size() > keep) {
+            evicted += evictLeastRecentlyUsed(live, live.size() - keep);
+        }
+
+        if (evicted > 0) {
+            final int count = evicted;
+            Log.log(Level.FINER, () -> "sessionsEvicted: " + count);
+        }
+        return evicted;
+    }
+
+    private int evictLeastRecentlyUsed(List<Map.Entry<String, Session>> live, int count) {
+        final Map<Session, Long> lastUsed = new IdentityHashMap<Session, Long>();
+        for (Map.Entry<String, Session> entry : live) {
+            synchronized (entry.getValue()) {
+                lastUsed.put(entry.getValue(), entry.getValue().lastUsed);
+            }
+        }
+        Collections.sort(live, new Comparator<Map.Entry<String, Session>>() {
+            public int compare(Map.Entry<String, Session> a, Map.Entry<String, Session> b) {
+                return Long.compare(lastUsed.get(a.getValue()), lastUsed.get(b.getValue()));
+            }
+        });
+        int evicted = 0;
+        for (Map.Entry<String, Session> entry : live.subList(0, count)) {
+            Session session = entry.getValue();
+            synchronized (session) {
+                // Skip a session used since we looked at it.
+                if (session.lastUsed == lastUsed.get(session)) {
+                    evict(entry.getKey(), session);
+                    evicted++;
+                }
+            }
+        }
+        return evicted;
+    }
+
+    private void evict(String sessionId, Session session) {
+        if (!session.evicted && session.controller.mode == Mode.FOLLOW) {
+            metrics.following(-1);
+        }
+        session.evicted = true;
+        sessions.remove(sessionId, session);
+    }
+
+    private static double memoryUsed() {
+        Runtime runtime = Runtime.getRuntime();
+        return (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+    }
+
+}
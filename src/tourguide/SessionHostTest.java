@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class SessionHostTest {
+
+    private static final long IDLE = 60000;
+
+    private AtomicLong now;
+    private SessionHost host;
+
+    private static Annotation ann(String s) { return new Annotation(s); }
+
+    @Before
+    public void setup() {
+        now = new AtomicLong(1000);
+        host = new SessionHost(new Library(), 10.0, 25.0, IDLE, 3, now::get);
+    }
+
+    private void createTour(String sessionId, final String id) {
+        host.execute(sessionId, c -> {
+            Assert.assertEquals(Status.OK, c.startNewTour(id, "Tour " + id, ann("About " + id)));
+            c.setLocation(0, 0);
+            Assert.assertEquals(Status.OK, c.addWaypoint(ann("Start")));
+            return c.endNewTour();
+        });
+    }
+
+    @Test
+    public void sessionsShareTheLibrary() {
+        createTour("alice", "T1");
+
+        Status status = host.execute("bob", c -> c.showTourDetails("T1"));
+        Assert.assertEquals(Status.OK, status);
+        Assert.assertEquals(1, host.getLibrary().size());
+    }
+
+    @Test
+    public void sessionsKeepTheirOwnState() {
+        createTour("alice", "T1");
+
+        host.execute("alice", c -> c.followTour("T1"));
+        Status status = host.execute("bob", c -> c.startNewTour("T2", "Second", ann("")));
+        Assert.assertEquals(Status.OK, status);
+
+        List<Chunk> output = host.execute("alice", c -> c.getOutput());
+        Assert.assertTrue(output.get(0) instanceof Chunk.FollowHeader);
+        Assert.assertNotEquals(Status.OK, host.execute("alice", c -> c.addWaypoint(ann(""))));
+    }
+
+    @Test
+    public void idleSessionsEvicted() {
+        host.execute("alice", c -> c.showToursOverview());
+        now.addAndGet(IDLE / 2);
+        host.execute("bob", c -> c.showToursOverview());
+        now.addAndGet(IDLE / 2 + 1);
+
+        Assert.assertEquals(1, host.maintain());
+        Assert.assertFalse(host.hasSession("alice"));
+        Assert.assertTrue(host.hasSession("bob"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEvictedOverCapacity() {
+        for (String id : new String[] {"a", "b", "c", "d", "e"}) {
+            host.execute(id, c -> c.showToursOverview());
+            now.incrementAndGet();
+        }
+        host.execute("a", c -> c.showToursOverview());
+
+        Assert.assertEquals(2, host.maintain());
+        Assert.assertEquals(3, host.size());
+        Assert.assertTrue(host.hasSession("a"));
+        Assert.assertFalse(host.hasSession("b"));
+        Assert.assertFalse(host.hasSession("c"));
+    }
+
+    @Test
+    public void evictedSessionStartsAfresh() {
+        createTour("alice", "T1");
+        host.execute("alice", c -> c.followTour("T1"));
+        host.endSession("alice");
+
+        Assert.assertEquals(Status.OK, host.execute("alice", c -> c.showTourDetails("T1")));
+    }
+
+    @Test
+    public void drainedSessionsResume() {
+        createTour("alice", "T1");
+        host.execute("alice", c -> c.followTour("T1"));
+        host.execute("bob", c -> c.showToursOverview());
+
+        Map<String, byte[]> drained = new HashMap<String, byte[]>();
+        Assert.assertEquals(2, host.drain(drained::put));
+        Assert.assertEquals(0, host.size());
+
+        SessionHost other = new SessionHost(host.getLibrary(), 10.0, 25.0, IDLE, 3, now::get);
+        for (Map.Entry<String, byte[]> entry : drained.entrySet()) {
+            Assert.assertEquals(Status.OK, other.restore(entry.getKey(), entry.getValue()));
+        }
+        List<Chunk> output = other.execute("alice", c -> c.getOutput());
+        Assert.assertEquals(new Chunk.FollowHeader("Tour T1", 0, 1), output.get(0));
+        Assert.assertArrayEquals(drained.get("alice"), other.snapshot("alice"));
+        Assert.assertNull(other.snapshot("carol"));
+    }
+
+}
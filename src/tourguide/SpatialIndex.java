@@ -0,0 +1,282 @@
+package tourguide;
+
+/** The class SpatialIndex finds the waypoints near a location.
+ *
+ *  Easting/northing space is divided into square cells of a fixed size,
+ *  and each occupied cell keeps the waypoints that lie in it. A query only
+ *  looks at the cells around the location, so its cost depends on how many
+ *  waypoints are nearby rather than on the size of the library.
+ *
+ *  Waypoints are added one tour at a time. Queries do not lock and can run
+ *  alongside an add.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SpatialIndex {
+
+    public static final double DEFAULT_CELL_SIZE = 250.0;
+
+    private final double cellSize;
+    private final ConcurrentHashMap<Long, Cell> cells;
+
+    // Bounds of the occupied cells, so that searches know when to stop.
+    private volatile int minX = Integer.MAX_VALUE;
+    private volatile int maxX = Integer.MIN_VALUE;
+    private volatile int minY = Integer.MAX_VALUE;
+    private volatile int maxY = Integer.MIN_VALUE;
+
+    /*
+     * The waypoints in one cell. Only the adding thread writes; a reader
+     * sees the first size entries, which are never changed again.
+     */
+    private static class Cell {
+        final Tour[] tours;
+        final int[] waypoints;
+        final double[] eastings;
+        final double[] northings;
+        volatile int size;
+
+        Cell(int capacity) {
+            this.tours = new Tour[capacity];
+            this.waypoints = new int[capacity];
+            this.eastings = new double[capacity];
+            this.northings = new double[capacity];
+        }
+    }
+
+    /*
+     * Receives every waypoint found by a query.
+     */
+    public interface Visitor {
+        void visit(Tour tour, int waypoint, double distance);
+    }
+
+    public SpatialIndex(double cellSize) {
+        this.cellSize = cellSize;
+        this.cells = new ConcurrentHashMap<Long, Cell>();
+    }
+
+    public double cellSize() {
+        return cellSize;
+    }
+
+    /** This method adds every waypoint of the tour to the index.
+     *  Tours have to be added one at a time.
+     */
+    public void add(Tour tour) {
+        for (int i = 0; i < tour.waypoints.size(); i++) {
+            Location location = tour.waypoints.get(i).location;
+            if (location != null) {
+                add(tour, i, location.easting, location.northing);
+            }
+        }
+    }
+
+    private void add(Tour tour, int waypoint, double easting, double northing) {
+        int x = cell(easting);
+        int y = cell(northing);
+        Long key = key(x, y);
+        Cell cell = cells.get(key);
+        if (cell == null || cell.size == cell.tours.length) {
+            Cell grown = new Cell(cell == null ? 4 : cell.size * 2);
+            if (cell != null) {
+                System.arraycopy(cell.tours, 0, grown.tours, 0, cell.size);
+                System.arraycopy(cell.waypoints, 0, grown.waypoints, 0, cell.size);
+                System.arraycopy(cell.eastings, 0, grown.eastings, 0, cell.size);
+                System.arraycopy(cell.northings, 0, grown.northings, 0, cell.size);
+                grown.size = cell.size;
+            }
+            append(grown, tour, waypoint, easting, northing);
+            cells.put(key, grown);
+        } else {
+            append(cell, tour, waypoint, easting, northing);
+        }
+        if (x < minX) minX = x;
+        if (x > maxX) maxX = x;
+        if (y < minY) minY = y;
+        if (y > maxY) maxY = y;
+    }
+
+    private static void append(Cell cell, Tour tour, int waypoint, double easting, double northing) {
+        int at = cell.size;
+        cell.tours[at] = tour;
+        cell.waypoints[at] = waypoint;
+        cell.eastings[at] = easting;
+        cell.northings[at] = northing;
+        cell.size = at + 1;
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static Long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    //--------------------------
+    // Queries
+    //--------------------------
+
+    /** This method calls the visitor for every waypoint within radius of the
+     *  location, in no particular order.
+     */
+    public void visitWithin(double easting, double northing, double radius, Visitor visitor) {
+        int fromX = Math.max(cell(easting - radius), minX);
+        int toX = Math.min(cell(easting + radius), maxX);
+        int fromY = Math.max(cell(northing - radius), minY);
+        int toY = Math.min(cell(northing + radius), maxY);
+        if (fromX > toX || fromY > toY) {
+            return;
+        }
+        double limit = radius * radius;
+
+        // Scan the occupied cells instead when there are fewer of them.
+        if ((long) (toX - fromX + 1) * (toY - fromY + 1) > cells.size()) {
+            for (Map.Entry<Long, Cell> entry : cells.entrySet()) {
+                long key = entry.getKey();
+                int x = (int) (key >> 32);
+                int y = (int) key;
+                if (x >= fromX && x <= toX && y >= fromY && y <= toY) {
+                    visitCell(entry.getValue(), easting, northing, limit, visitor);
+                }
+            }
+            return;
+        }
+        for (int x = fromX; x <= toX; x++) {
+            for (int y = fromY; y <= toY; y++) {
+                Cell cell = cells.get(key(x, y));
+                if (cell != null) {
+                    visitCell(cell, easting, northing, limit, visitor);
+                }
+            }
+        }
+    }
+
+    private static void visitCell(Cell cell, double easting, double northing, double limit, Visitor visitor) {
+        int size = cell.size;
+        for (int i = 0; i < size; i++) {
+            double de = cell.eastings[i] - easting;
+            double dn = cell.northings[i] - northing;
+            double squared = de * de + dn * dn;
+            if (squared <= limit) {
+                visitor.visit(cell.tours[i], cell.waypoints[i], Math.sqrt(squared));
+            }
+        }
+    }
+
+    /** @return the tours with a waypoint within radius of the location,
+     *          nearest first.
+     */
+    public List<Tour> toursWithin(double easting, double northing, double radius) {
+        return within(easting, northing, radius, false);
+    }
+
+    /** @return the tours whose first waypoint is within radius of the location,
+     *          nearest first.
+     */
+    public List<Tour> toursStartingWithin(double easting, double northing, double radius) {
+        return within(easting, northing, radius, true);
+    }
+
+    private List<Tour> within(double easting, double northing, double radius, final boolean startsOnly) {
+        final Map<Tour, Double> nearest = new IdentityHashMap<Tour, Double>();
+        visitWithin(easting, northing, radius, new Visitor() {
+            public void visit(Tour tour, int waypoint, double distance) {
+                if (startsOnly && waypoint != 0) {
+                    return;
+                }
+                Double best = nearest.get(tour);
+                if (best == null || distance < best) {
+                    nearest.put(tour, distance);
+                }
+            }
+        });
+        return byDistance(nearest, Integer.MAX_VALUE);
+    }
+
+    /** This method searches rings of cells outwards from the location until
+     *  no unvisited cell can hold a waypoint nearer than the k nearest tours
+     *  found so far.
+     *
+     * @return the k tours with the nearest waypoints, nearest first.
+     */
+    public List<Tour> nearestTours(double easting, double northing, int k) {
+        final Map<Tour, Double> nearest = new IdentityHashMap<Tour, Double>();
+        if (k <= 0 || cells.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int cx = cell(easting);
+        int cy = cell(northing);
+        int firstRing = Math.max(Math.max(minX - cx, cx - maxX), Math.max(minY - cy, cy - maxY));
+        int lastRing = Math.max(Math.max(cx - minX, maxX - cx), Math.max(cy - minY, maxY - cy));
+        for (int ring = Math.max(firstRing, 0); ring <= lastRing; ring++) {
+            // Once the rings cover more cells than are occupied,
+            // looking at all occupied cells is cheaper.
+            if ((2L * ring + 1) * (2L * ring + 1) > cells.size()) {
+                for (Cell cell : cells.values()) {
+                    visitNearest(cell, easting, northing, nearest);
+                }
+                break;
+            }
+            for (int x = cx - ring; x <= cx + ring; x++) {
+                boolean edge = x == cx - ring || x == cx + ring;
+                for (int y = cy - ring; y <= cy + ring; y += edge ? 1 : 2 * ring) {
+                    Cell cell = cells.get(key(x, y));
+                    if (cell != null) {
+                        visitNearest(cell, easting, northing, nearest);
+                    }
+                }
+            }
+            // Cells outside this ring are at least ring cells away.
+            if (nearest.size() >= k && kthDistance(nearest, k) <= ring * cellSize) {
+                break;
+            }
+        }
+        return byDistance(nearest, k);
+    }
+
+    private static void visitNearest(Cell cell, double easting, double northing, Map<Tour, Double> nearest) {
+        int size = cell.size;
+        for (int i = 0; i < size; i++) {
+            double de = cell.eastings[i] - easting;
+            double dn = cell.northings[i] - northing;
+            double distance = Math.sqrt(de * de + dn * dn);
+            Double best = nearest.get(cell.tours[i]);
+            if (best == null || distance < best) {
+                nearest.put(cell.tours[i], distance);
+            }
+        }
+    }
+
+    private static double kthDistance(Map<Tour, Double> nearest, int k) {
+        double[] distances = new double[nearest.size()];
+        int i = 0;
+        for (double distance : nearest.values()) {
+            distances[i++] = distance;
+        }
+        Arrays.sort(distances);
+        return distances[k - 1];
+    }
+
+    private static List<Tour> byDistance(final Map<Tour, Double> nearest, int k) {
+        List<Tour> tours = new ArrayList<Tour>(nearest.keySet());
+        Collections.sort(tours, new Comparator<Tour>() {
+            public int compare(Tour a, Tour b) {
+                int byDistance = Double.compare(nearest.get(a), nearest.get(b));
+                return byDistance != 0 ? byDistance : a.id.compareTo(b.id);
+            }
+        });
+        return tours.size() > k ? new ArrayList<Tour>(tours.subList(0, k)) : tours;
+    }
+
+}
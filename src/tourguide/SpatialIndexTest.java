@@ -0,0 +1,122 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class SpatialIndexTest {
+
+    private static void checkIds(List<Tour> tours, String... ids) {
+        Assert.assertEquals("Number of tours", ids.length, tours.size());
+        for (int i = 0; i < ids.length; i++) {
+            Assert.assertEquals(ids[i], tours.get(i).id);
+        }
+    }
+
+    private static double nearest(Tour tour, double easting, double northing) {
+        double best = Double.MAX_VALUE;
+        for (Waypoint waypoint : tour.waypoints) {
+            Displacement d = new Displacement(waypoint.location.easting - easting,
+                    waypoint.location.northing - northing);
+            best = Math.min(best, d.distance());
+        }
+        return best;
+    }
+
+    private static List<Tour> bruteForce(List<Tour> tours, final double easting, final double northing) {
+        List<Tour> sorted = new ArrayList<Tour>(tours);
+        Collections.sort(sorted, new Comparator<Tour>() {
+            public int compare(Tour a, Tour b) {
+                int byDistance = Double.compare(nearest(a, easting, northing), nearest(b, easting, northing));
+                return byDistance != 0 ? byDistance : a.id.compareTo(b.id);
+            }
+        });
+        return sorted;
+    }
+
+    @Test
+    public void nearAndFar() {
+        Library library = new Library();
+        library.addTour(TestTours.makeTour("T1", 300, -500));
+        library.addTour(TestTours.makeTour("T2", -500, 0, 1000, 300));
+        library.addTour(TestTours.makeTour("T3", 700, -900, 400, -600, 100, -300, 0, 0));
+
+        checkIds(library.nearestTours(0, 10, 1), "T3");
+        checkIds(library.nearestTours(950, 300, 2), "T2", "T3");
+        checkIds(library.toursWithin(0, 0, 400), "T3");
+        checkIds(library.toursWithin(-100, -100, 600), "T3", "T2", "T1");
+        checkIds(library.toursStartingWithin(-100, -100, 600), "T2", "T1");
+        checkIds(library.nearestTours(1e6, 1e6, 5), "T2", "T3", "T1");
+    }
+
+    @Test
+    public void emptyIndex() {
+        Library library = new Library();
+        checkIds(library.nearestTours(0, 0, 3));
+        checkIds(library.toursWithin(0, 0, 1000));
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(7);
+        Library library = new Library();
+        List<Tour> tours = new ArrayList<Tour>();
+        for (int i = 0; i < 300; i++) {
+            double[] coordinates = new double[2 * (1 + random.nextInt(5))];
+            for (int c = 0; c < coordinates.length; c++) {
+                coordinates[c] = random.nextDouble() * 20000 - 10000;
+            }
+            Tour tour = TestTours.makeTour("T" + i, coordinates);
+            tours.add(tour);
+            library.addTour(tour);
+        }
+
+        for (int q = 0; q < 50; q++) {
+            double easting = random.nextDouble() * 24000 - 12000;
+            double northing = random.nextDouble() * 24000 - 12000;
+            List<Tour> expected = bruteForce(tours, easting, northing);
+
+            Assert.assertEquals(expected.subList(0, 7), library.nearestTours(easting, northing, 7));
+
+            double radius = 1500;
+            List<Tour> within = new ArrayList<Tour>();
+            for (Tour tour : expected) {
+                if (nearest(tour, easting, northing) <= radius) {
+                    within.add(tour);
+                }
+            }
+            Assert.assertEquals(within, library.toursWithin(easting, northing, radius));
+        }
+    }
+
+    @Test
+    public void throughController() {
+        ControllerImp controller = new ControllerImp(10.0, 25.0);
+        Assert.assertNotEquals(Status.OK, controller.showNearestTours(3));
+
+        controller.library.addTour(TestTours.makeTour("T1", 300, -500));
+        controller.library.addTour(TestTours.makeTour("T2", -500, 0, 1000, 300));
+        controller.setLocation(900, 250);
+
+        Assert.assertEquals(Status.OK, controller.showNearestTours(1));
+        Chunk.BrowseOverview expected = new Chunk.BrowseOverview();
+        expected.addIdAndTitle("T2", "Tour T2");
+        Assert.assertEquals(expected, controller.getOutput().get(0));
+
+        Assert.assertEquals(Status.OK, controller.showToursNear(50));
+        Assert.assertEquals(new Chunk.BrowseOverview(), controller.getOutput().get(0));
+    }
+
+}
@@ -0,0 +1,24 @@
+package tourguide;
+
+/** The class TestTours makes the tours that the tests of the
+ *  spatial and follow engines run on.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+public class TestTours {
+
+    /*
+     * A tour through the waypoints at the given easting and northing pairs,
+     * annotated "Stop i", each reached by a leg annotated "Leg i".
+     */
+    public static Tour makeTour(String id, double... coordinates) {
+        Tour tour = new Tour(id, "Tour " + id, new Annotation("About " + id));
+        for (int i = 0; i < coordinates.length; i += 2) {
+            tour.legs.add(new Leg(new Annotation("Leg " + i / 2)));
+            tour.waypoints.add(new Waypoint(new Annotation("Stop " + i / 2),
+                    new Location(coordinates[i], coordinates[i + 1])));
+        }
+        return tour;
+    }
+
+}
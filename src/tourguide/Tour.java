@@ -6,12 +6,15 @@ package tourguide;
  *  @author Hristiyan Yaprakov and Kiril Rechanski
  **/
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.logging.Logger;
 
-public class Tour {
+public class Tour implements Serializable {
+    private static final long serialVersionUID = 1L;
+
 
     public String id;
     public String title;
@@ -19,6 +22,9 @@ public class Tour {
     public ArrayList<Waypoint> waypoints;
     public ArrayList<Leg> legs;
 
+    // Worked out from the waypoints on first use, once the tour is complete.
+    private transient volatile TourGeometry geometry;
+
     public Tour (String id, String title, Annotation ann) {
         this.id = id;
         this.title = title;
@@ -27,4 +33,17 @@ public class Tour {
         this.legs = new ArrayList<Leg>();
     }
 
+    /*
+     * The geometry of the tour. It is built once, so the tour must not
+     * change after this has been called.
+     */
+    public TourGeometry geometry() {
+        TourGeometry built = geometry;
+        if (built == null) {
+            built = new TourGeometry(this);
+            geometry = built;
+        }
+        return built;
+    }
+
 }
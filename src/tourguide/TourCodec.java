@@ -0,0 +1,260 @@
+package tourguide;
+
+/** The class TourCodec encodes a tour into a compact, versioned binary form.
+ *
+ *  All eastings and all northings are stored as contiguous blocks of
+ *  doubles at fixed offsets, and every annotation and title is an index
+ *  into a string table in which equal strings are stored once. A View
+ *  reads coordinates straight out of a ByteBuffer, including a
+ *  MappedByteBuffer, without creating any Location objects.
+ *
+ *  Layout, big-endian:
+ *  <pre>
+ *  int    magic
+ *  short  version
+ *  short  reserved
+ *  int    waypoint count n
+ *  int    leg count m
+ *  int    id, title and annotation string indexes
+ *  int    offset of the string table
+ *  double eastings[n]
+ *  double northings[n]
+ *  int    waypoint annotation indexes[n]
+ *  int    leg annotation indexes[m]
+ *  int    string count s, int string end offsets[s], UTF-8 bytes
+ *  </pre>
+ *  A string index of -1 stands for null, and a missing location is
+ *  stored as NaN coordinates.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TourCodec {
+
+    public static final int MAGIC = 0x54475431; // "TGT1"
+    public static final short VERSION = 1;
+
+    private static final int HEADER = 32;
+    private static final int WAYPOINTS = 8;
+    private static final int LEGS = 12;
+    private static final int ID = 16;
+    private static final int TITLE = 20;
+    private static final int ANNOTATION = 24;
+    private static final int STRINGS = 28;
+
+    //--------------------------
+    // Encoding
+    //--------------------------
+
+    /** @return the encoding of the given tour. */
+    public static byte[] encode(Tour tour) {
+        List<byte[]> strings = new ArrayList<byte[]>();
+        Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+
+        int n = tour.waypoints.size();
+        int m = tour.legs.size();
+        int id = intern(tour.id, strings, stringIndex);
+        int title = intern(tour.title, strings, stringIndex);
+        int annotation = intern(text(tour.annotation), strings, stringIndex);
+        int[] waypointAnnotations = new int[n];
+        for (int i = 0; i < n; i++) {
+            waypointAnnotations[i] = intern(text(tour.waypoints.get(i).annotation), strings, stringIndex);
+        }
+        int[] legAnnotations = new int[m];
+        for (int i = 0; i < m; i++) {
+            legAnnotations[i] = intern(text(tour.legs.get(i).annotation), strings, stringIndex);
+        }
+
+        int stringBytes = 0;
+        for (byte[] s : strings) {
+            stringBytes += s.length;
+        }
+        int stringTable = HEADER + 16 * n + 4 * n + 4 * m;
+        int size = stringTable + 4 + 4 * strings.size() + stringBytes;
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.putShort((short) 0);
+        out.putInt(n);
+        out.putInt(m);
+        out.putInt(id);
+        out.putInt(title);
+        out.putInt(annotation);
+        out.putInt(stringTable);
+        for (Waypoint waypoint : tour.waypoints) {
+            out.putDouble(waypoint.location == null ? Double.NaN : waypoint.location.easting);
+        }
+        for (Waypoint waypoint : tour.waypoints) {
+            out.putDouble(waypoint.location == null ? Double.NaN : waypoint.location.northing);
+        }
+        for (int index : waypointAnnotations) {
+            out.putInt(index);
+        }
+        for (int index : legAnnotations) {
+            out.putInt(index);
+        }
+        out.putInt(strings.size());
+        int end = 0;
+        for (byte[] s : strings) {
+            end += s.length;
+            out.putInt(end);
+        }
+        for (byte[] s : strings) {
+            out.put(s);
+        }
+        return out.array();
+    }
+
+    private static String text(Annotation annotation) {
+        return annotation == null ? null : annotation.toString();
+    }
+
+    private static int intern(String s, List<byte[]> strings, Map<String, Integer> stringIndex) {
+        if (s == null) {
+            return -1;
+        }
+        Integer index = stringIndex.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s.getBytes(StandardCharsets.UTF_8));
+            stringIndex.put(s, index);
+        }
+        return index;
+    }
+
+    //--------------------------
+    // Decoding
+    //--------------------------
+
+    /** @return a view of the encoded tour starting at the buffer's position. */
+    public static View view(ByteBuffer buffer) {
+        return new View(buffer, buffer.position());
+    }
+
+    /** This method decodes the tour starting at the buffer's position
+     *  and leaves the position just after it.
+     *
+     * @return the decoded tour.
+     */
+    public static Tour decode(ByteBuffer buffer) {
+        View view = view(buffer);
+        buffer.position(view.base + view.size());
+        return view.toTour();
+    }
+
+    /*
+     * A read-only window onto one encoded tour. Nothing is copied out
+     * of the buffer until it is asked for.
+     */
+    public static class View {
+        private final ByteBuffer buffer;
+        private final int base;
+        private final int waypoints;
+        private final int legs;
+        private final int strings;
+        private final int stringCount;
+
+        private View(ByteBuffer buffer, int base) {
+            if (buffer.getInt(base) != MAGIC) {
+                throw new IllegalArgumentException("Not an encoded tour");
+            }
+            short version = buffer.getShort(base + 4);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported tour encoding version: " + version);
+            }
+            this.buffer = buffer;
+            this.base = base;
+            this.waypoints = buffer.getInt(base + WAYPOINTS);
+            this.legs = buffer.getInt(base + LEGS);
+            this.strings = base + buffer.getInt(base + STRINGS);
+            this.stringCount = buffer.getInt(this.strings);
+        }
+
+        public int waypointCount() {
+            return waypoints;
+        }
+
+        public int legCount() {
+            return legs;
+        }
+
+        public double easting(int waypoint) {
+            return buffer.getDouble(base + HEADER + 8 * waypoint);
+        }
+
+        public double northing(int waypoint) {
+            return buffer.getDouble(base + HEADER + 8 * (waypoints + waypoint));
+        }
+
+        public String id() {
+            return string(buffer.getInt(base + ID));
+        }
+
+        public String title() {
+            return string(buffer.getInt(base + TITLE));
+        }
+
+        public Annotation annotation() {
+            return annotation(buffer.getInt(base + ANNOTATION));
+        }
+
+        public Annotation waypointAnnotation(int waypoint) {
+            return annotation(buffer.getInt(base + HEADER + 16 * waypoints + 4 * waypoint));
+        }
+
+        public Annotation legAnnotation(int leg) {
+            return annotation(buffer.getInt(base + HEADER + 20 * waypoints + 4 * leg));
+        }
+
+        /** @return the number of bytes taken by the encoded tour. */
+        public int size() {
+            int end = stringCount == 0 ? 0 : buffer.getInt(strings + 4 * stringCount);
+            return strings - base + 4 + 4 * stringCount + end;
+        }
+
+        /** @return the tour with all its waypoints and legs materialized. */
+        public Tour toTour() {
+            Tour tour = new Tour(id(), title(), annotation());
+            for (int i = 0; i < waypoints; i++) {
+                double easting = easting(i);
+                Location location = Double.isNaN(easting) ? null : new Location(easting, northing(i));
+                tour.waypoints.add(new Waypoint(waypointAnnotation(i), location));
+            }
+            for (int i = 0; i < legs; i++) {
+                tour.legs.add(new Leg(legAnnotation(i)));
+            }
+            return tour;
+        }
+
+        private Annotation annotation(int index) {
+            String text = string(index);
+            return text == null ? null : new Annotation(text);
+        }
+
+        private String string(int index) {
+            if (index < 0) {
+                return null;
+            }
+            int start = index == 0 ? 0 : buffer.getInt(strings + 4 * index);
+            int end = buffer.getInt(strings + 4 + 4 * index);
+            int from = strings + 4 + 4 * stringCount + start;
+            int length = end - start;
+            if (buffer.hasArray()) {
+                return new String(buffer.array(), buffer.arrayOffset() + from, length, StandardCharsets.UTF_8);
+            }
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(from + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class TourCodecTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Annotation ann(String s) { return new Annotation(s); }
+
+    private static Tour fourPointTour() {
+        Tour tour = new Tour("T2", "Royal Mile Walk", ann("A stroll down the famous Royal Mile\n"));
+        tour.legs.add(new Leg(ann("Start from Edinburgh Castle.\n")));
+        tour.waypoints.add(new Waypoint(ann("Edinburgh Castle"), new Location(700, -900)));
+        tour.legs.add(new Leg(Annotation.DEFAULT));
+        tour.waypoints.add(new Waypoint(ann("Camera Obscura"), new Location(400, -600)));
+        tour.legs.add(new Leg(Annotation.DEFAULT));
+        tour.waypoints.add(new Waypoint(ann("Whisky Museum \u2013 caf\u00e9"), new Location(100.25, -300.5)));
+        tour.legs.add(new Leg(ann("Stop by St Giles.\n")));
+        tour.waypoints.add(new Waypoint(ann("St Giles Cathedral"), new Location(0, 0)));
+        return tour;
+    }
+
+    private static void checkSameTour(Tour expected, Tour actual) {
+        Assert.assertEquals(expected.id, actual.id);
+        Assert.assertEquals(expected.title, actual.title);
+        Assert.assertEquals(expected.annotation, actual.annotation);
+        Assert.assertEquals(expected.waypoints.size(), actual.waypoints.size());
+        for (int i = 0; i < expected.waypoints.size(); i++) {
+            Waypoint e = expected.waypoints.get(i);
+            Waypoint a = actual.waypoints.get(i);
+            Assert.assertEquals(e.annotation, a.annotation);
+            Assert.assertEquals(e.location.easting, a.location.easting, 0.0);
+            Assert.assertEquals(e.location.northing, a.location.northing, 0.0);
+        }
+        Assert.assertEquals(expected.legs.size(), actual.legs.size());
+        for (int i = 0; i < expected.legs.size(); i++) {
+            Assert.assertEquals(expected.legs.get(i).annotation, actual.legs.get(i).annotation);
+        }
+    }
+
+    @Test
+    public void roundTrip() {
+        Tour tour = fourPointTour();
+        checkSameTour(tour, TourCodec.decode(ByteBuffer.wrap(TourCodec.encode(tour))));
+    }
+
+    @Test
+    public void roundTripEmptyAndNull() {
+        Tour tour = new Tour("T0", "Nowhere", null);
+        Tour decoded = TourCodec.decode(ByteBuffer.wrap(TourCodec.encode(tour)));
+        Assert.assertEquals("T0", decoded.id);
+        Assert.assertNull(decoded.annotation);
+        Assert.assertEquals(0, decoded.waypoints.size());
+        Assert.assertEquals(0, decoded.legs.size());
+    }
+
+    @Test
+    public void decodeLeavesPositionAfterTour() {
+        byte[] first = TourCodec.encode(fourPointTour());
+        byte[] second = TourCodec.encode(new Tour("T9", "Next", ann("After")));
+        ByteBuffer buffer = ByteBuffer.allocate(first.length + second.length);
+        buffer.put(first).put(second).flip();
+
+        Assert.assertEquals("T2", TourCodec.decode(buffer).id);
+        Assert.assertEquals("T9", TourCodec.decode(buffer).id);
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void sharedAnnotationsStoredOnce() {
+        Tour tour = fourPointTour();
+        int before = TourCodec.encode(tour).length;
+        tour.legs.get(3).annotation = Annotation.DEFAULT;
+        int after = TourCodec.encode(tour).length;
+        Assert.assertTrue(after < before);
+    }
+
+    @Test
+    public void coordinatesFromMappedFile() throws IOException {
+        File file = folder.newFile("tour.bin");
+        byte[] bytes = TourCodec.encode(fourPointTour());
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.write(new byte[3]);
+            out.write(bytes);
+        }
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.position(3);
+            TourCodec.View view = TourCodec.view(mapped);
+
+            Assert.assertEquals(4, view.waypointCount());
+            Assert.assertEquals(4, view.legCount());
+            Assert.assertEquals(700.0, view.easting(0), 0.0);
+            Assert.assertEquals(-900.0, view.northing(0), 0.0);
+            Assert.assertEquals(100.25, view.easting(2), 0.0);
+            Assert.assertEquals(-300.5, view.northing(2), 0.0);
+            Assert.assertEquals("Royal Mile Walk", view.title());
+            Assert.assertEquals(ann("Whisky Museum \u2013 caf\u00e9"), view.waypointAnnotation(2));
+            Assert.assertEquals(bytes.length, view.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVersionRejected() {
+        byte[] bytes = TourCodec.encode(fourPointTour());
+        bytes[5] = 99;
+        TourCodec.view(ByteBuffer.wrap(bytes));
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package tourguide;
+
+/** The class TourGeometry holds the shape of a tour worked out once,
+ *  so that following it needs no more than array lookups per location update.
+ *
+ *  Leg i is the leg leading to waypoint i. The first leg starts wherever
+ *  the user starts following from, so it has no vector or length of its own.
+ *  Waypoints without a location have NaN coordinates, which are never
+ *  within any distance.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+public final class TourGeometry {
+
+    private final double[] eastings;
+    private final double[] northings;
+
+    private final double[] legEast;
+    private final double[] legNorth;
+    private final double[] legLength;
+
+    // Distance along the tour from the first waypoint to each waypoint.
+    private final double[] along;
+
+    public final double minEasting;
+    public final double minNorthing;
+    public final double maxEasting;
+    public final double maxNorthing;
+
+    public TourGeometry(Tour tour) {
+        int n = tour.waypoints.size();
+        eastings = new double[n];
+        northings = new double[n];
+        legEast = new double[n];
+        legNorth = new double[n];
+        legLength = new double[n];
+        along = new double[n];
+
+        double minE = Double.POSITIVE_INFINITY, minN = Double.POSITIVE_INFINITY;
+        double maxE = Double.NEGATIVE_INFINITY, maxN = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            Location location = tour.waypoints.get(i).location;
+            eastings[i] = location == null ? Double.NaN : location.easting;
+            northings[i] = location == null ? Double.NaN : location.northing;
+
+            if (i > 0) {
+                legEast[i] = eastings[i] - eastings[i - 1];
+                legNorth[i] = northings[i] - northings[i - 1];
+                legLength[i] = Displacement.distance(legEast[i], legNorth[i]);
+                // A leg to or from a waypoint without a location adds nothing.
+                along[i] = along[i - 1] + (Double.isNaN(legLength[i]) ? 0 : legLength[i]);
+            }
+
+            if (location != null) {
+                minE = Math.min(minE, eastings[i]);
+                minN = Math.min(minN, northings[i]);
+                maxE = Math.max(maxE, eastings[i]);
+                maxN = Math.max(maxN, northings[i]);
+            }
+        }
+        minEasting = minE;
+        minNorthing = minN;
+        maxEasting = maxE;
+        maxNorthing = maxN;
+    }
+
+    public int size() {
+        return eastings.length;
+    }
+
+    public double easting(int waypoint) {
+        return eastings[waypoint];
+    }
+
+    public double northing(int waypoint) {
+        return northings[waypoint];
+    }
+
+    public double legEast(int leg) {
+        return legEast[leg];
+    }
+
+    public double legNorth(int leg) {
+        return legNorth[leg];
+    }
+
+    public double legLength(int leg) {
+        return legLength[leg];
+    }
+
+    /*
+     * The distance along the tour from the first waypoint to the given one.
+     */
+    public double along(int waypoint) {
+        return along[waypoint];
+    }
+
+    /*
+     * The distance along the tour from the first waypoint to the last.
+     */
+    public double length() {
+        return eastings.length == 0 ? 0 : along[eastings.length - 1];
+    }
+
+    /*
+     * The distance left along the tour once the given waypoint has been reached.
+     */
+    public double remainingAfter(int waypoint) {
+        return length() - along[waypoint];
+    }
+
+    public double distanceSquared(int waypoint, double easting, double northing) {
+        double east = eastings[waypoint] - easting;
+        double north = northings[waypoint] - northing;
+        return east * east + north * north;
+    }
+
+    /*
+     * Whether a location is inside the bounding box of the tour grown by margin,
+     * a quick way to tell a user is nowhere near any of its waypoints.
+     */
+    public boolean near(double easting, double northing, double margin) {
+        return easting >= minEasting - margin && easting <= maxEasting + margin
+                && northing >= minNorthing - margin && northing <= maxNorthing + margin;
+    }
+
+}
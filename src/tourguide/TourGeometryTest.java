@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package tourguide;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class TourGeometryTest {
+
+    private static final double EPS = 1e-9;
+
+    private static Tour makeTour(double... coordinates) {
+        Tour tour = new Tour("T1", "Tour", new Annotation("About"));
+        for (int i = 0; i < coordinates.length; i += 2) {
+            tour.legs.add(new Leg(Annotation.DEFAULT));
+            tour.waypoints.add(new Waypoint(new Annotation("Stop " + i / 2),
+                    new Location(coordinates[i], coordinates[i + 1])));
+        }
+        return tour;
+    }
+
+    @Test
+    public void legsAndDistances() {
+        TourGeometry geometry = new TourGeometry(makeTour(0, 0, 30, 40, 30, 100, -10, 100));
+
+        Assert.assertEquals(4, geometry.size());
+        Assert.assertEquals(0, geometry.legLength(0), EPS);
+        Assert.assertEquals(30, geometry.legEast(1), EPS);
+        Assert.assertEquals(40, geometry.legNorth(1), EPS);
+        Assert.assertEquals(50, geometry.legLength(1), EPS);
+        Assert.assertEquals(60, geometry.legLength(2), EPS);
+        Assert.assertEquals(110, geometry.along(2), EPS);
+        Assert.assertEquals(150, geometry.length(), EPS);
+        Assert.assertEquals(40, geometry.remainingAfter(2), EPS);
+        Assert.assertEquals(25, geometry.distanceSquared(1, 33, 44), EPS);
+    }
+
+    @Test
+    public void boundingBox() {
+        TourGeometry geometry = new TourGeometry(makeTour(0, 0, 30, 40, 30, 100, -10, 100));
+
+        Assert.assertEquals(-10, geometry.minEasting, EPS);
+        Assert.assertEquals(0, geometry.minNorthing, EPS);
+        Assert.assertEquals(30, geometry.maxEasting, EPS);
+        Assert.assertEquals(100, geometry.maxNorthing, EPS);
+        Assert.assertTrue(geometry.near(35, 50, 5));
+        Assert.assertFalse(geometry.near(36, 50, 5));
+    }
+
+    @Test
+    public void builtOnce() {
+        Tour tour = makeTour(0, 0);
+        Assert.assertSame(tour.geometry(), tour.geometry());
+        Assert.assertEquals(0, tour.geometry().length(), EPS);
+        Assert.assertEquals(0, new TourGeometry(makeTour()).length(), EPS);
+    }
+
+}
@@ -0,0 +1,395 @@
+package tourguide;
+
+/** The class TourStore keeps the tours of a library on disk.
+ *
+ *  Committed tours are appended to a log which is forced to disk in
+ *  batches. Once the log holds as many tours as the last snapshot, and at
+ *  least compactThreshold, the whole library is written out as a compacted
+ *  snapshot and the log is started again with the tours appended meanwhile.
+ *  As the snapshot grows the log has to grow with it before the next one,
+ *  so rewriting snapshots costs a constant amount per tour added.
+ *
+ *  A snapshot starts with a catalogue of every tour's id and title,
+ *  followed by the encoded tours themselves, so that the catalogue can be
+ *  read without decoding any waypoints or legs. Snapshots are read through
+ *  a memory-mapped buffer. Tours are stored in the TourCodec encoding.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+public class TourStore implements Closeable {
+
+    private static final int SNAPSHOT_MAGIC = 0x54475331; // "TGS1"
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int BODIES_OFFSET = 12;
+    private static final int RECORD_HEADER = 8;
+
+    public static final int DEFAULT_SYNC_BATCH = 64;
+    public static final int DEFAULT_COMPACT_THRESHOLD = 10000;
+
+    private final File snapshotFile;
+    private final File logFile;
+    private final int syncBatch;
+    private final int compactThreshold;
+
+    private FileChannel log;
+    private int unsynced;
+    private int logRecords;
+    private int snapshotRecords;
+
+    // Where the log ended and how many tours it held when the compaction
+    // under way started, or -1 if there is none.
+    private long compactFrom = -1;
+    private int compactRecords;
+
+    public TourStore(File directory) throws IOException {
+        this(directory, DEFAULT_SYNC_BATCH, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /*
+     * syncBatch is the number of appended tours after which the log is forced
+     * to disk, and compactThreshold the number of logged tours after which the
+     * library should be compacted into a new snapshot.
+     */
+    public TourStore(File directory, int syncBatch, int compactThreshold) throws IOException {
+        Files.createDirectories(directory.toPath());
+        this.snapshotFile = new File(directory, "tours.snapshot");
+        this.logFile = new File(directory, "tours.log");
+        this.syncBatch = syncBatch;
+        this.compactThreshold = compactThreshold;
+        this.log = FileChannel.open(logFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    //--------------------------
+    // Loading
+    //--------------------------
+
+    /** This method reads every stored tour: first the snapshot and then the
+     *  tours logged after it. A torn record at the end of the log, left by a
+     *  crash in the middle of an append, is cut off.
+     *
+     * @return the stored tours in the order they were committed.
+     */
+    public List<Tour> load() throws IOException {
+        List<Tour> tours = new ArrayList<Tour>();
+
+        ByteBuffer snapshot = mapSnapshot();
+        this.snapshotRecords = 0;
+        if (snapshot != null) {
+            int count = readSnapshotHeader(snapshot);
+            snapshot.position(snapshot.getInt(BODIES_OFFSET));
+            for (int i = 0; i < count; i++) {
+                tours.add(TourCodec.decode(snapshot));
+            }
+            this.snapshotRecords = count;
+        }
+
+        // The log is read through the channel rather than mapped, as a
+        // mapped file cannot be truncated on every platform.
+        long end = log.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        ByteBuffer payload = ByteBuffer.allocate(0);
+        long valid = 0;
+        this.logRecords = 0;
+        while (end - valid >= RECORD_HEADER) {
+            header.clear();
+            readFully(log, header, valid);
+            int length = header.getInt(0);
+            int checksum = header.getInt(4);
+            if (length < 0 || length > end - valid - RECORD_HEADER) {
+                break;
+            }
+            if (payload.capacity() < length) {
+                payload = ByteBuffer.allocate(Math.max(length, 2 * payload.capacity()));
+            }
+            payload.clear().limit(length);
+            readFully(log, payload, valid + RECORD_HEADER);
+            payload.flip();
+            if (checksum != checksum(payload)) {
+                break;
+            }
+            tours.add(TourCodec.decode(payload));
+            valid += RECORD_HEADER + length;
+            this.logRecords++;
+        }
+        if (valid < end) {
+            Log.warning("truncatedLogTail");
+            log.truncate(valid);
+        }
+        log.position(valid);
+
+        Log.log(Level.FINER, () -> "toursLoaded: " + tours.size());
+        return tours;
+    }
+
+    /** This method reads only the catalogue section of the snapshot,
+     *  without decoding any tour bodies or replaying the log.
+     *
+     * @return an id and title line for each tour in the snapshot.
+     */
+    public List<Chunk.OverviewLine> loadCatalogue() throws IOException {
+        List<Chunk.OverviewLine> lines = new ArrayList<Chunk.OverviewLine>();
+        ByteBuffer snapshot = mapSnapshot();
+        if (snapshot != null) {
+            int count = readSnapshotHeader(snapshot);
+            for (int i = 0; i < count; i++) {
+                String id = readString(snapshot);
+                String title = readString(snapshot);
+                lines.add(new Chunk.OverviewLine(id, title));
+            }
+        }
+        return lines;
+    }
+
+    private MappedByteBuffer mapSnapshot() throws IOException {
+        if (!snapshotFile.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /*
+     * Leaves the buffer at the start of the catalogue and returns the number of tours.
+     */
+    private int readSnapshotHeader(ByteBuffer snapshot) throws IOException {
+        if (snapshot.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a tour snapshot: " + snapshotFile);
+        }
+        int version = snapshot.getInt();
+        if (version != SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported tour snapshot version: " + version);
+        }
+        int count = snapshot.getInt();
+        snapshot.getInt(); // offset of the tour bodies
+        return count;
+    }
+
+    //--------------------------
+    // Writing
+    //--------------------------
+
+    /** This method appends a committed tour to the log. The log is forced
+     *  to disk once every syncBatch tours, or earlier through sync().
+     */
+    public synchronized void append(Tour tour) throws IOException {
+        byte[] payload = TourCodec.encode(tour);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+        record.putInt(payload.length);
+        record.putInt(checksum(ByteBuffer.wrap(payload)));
+        record.put(payload);
+        record.flip();
+        while (record.hasRemaining()) {
+            log.write(record);
+        }
+        this.logRecords++;
+        if (++this.unsynced >= this.syncBatch) {
+            sync();
+        }
+    }
+
+    /** Forces every appended tour to disk. */
+    public synchronized void sync() throws IOException {
+        if (this.unsynced > 0) {
+            log.force(false);
+            this.unsynced = 0;
+        }
+    }
+
+    /** @return whether the log has grown long enough to be compacted:
+     *  to compactThreshold tours and to as many as the last snapshot.
+     */
+    public synchronized boolean needsCompaction() {
+        return this.compactFrom < 0
+                && this.logRecords >= this.compactThreshold
+                && this.logRecords >= this.snapshotRecords;
+    }
+
+    /** This method starts a compaction of the tours committed so far.
+     *  Tours appended after it are kept in the log when it is done.
+     *
+     * @return false if a compaction is already under way.
+     */
+    public synchronized boolean startCompaction() throws IOException {
+        if (this.compactFrom >= 0) {
+            return false;
+        }
+        sync();
+        this.compactFrom = log.position();
+        this.compactRecords = this.logRecords;
+        return true;
+    }
+
+    /** This method writes the given tours, every tour committed when the
+     *  compaction was started, as a new snapshot and drops them from the
+     *  log. A compaction is started first if none has been.
+     *  The snapshot is written without holding the store, so that tours
+     *  can still be appended meanwhile. It is written to a temporary file
+     *  and moved into place, so a crash leaves either the old or the new one.
+     */
+    public void compact(Collection<Tour> tours) throws IOException {
+        synchronized (this) {
+            if (this.compactFrom < 0) {
+                startCompaction();
+            }
+        }
+        try {
+            writeSnapshot(tours);
+            synchronized (this) {
+                dropCompacted();
+                this.snapshotRecords = tours.size();
+            }
+        } finally {
+            synchronized (this) {
+                this.compactFrom = -1;
+            }
+        }
+        Log.log(Level.FINER, () -> "snapshotWritten: " + tours.size());
+    }
+
+    private void writeSnapshot(Collection<Tour> tours) throws IOException {
+        List<byte[]> bodies = new ArrayList<byte[]>(tours.size());
+        ByteArrayOutputStream catalogue = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(catalogue);
+        for (Tour tour : tours) {
+            writeString(out, tour.id);
+            writeString(out, tour.title);
+            bodies.add(TourCodec.encode(tour));
+        }
+        out.flush();
+
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putInt(SNAPSHOT_MAGIC);
+            header.putInt(SNAPSHOT_VERSION);
+            header.putInt(bodies.size());
+            header.putInt(16 + catalogue.size());
+            header.flip();
+            writeFully(channel, header);
+            writeFully(channel, ByteBuffer.wrap(catalogue.toByteArray()));
+            for (byte[] body : bodies) {
+                writeFully(channel, ByteBuffer.wrap(body));
+            }
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), snapshotFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Drops the tours logged before the compaction started, which are now
+     * part of the snapshot. Should we crash before the log is replaced,
+     * they are replayed again and rejected as duplicates.
+     */
+    private void dropCompacted() throws IOException {
+        long end = log.position();
+        if (end == this.compactFrom) {
+            log.truncate(0);
+            log.position(0);
+            log.force(true);
+        } else {
+            // Start a new log with the tours appended during the compaction.
+            sync();
+            File temp = new File(logFile.getPath() + ".tmp");
+            try (FileChannel tail = FileChannel.open(temp.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (long at = this.compactFrom; at < end; ) {
+                    at += log.transferTo(at, end - at, tail);
+                }
+                tail.force(true);
+            }
+            log.close();
+            Files.move(temp.toPath(), logFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.log = FileChannel.open(logFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            log.position(log.size());
+        }
+        this.logRecords -= this.compactRecords;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        log.close();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("The log ended while being read.");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    //--------------------------
+    // Catalogue strings
+    //--------------------------
+
+    /*
+     * Strings are written as their UTF-8 length followed by the bytes,
+     * with a length of -1 standing for null.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes, 0, length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + length);
+        return s;
+    }
+
+}
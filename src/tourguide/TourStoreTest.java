@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class TourStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Annotation ann(String s) { return new Annotation(s); }
+
+    private static Tour makeTour(String id, String title) {
+        Tour tour = new Tour(id, title, ann("About " + title + "\n"));
+        tour.legs.add(new Leg(Annotation.DEFAULT));
+        tour.waypoints.add(new Waypoint(ann("First"), new Location(-500, 0)));
+        tour.legs.add(new Leg(ann("Royal Mile\n")));
+        tour.waypoints.add(new Waypoint(ann("Second"), new Location(1000, 300)));
+        return tour;
+    }
+
+    private static void checkSameTour(Tour expected, Tour actual) {
+        Assert.assertEquals(expected.id, actual.id);
+        Assert.assertEquals(expected.title, actual.title);
+        Assert.assertEquals(expected.annotation, actual.annotation);
+        Assert.assertEquals(expected.waypoints.size(), actual.waypoints.size());
+        for (int i = 0; i < expected.waypoints.size(); i++) {
+            Waypoint e = expected.waypoints.get(i);
+            Waypoint a = actual.waypoints.get(i);
+            Assert.assertEquals(e.annotation, a.annotation);
+            Assert.assertEquals(e.location.easting, a.location.easting, 0.0);
+            Assert.assertEquals(e.location.northing, a.location.northing, 0.0);
+        }
+        Assert.assertEquals(expected.legs.size(), actual.legs.size());
+        for (int i = 0; i < expected.legs.size(); i++) {
+            Assert.assertEquals(expected.legs.get(i).annotation, actual.legs.get(i).annotation);
+        }
+    }
+
+    @Test
+    public void toursSurviveRestart() throws IOException {
+        File dir = folder.getRoot();
+        Tour t1 = makeTour("T1", "Old Town");
+
+        try (TourStore store = new TourStore(dir)) {
+            Library library = new Library(store);
+            Assert.assertTrue(library.addTour(t1));
+        }
+
+        try (TourStore store = new TourStore(dir)) {
+            Library library = new Library(store);
+            Assert.assertEquals(1, library.size());
+            checkSameTour(t1, library.getTour("T1"));
+        }
+    }
+
+    @Test
+    public void snapshotAndLogTail() throws IOException {
+        File dir = folder.getRoot();
+        List<Tour> tours = new ArrayList<Tour>();
+        for (int i = 0; i < 7; i++) {
+            tours.add(makeTour("T" + i, "Tour " + i));
+        }
+
+        // Compact after every third tour, leaving one tour in the log.
+        try (TourStore store = new TourStore(dir, 1, 3)) {
+            Library library = new Library(store);
+            for (Tour tour : tours) {
+                Assert.assertTrue(library.addTour(tour));
+            }
+        }
+
+        try (TourStore store = new TourStore(dir)) {
+            Assert.assertEquals(6, store.loadCatalogue().size());
+            Library library = new Library(store);
+            Assert.assertEquals(7, library.size());
+            for (Tour tour : tours) {
+                checkSameTour(tour, library.getTour(tour.id));
+            }
+        }
+    }
+
+    @Test
+    public void compactionWaitsForLogToMatchSnapshot() throws IOException {
+        File dir = folder.getRoot();
+
+        // Snapshots of 2, 4 and 8 tours, leaving the last two in the log.
+        try (TourStore store = new TourStore(dir, 1, 2)) {
+            Library library = new Library(store);
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(library.addTour(makeTour("T" + i, "Tour " + i)));
+            }
+        }
+
+        try (TourStore store = new TourStore(dir)) {
+            Assert.assertEquals(8, store.loadCatalogue().size());
+            Assert.assertEquals(10, new Library(store).size());
+        }
+    }
+
+    @Test
+    public void toursAppendedDuringCompactionStayLogged() throws IOException {
+        File dir = folder.getRoot();
+        Tour t1 = makeTour("T1", "Old Town");
+        Tour t2 = makeTour("T2", "New Town");
+
+        try (TourStore store = new TourStore(dir)) {
+            store.load();
+            store.append(t1);
+            Assert.assertTrue(store.startCompaction());
+            Assert.assertFalse(store.startCompaction());
+            store.append(t2);
+            store.compact(Collections.singletonList(t1));
+        }
+
+        try (TourStore store = new TourStore(dir)) {
+            Assert.assertEquals(1, store.loadCatalogue().size());
+            Library library = new Library(store);
+            Assert.assertEquals(2, library.size());
+            checkSameTour(t2, library.getTour("T2"));
+        }
+    }
+
+    @Test
+    public void tornLogTailIsDropped() throws IOException {
+        File dir = folder.getRoot();
+
+        try (TourStore store = new TourStore(dir)) {
+            Library library = new Library(store);
+            library.addTour(makeTour("T1", "Old Town"));
+            library.addTour(makeTour("T2", "New Town"));
+        }
+
+        File log = new File(dir, "tours.log");
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        try (TourStore store = new TourStore(dir)) {
+            Library library = new Library(store);
+            Assert.assertEquals(1, library.size());
+            Assert.assertTrue(library.addTour(makeTour("T3", "Leith")));
+        }
+
+        try (TourStore store = new TourStore(dir)) {
+            Library library = new Library(store);
+            Assert.assertTrue(library.containsTour("T1"));
+            Assert.assertFalse(library.containsTour("T2"));
+            Assert.assertTrue(library.containsTour("T3"));
+        }
+    }
+
+    @Test
+    public void catalogueWithoutTours() throws IOException {
+        try (TourStore store = new TourStore(folder.getRoot())) {
+            Library library = new Library(store);
+            library.addTour(makeTour("B", "Second"));
+            library.addTour(makeTour("A", "First"));
+            library.compact();
+
+            List<Chunk.OverviewLine> lines = store.loadCatalogue();
+            Assert.assertEquals(new Chunk.OverviewLine("A", "First"), lines.get(0));
+            Assert.assertEquals(new Chunk.OverviewLine("B", "Second"), lines.get(1));
+        }
+    }
+
+}
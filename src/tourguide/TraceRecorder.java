@@ -0,0 +1,355 @@
+package tourguide;
+
+/** The class TraceRecorder records what sessions are told to do, so that
+ *  it can be played back later by TraceReplay.
+ *
+ *  record() wraps a session's controller in one that passes every command
+ *  on and writes the ones that matter for following a tour to the trace:
+ *  the locations given, with the time they were given and a digest of the
+ *  follow output they led to, and the tours followed and ended. A session
+ *  is written out with a snapshot of its state when first seen, and again
+ *  after each command creating a tour, so a replay starts every session
+ *  where it really was. Browsing is not recorded.
+ *
+ *  Layout, big-endian:
+ *  <pre>
+ *  int    magic
+ *  short  version
+ *  double waypoint radius, waypoint separation
+ *  then records, each
+ *  byte   kind, varint session, varint milliseconds since the last record
+ *  SESSION  UTF id, varint length, snapshot bytes
+ *  STATE    varint length, snapshot bytes
+ *  FOLLOW   UTF tour id
+ *  END
+ *  LOCATION double easting, northing, int digest
+ *  FIX      double easting, northing, long timestamp, int digest
+ *  BATCH    varint count, byte timed, count * (easting, northing[, timestamp]), int digest
+ *  </pre>
+ *  Sessions are numbered in the order their SESSION records appear. A
+ *  digest of 0 means the output was not a follow output and is not compared.
+ *  Writes from different sessions may come from different threads.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+public class TraceRecorder implements Closeable {
+
+    public static final int MAGIC = 0x54475231; // "TGR1"
+    public static final short VERSION = 1;
+
+    static final byte SESSION = 0;
+    static final byte STATE = 1;
+    static final byte FOLLOW = 2;
+    static final byte END = 3;
+    static final byte LOCATION = 4;
+    static final byte FIX = 5;
+    static final byte BATCH = 6;
+
+    private final DataOutputStream out;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Recording> recordings;
+    private int sessions;
+    private long lastTime;
+    private long records;
+
+    public TraceRecorder(OutputStream out, double waypointRadius, double waypointSeparation)
+            throws IOException {
+        this(out, waypointRadius, waypointSeparation, System::currentTimeMillis);
+    }
+
+    public TraceRecorder(OutputStream out, double waypointRadius, double waypointSeparation,
+                         LongSupplier clock) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.clock = clock;
+        this.recordings = new ConcurrentHashMap<String, Recording>();
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+        this.out.writeDouble(waypointRadius);
+        this.out.writeDouble(waypointSeparation);
+        this.lastTime = clock.getAsLong();
+    }
+
+    /** This method gives the controller of the session with the given id,
+     *  wrapped so that what it is told is recorded. A session is one
+     *  controller: given another under the same id, a new session is recorded.
+     *
+     * @return the recording controller.
+     */
+    public Controller record(String sessionId, Controller controller) {
+        Recording recording = recordings.get(sessionId);
+        if (recording == null || recording.controller != controller) {
+            recording = new Recording(sessionId, controller);
+            recordings.put(sessionId, recording);
+        }
+        return recording;
+    }
+
+    /** @return the number of records written. */
+    public synchronized long records() {
+        return records;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    //--------------------------
+    // Writing
+    //--------------------------
+
+    /*
+     * Starts a record. The caller holds the recorder's monitor.
+     */
+    private void begin(byte kind, int session) throws IOException {
+        long now = clock.getAsLong();
+        out.writeByte(kind);
+        writeVarint(session);
+        writeVarint(Math.max(0, now - lastTime));
+        lastTime = Math.max(lastTime, now);
+        records++;
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeVarint(bytes.length);
+        out.write(bytes);
+    }
+
+    /*
+     * A digest of the output if it is a follow output, otherwise 0.
+     */
+    static int digest(List<Chunk> output) {
+        if (output.isEmpty() || !(output.get(0) instanceof Chunk.FollowHeader)) {
+            return 0;
+        }
+        int digest = 0;
+        for (Chunk chunk : output) {
+            digest = 31 * digest + chunk.toString().hashCode();
+        }
+        return digest == 0 ? 1 : digest;
+    }
+
+    /*
+     * A session's controller, recording what it is told.
+     */
+    private class Recording implements Controller {
+        private final Controller controller;
+        private final int session;
+
+        Recording(String sessionId, Controller controller) {
+            this.controller = controller;
+            synchronized (TraceRecorder.this) {
+                this.session = sessions++;
+                try {
+                    begin(SESSION, session);
+                    out.writeUTF(sessionId);
+                    writeBytes(controller.snapshot());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private Status state(Status status) {
+            if (status == Status.OK) {
+                writeState();
+            }
+            return status;
+        }
+
+        private void writeState() {
+            synchronized (TraceRecorder.this) {
+                try {
+                    begin(STATE, session);
+                    writeBytes(controller.snapshot());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        @Override
+        public Status startNewTour(String id, String title, Annotation annotation) {
+            return state(controller.startNewTour(id, title, annotation));
+        }
+
+        @Override
+        public Status addWaypoint(Annotation annotation) {
+            return state(controller.addWaypoint(annotation));
+        }
+
+        @Override
+        public Status addLeg(Annotation annotation) {
+            return state(controller.addLeg(annotation));
+        }
+
+        @Override
+        public Status endNewTour() {
+            return state(controller.endNewTour());
+        }
+
+        @Override
+        public Status showTourDetails(String id) {
+            return controller.showTourDetails(id);
+        }
+
+        @Override
+        public Status showToursOverview() {
+            return controller.showToursOverview();
+        }
+
+        @Override
+        public Status showToursOverview(String afterId, int pageSize) {
+            return controller.showToursOverview(afterId, pageSize);
+        }
+
+        @Override
+        public Status searchTours(String query, int limit) {
+            return controller.searchTours(query, limit);
+        }
+
+        @Override
+        public Status showNearestTours(int count) {
+            return controller.showNearestTours(count);
+        }
+
+        @Override
+        public Status showToursNear(double radius) {
+            return controller.showToursNear(radius);
+        }
+
+        @Override
+        public Status followTour(String id) {
+            Status status = controller.followTour(id);
+            synchronized (TraceRecorder.this) {
+                try {
+                    begin(FOLLOW, session);
+                    out.writeUTF(id);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return status;
+        }
+
+        @Override
+        public Status endSelectedTour() {
+            Status status = controller.endSelectedTour();
+            synchronized (TraceRecorder.this) {
+                try {
+                    begin(END, session);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return status;
+        }
+
+        @Override
+        public void setLocation(double easting, double northing) {
+            controller.setLocation(easting, northing);
+            int digest = digest(controller.getOutput());
+            synchronized (TraceRecorder.this) {
+                try {
+                    begin(LOCATION, session);
+                    out.writeDouble(easting);
+                    out.writeDouble(northing);
+                    out.writeInt(digest);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        @Override
+        public void setLocation(double easting, double northing, long timestamp) {
+            controller.setLocation(easting, northing, timestamp);
+            int digest = digest(controller.getOutput());
+            synchronized (TraceRecorder.this) {
+                try {
+                    begin(FIX, session);
+                    out.writeDouble(easting);
+                    out.writeDouble(northing);
+                    out.writeLong(timestamp);
+                    out.writeInt(digest);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        @Override
+        public Status setLocations(double[] eastings, double[] northings, long[] timestamps) {
+            Status status = controller.setLocations(eastings, northings, timestamps);
+            if (status != Status.OK) {
+                return status;
+            }
+            int digest = digest(controller.getOutput());
+            synchronized (TraceRecorder.this) {
+                try {
+                    begin(BATCH, session);
+                    writeVarint(eastings.length);
+                    out.writeBoolean(timestamps != null);
+                    for (int i = 0; i < eastings.length; i++) {
+                        out.writeDouble(eastings[i]);
+                        out.writeDouble(northings[i]);
+                        if (timestamps != null) {
+                            out.writeLong(timestamps[i]);
+                        }
+                    }
+                    out.writeInt(digest);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return status;
+        }
+
+        @Override
+        public List<Chunk> getOutput() {
+            return controller.getOutput();
+        }
+
+        @Override
+        public List<Chunk> getOutputDelta(String consumer) {
+            return controller.getOutputDelta(consumer);
+        }
+
+        @Override
+        public void resetOutputDelta(String consumer) {
+            controller.resetOutputDelta(consumer);
+        }
+
+        @Override
+        public byte[] snapshot() {
+            return controller.snapshot();
+        }
+
+        @Override
+        public Status restore(byte[] snapshot) {
+            // Even a failed restore leaves the session browsing.
+            Status status = controller.restore(snapshot);
+            writeState();
+            return status;
+        }
+    }
+
+}
@@ -0,0 +1,437 @@
+package tourguide;
+
+/** The class TraceReplay plays a trace written by TraceRecorder back into
+ *  fresh controllers on a library, as fast as it can or at a multiple of
+ *  the speed it was recorded at.
+ *
+ *  The trace is read into primitive arrays up front, so that playing it
+ *  back costs no more than the controllers themselves. Each location
+ *  update is timed on its own, and its follow output compared with the
+ *  digest recorded for it. A replay is only faithful on a library holding
+ *  the same tours as the one recorded on.
+ *
+ *  After each update the output a client would be sent, either all of it
+ *  or just the delta, is encoded with ChunkCodec and counted, to show how
+ *  much goes out.
+ *
+ *  Usage: java tourguide.TraceReplay trace storeDirectory [speed] [delta]
+ *  where speed 0, the default, plays the trace back as fast as possible.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class TraceReplay {
+
+    // The consumer each replayed session's deltas are read for.
+    private static final String CLIENT = "replay";
+
+    /*
+     * A trace, one record per index. Every fix of a batch follows its
+     * BATCH record at the same index in the coordinate arrays.
+     */
+    public static class Trace {
+        public final double waypointRadius;
+        public final double waypointSeparation;
+
+        private int size;
+        private byte[] kinds = new byte[1024];
+        private int[] sessions = new int[1024];
+        private long[] times = new long[1024];
+        private double[] eastings = new double[1024];
+        private double[] northings = new double[1024];
+        private long[] timestamps = new long[1024];
+        private int[] digests = new int[1024];
+        private int[] counts = new int[1024];
+        private final List<String> strings = new ArrayList<String>();
+        private final List<byte[]> snapshots = new ArrayList<byte[]>();
+        private int fixes;
+
+        Trace(double waypointRadius, double waypointSeparation) {
+            this.waypointRadius = waypointRadius;
+            this.waypointSeparation = waypointSeparation;
+        }
+
+        /** @return the number of records. */
+        public int size() {
+            return size;
+        }
+
+        /** @return the number of locations given, batched or not. */
+        public int fixes() {
+            return fixes;
+        }
+
+        /** @return the number of sessions. */
+        public int sessions() {
+            int sessions = 0;
+            for (int i = 0; i < size; i++) {
+                if (kinds[i] == TraceRecorder.SESSION) {
+                    sessions++;
+                }
+            }
+            return sessions;
+        }
+
+        /** @return the milliseconds from the first record to the last. */
+        public long duration() {
+            return size == 0 ? 0 : times[size - 1] - times[0];
+        }
+
+        private int add(byte kind, int session, long time) {
+            if (size == kinds.length) {
+                int length = size * 2;
+                kinds = Arrays.copyOf(kinds, length);
+                sessions = Arrays.copyOf(sessions, length);
+                times = Arrays.copyOf(times, length);
+                eastings = Arrays.copyOf(eastings, length);
+                northings = Arrays.copyOf(northings, length);
+                timestamps = Arrays.copyOf(timestamps, length);
+                digests = Arrays.copyOf(digests, length);
+                counts = Arrays.copyOf(counts, length);
+            }
+            kinds[size] = kind;
+            sessions[size] = session;
+            times[size] = time;
+            return size++;
+        }
+    }
+
+    /*
+     * What a replay measured.
+     */
+    public static class Report {
+        public final long updates;
+        public final long elapsedNanos;
+        public final long compared;
+        public final long divergent;
+        public final int firstDivergence;
+        // The time spent in the controllers alone, without reading the trace or comparing outputs.
+        public final long controllerNanos;
+        // What clients would have been sent after the updates: non-empty messages,
+        // the chunks in them and their encoded size.
+        public final long messages;
+        public final long chunksSent;
+        public final long bytesSent;
+        private final long[] latencies;
+
+        Report(long updates, long elapsedNanos, long compared, long divergent,
+               int firstDivergence, long[] latencies, long messages, long chunksSent, long bytesSent) {
+            this.updates = updates;
+            this.elapsedNanos = elapsedNanos;
+            this.compared = compared;
+            this.divergent = divergent;
+            this.firstDivergence = firstDivergence;
+            this.latencies = latencies;
+            long controllerNanos = 0;
+            for (long latency : latencies) {
+                controllerNanos += latency;
+            }
+            this.controllerNanos = controllerNanos;
+            this.messages = messages;
+            this.chunksSent = chunksSent;
+            this.bytesSent = bytesSent;
+            Arrays.sort(this.latencies);
+        }
+
+        /** @return the locations taken per second, batched or not. */
+        public double updatesPerSecond() {
+            return elapsedNanos == 0 ? 0 : updates * 1e9 / elapsedNanos;
+        }
+
+        /** @return the locations the controllers alone took per second. */
+        public double controllerUpdatesPerSecond() {
+            return controllerNanos == 0 ? 0 : updates * 1e9 / controllerNanos;
+        }
+
+        /** @return the latency of a location update, or a batch of them,
+         *          at the given percentile, in nanoseconds. */
+        public long percentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+        }
+
+        public String toString() {
+            return String.format("%d updates in %.1f ms, %.0f updates/s, %.0f updates/s in the controllers%n"
+                    + "latency ns: p50 %d, p90 %d, p99 %d, p99.9 %d, max %d%n"
+                    + "divergent outputs: %d of %d compared%s%n"
+                    + "sent: %d messages, %d chunks, %d bytes%n",
+                    updates, elapsedNanos / 1e6, updatesPerSecond(), controllerUpdatesPerSecond(),
+                    percentile(50), percentile(90), percentile(99), percentile(99.9), percentile(100),
+                    divergent, compared,
+                    divergent == 0 ? "" : ", first at record " + firstDivergence,
+                    messages, chunksSent, bytesSent);
+        }
+    }
+
+    //--------------------------
+    // Reading
+    //--------------------------
+
+    /** @return the trace read from the stream, up to its end. */
+    public static Trace read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != TraceRecorder.MAGIC) {
+            throw new IOException("Not a trace");
+        }
+        short version = in.readShort();
+        if (version != TraceRecorder.VERSION) {
+            throw new IOException("Unsupported trace version: " + version);
+        }
+        Trace trace = new Trace(in.readDouble(), in.readDouble());
+
+        long time = 0;
+        while (true) {
+            int kind = in.read();
+            if (kind < 0) {
+                break;
+            }
+            int mark = trace.size;
+            try {
+                time = readRecord(in, trace, kind, time);
+            } catch (EOFException e) {
+                // A record cut short by a recorder that was never closed.
+                trace.size = mark;
+                break;
+            }
+        }
+        return trace;
+    }
+
+    /*
+     * Reads the rest of a record of the given kind.
+     * @return the time of the record.
+     */
+    private static long readRecord(DataInputStream in, Trace trace, int kind, long time)
+            throws IOException {
+        int session = (int) readVarint(in);
+        time += readVarint(in);
+        int i = trace.add((byte) kind, session, time);
+        switch (kind) {
+            case TraceRecorder.SESSION:
+                trace.strings.add(in.readUTF());
+                trace.counts[i] = trace.snapshots.size();
+                trace.snapshots.add(readBytes(in));
+                break;
+            case TraceRecorder.STATE:
+                trace.counts[i] = trace.snapshots.size();
+                trace.snapshots.add(readBytes(in));
+                break;
+            case TraceRecorder.FOLLOW:
+                trace.counts[i] = trace.strings.size();
+                trace.strings.add(in.readUTF());
+                break;
+            case TraceRecorder.END:
+                break;
+            case TraceRecorder.LOCATION:
+            case TraceRecorder.FIX:
+                trace.eastings[i] = in.readDouble();
+                trace.northings[i] = in.readDouble();
+                trace.timestamps[i] = kind == TraceRecorder.FIX ? in.readLong() : Long.MIN_VALUE;
+                trace.digests[i] = in.readInt();
+                trace.fixes++;
+                break;
+            case TraceRecorder.BATCH:
+                int count = (int) readVarint(in);
+                boolean timed = in.readBoolean();
+                trace.counts[i] = count;
+                for (int f = 0; f < count; f++) {
+                    int j = trace.add(TraceRecorder.BATCH, session, time);
+                    trace.counts[j] = -1;
+                    trace.eastings[j] = in.readDouble();
+                    trace.northings[j] = in.readDouble();
+                    trace.timestamps[j] = timed ? in.readLong() : Long.MIN_VALUE;
+                }
+                trace.digests[i] = in.readInt();
+                trace.fixes += count;
+                break;
+            default:
+                throw new IOException("Unknown trace record: " + kind);
+        }
+        return time;
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarint(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    //--------------------------
+    // Replaying
+    //--------------------------
+
+    /** This method plays the trace back on the library, sending clients
+     *  the whole output after every update.
+     *
+     * @return what the replay measured.
+     */
+    public static Report replay(Trace trace, Library library, double speed) {
+        return replay(trace, library, speed, false);
+    }
+
+    /** This method plays the trace back on the library. A speed of 0 plays
+     *  it as fast as possible, otherwise at that multiple of real time.
+     *  With delta, clients are sent only what changed after each update.
+     *
+     * @return what the replay measured.
+     */
+    public static Report replay(Trace trace, Library library, double speed, boolean delta) {
+        List<ControllerImp> controllers = new ArrayList<ControllerImp>();
+        long[] latencies = new long[trace.fixes];
+        int timed = 0;
+        long updates = 0, compared = 0, divergent = 0;
+        int firstDivergence = -1;
+        long messages = 0, chunksSent = 0, bytesSent = 0;
+        ByteBuffer message = ByteBuffer.allocate(4096);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < trace.size; i++) {
+            byte kind = trace.kinds[i];
+            if (kind == TraceRecorder.BATCH && trace.counts[i] < 0) {
+                continue;
+            }
+            if (speed > 0) {
+                long due = start + (long) ((trace.times[i] - trace.times[0]) * 1e6 / speed);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+
+            int session = trace.sessions[i];
+            if (kind == TraceRecorder.SESSION) {
+                ControllerImp controller = new ControllerImp(trace.waypointRadius,
+                        trace.waypointSeparation, library);
+                controller.restore(trace.snapshots.get(trace.counts[i]));
+                controllers.add(controller);
+                continue;
+            }
+            ControllerImp controller = controllers.get(session);
+            long began;
+            switch (kind) {
+                case TraceRecorder.STATE:
+                    controller.restore(trace.snapshots.get(trace.counts[i]));
+                    continue;
+                case TraceRecorder.FOLLOW:
+                    controller.followTour(trace.strings.get(trace.counts[i]));
+                    continue;
+                case TraceRecorder.END:
+                    controller.endSelectedTour();
+                    continue;
+                case TraceRecorder.LOCATION:
+                    began = System.nanoTime();
+                    controller.setLocation(trace.eastings[i], trace.northings[i]);
+                    latencies[timed++] = System.nanoTime() - began;
+                    updates++;
+                    break;
+                case TraceRecorder.FIX:
+                    began = System.nanoTime();
+                    controller.setLocation(trace.eastings[i], trace.northings[i], trace.timestamps[i]);
+                    latencies[timed++] = System.nanoTime() - began;
+                    updates++;
+                    break;
+                default:
+                    int count = trace.counts[i];
+                    double[] eastings = Arrays.copyOfRange(trace.eastings, i + 1, i + 1 + count);
+                    double[] northings = Arrays.copyOfRange(trace.northings, i + 1, i + 1 + count);
+                    long[] timestamps = count == 0 || trace.timestamps[i + 1] == Long.MIN_VALUE
+                            ? null : Arrays.copyOfRange(trace.timestamps, i + 1, i + 1 + count);
+                    began = System.nanoTime();
+                    controller.setLocations(eastings, northings, timestamps);
+                    latencies[timed++] = System.nanoTime() - began;
+                    updates += count;
+            }
+
+            if (trace.digests[i] != 0) {
+                compared++;
+                if (TraceRecorder.digest(controller.getOutput()) != trace.digests[i]) {
+                    if (divergent++ == 0) {
+                        firstDivergence = i;
+                    }
+                }
+            }
+
+            List<Chunk> sent = delta ? controller.getOutputDelta(CLIENT) : controller.getOutput();
+            if (!sent.isEmpty()) {
+                messages++;
+                chunksSent += sent.size();
+                message = encode(sent, message);
+                bytesSent += message.position();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        return new Report(updates, elapsed, compared, divergent, firstDivergence,
+                Arrays.copyOf(latencies, timed), messages, chunksSent, bytesSent);
+    }
+
+    /*
+     * Encodes the chunks into the buffer, or a larger one should they not fit.
+     * @return the buffer they are in.
+     */
+    private static ByteBuffer encode(List<Chunk> chunks, ByteBuffer buffer) {
+        while (true) {
+            buffer.clear();
+            try {
+                ChunkCodec.encode(chunks, buffer);
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java tourguide.TraceReplay trace storeDirectory [speed] [delta]");
+            System.exit(2);
+        }
+        Logger.getLogger("tourguide").setLevel(Level.OFF);
+
+        Trace trace;
+        try (InputStream in = new FileInputStream(args[0])) {
+            trace = read(in);
+        }
+        Library library = new Library();
+        try (TourStore store = new TourStore(new File(args[1]))) {
+            for (Tour tour : store.load()) {
+                library.addTour(tour);
+            }
+        }
+        double speed = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        boolean delta = args.length > 3 && args[3].equals("delta");
+
+        System.out.printf("%d records, %d sessions, %d fixes over %.1f s%n",
+                trace.size(), trace.sessions(), trace.fixes(), trace.duration() / 1e3);
+        System.out.print(replay(trace, library, speed, delta));
+    }
+
+}
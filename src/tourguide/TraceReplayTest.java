@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class TraceReplayTest {
+
+    private static final double WAYPOINT_RADIUS = 10.0;
+    private static final double WAYPOINT_SEPARATION = 25.0;
+
+    private AtomicLong now;
+    private ByteArrayOutputStream bytes;
+    private TraceRecorder recorder;
+
+    private static Tour makeTour(String id, double shift) {
+        Tour tour = new Tour(id, "Tour " + id, new Annotation("About " + id));
+        for (int w = 0; w < 4; w++) {
+            tour.legs.add(new Leg(new Annotation("Leg " + w)));
+            tour.waypoints.add(new Waypoint(new Annotation("Stop " + w),
+                    new Location(w * 100 + shift, 0)));
+        }
+        return tour;
+    }
+
+    private static Library makeLibrary(double shift) {
+        Library library = new Library();
+        library.addTour(makeTour("T1", shift));
+        return library;
+    }
+
+    @Before
+    public void setup() throws IOException {
+        now = new AtomicLong(1000);
+        bytes = new ByteArrayOutputStream();
+        recorder = new TraceRecorder(bytes, WAYPOINT_RADIUS, WAYPOINT_SEPARATION, now::get);
+    }
+
+    /*
+     * Two sessions walking the tour a metre a second, one fix at a time
+     * and one in batches of ten.
+     */
+    private TraceReplay.Trace record(Library library) throws IOException {
+        Controller single = recorder.record("single",
+                new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library));
+        Controller batched = recorder.record("batched",
+                new ControllerImp(WAYPOINT_RADIUS, WAYPOINT_SEPARATION, library));
+        single.setLocation(-20, 0);
+        batched.setLocation(-20, 0);
+        Assert.assertEquals(Status.OK, single.followTour("T1"));
+        Assert.assertEquals(Status.OK, batched.followTour("T1"));
+
+        double[] eastings = new double[10];
+        double[] northings = new double[10];
+        long[] times = new long[10];
+        for (int t = 0; t < 340; t++) {
+            now.incrementAndGet();
+            single.setLocation(t - 20, t % 3, now.get());
+            eastings[t % 10] = t - 20;
+            northings[t % 10] = -(t % 3);
+            times[t % 10] = now.get();
+            if (t % 10 == 9) {
+                Assert.assertEquals(Status.OK, batched.setLocations(eastings, northings, times));
+            }
+        }
+        Assert.assertEquals(new Chunk.FollowHeader("Tour T1", 4, 4), single.getOutput().get(0));
+        single.endSelectedTour();
+        recorder.close();
+        return TraceReplay.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    public void replayMatchesRecording() throws IOException {
+        Library library = makeLibrary(0);
+        TraceReplay.Trace trace = record(library);
+
+        Assert.assertEquals(2, trace.sessions());
+        Assert.assertEquals(682, trace.fixes());
+        Assert.assertEquals(340, trace.duration());
+        Assert.assertTrue("Trace of " + bytes.size() + " bytes", bytes.size() < 680 * 30);
+
+        TraceReplay.Report report = TraceReplay.replay(trace, makeLibrary(0), 0);
+        Assert.assertEquals(682, report.updates);
+        Assert.assertEquals(340 + 34, report.compared);
+        Assert.assertEquals(0, report.divergent);
+        Assert.assertTrue(report.percentile(50) <= report.percentile(99));
+    }
+
+    @Test
+    public void replayOnAnotherLibraryDiverges() throws IOException {
+        TraceReplay.Trace trace = record(makeLibrary(0));
+
+        TraceReplay.Report report = TraceReplay.replay(trace, makeLibrary(50), 0);
+        Assert.assertTrue(report.divergent > 0);
+        Assert.assertTrue(report.firstDivergence >= 0);
+    }
+
+    @Test
+    public void replayAtMultipleOfRealTime() throws IOException {
+        TraceReplay.Trace trace = record(makeLibrary(0));
+
+        // 340 ms of trace at ten times the speed.
+        TraceReplay.Report report = TraceReplay.replay(trace, makeLibrary(0), 10);
+        Assert.assertTrue(report.elapsedNanos >= 34000000L);
+        Assert.assertEquals(0, report.divergent);
+    }
+
+    @Test
+    public void truncatedTraceReadsUpToTheCut() throws IOException {
+        record(makeLibrary(0));
+        byte[] whole = bytes.toByteArray();
+        TraceReplay.Trace trace = TraceReplay.read(
+                new ByteArrayInputStream(Arrays.copyOf(whole, whole.length - 5)));
+        Assert.assertEquals(TraceReplay.read(new ByteArrayInputStream(whole)).size() - 2 - 10,
+                trace.size());
+    }
+
+}
@@ -0,0 +1,306 @@
+package tourguide;
+
+/** The class TransitionLog keeps the latest transitions of one session:
+ *  changes of mode, stages advanced, waypoints revisited and commands
+ *  refused, so that what a session went through can be dumped when a user
+ *  reports a problem with it.
+ *
+ *  The log is a ring of the last CAPACITY transitions, kept in arrays of
+ *  primitives so that logging one allocates nothing. It is written by one
+ *  thread at a time, the one running the session's command, and read
+ *  without any lock, so a session can be dumped while it runs: each slot
+ *  carries the sequence number of the transition in it, set aside while
+ *  the slot is written, and a reader drops any slot whose number changed
+ *  under it. Only transitions are logged, never plain location updates,
+ *  so the log is cheap enough to be on for every session.
+ *
+ *  Every transition is also committed as a JDK Flight Recorder event of
+ *  the "Tour Guide" category, which costs a check of whether the event
+ *  is enabled when no recording is running.
+ *  @author Hristiyan Yaprakov and Kiril Rechanski
+ **/
+
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+public class TransitionLog {
+
+    // A power of two, so that a position in the ring is a mask away.
+    public static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+    private static final Mode[] MODES = Mode.values();
+    private static final Kind[] KINDS = Kind.values();
+
+    public enum Kind {
+        MODE, STAGE, REVISIT, REJECTED
+    }
+
+    /*
+     * One transition. The fields that do not apply to its kind are null,
+     * or -1 for the stage.
+     */
+    public static class Transition {
+        public final long time;
+        public final Kind kind;
+        public final Mode from;
+        public final Mode to;
+        public final String tourId;
+        public final int stage;
+        public final String reason;
+
+        Transition(long time, Kind kind, Mode from, Mode to, String tourId, int stage, String reason) {
+            this.time = time;
+            this.kind = kind;
+            this.from = from;
+            this.to = to;
+            this.tourId = tourId;
+            this.stage = stage;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(Instant.ofEpochMilli(time)).append(' ').append(kind);
+            switch (kind) {
+                case MODE:
+                    text.append(' ').append(from).append(" -> ").append(to);
+                    break;
+                case STAGE:
+                    text.append(' ').append(stage - 1).append(" -> ").append(stage);
+                    break;
+                case REVISIT:
+                    text.append(" waypoint ").append(stage);
+                    break;
+                case REJECTED:
+                    text.append(' ').append(reason).append(" in ").append(from);
+                    break;
+            }
+            if (tourId != null) {
+                text.append(" tour ").append(tourId);
+            }
+            return text.toString();
+        }
+    }
+
+    //--------------------------
+    // Flight Recorder events
+    //--------------------------
+
+    @Name("tourguide.ModeChange")
+    @Label("Mode Change")
+    @Category("Tour Guide")
+    @Description("A session changed between browsing, creating and following tours")
+    public static class ModeChangeEvent extends jdk.jfr.Event {
+        @Label("Session")
+        public String session;
+        @Label("From")
+        public String from;
+        @Label("To")
+        public String to;
+        @Label("Tour")
+        public String tourId;
+    }
+
+    @Name("tourguide.StageAdvance")
+    @Label("Stage Advance")
+    @Category("Tour Guide")
+    @Description("A session following a tour reached the next waypoint")
+    public static class StageAdvanceEvent extends jdk.jfr.Event {
+        @Label("Session")
+        public String session;
+        @Label("Tour")
+        public String tourId;
+        @Label("Stage")
+        public int stage;
+    }
+
+    @Name("tourguide.WaypointRevisit")
+    @Label("Waypoint Revisit")
+    @Category("Tour Guide")
+    @Description("A session following a tour came back to the waypoint it last reached")
+    public static class WaypointRevisitEvent extends jdk.jfr.Event {
+        @Label("Session")
+        public String session;
+        @Label("Tour")
+        public String tourId;
+        @Label("Waypoint")
+        public int waypoint;
+    }
+
+    @Name("tourguide.CommandRejected")
+    @Label("Command Rejected")
+    @Category("Tour Guide")
+    @Description("A session refused a command")
+    public static class CommandRejectedEvent extends jdk.jfr.Event {
+        @Label("Session")
+        public String session;
+        @Label("Reason")
+        public String reason;
+        @Label("Mode")
+        public String mode;
+        @Label("Tour")
+        public String tourId;
+    }
+
+    // The sequence number of the transition in each slot, or -1 while it is written.
+    private final AtomicLongArray sequences;
+    private final long[] times;
+    private final byte[] kinds;
+    // Mode ordinals, or -1.
+    private final byte[] froms;
+    private final byte[] tos;
+    private final int[] stages;
+    private final String[] tourIds;
+    private final String[] reasons;
+    private final AtomicLong next;
+    private final LongSupplier clock;
+
+    public TransitionLog() {
+        this(System::currentTimeMillis);
+    }
+
+    public TransitionLog(LongSupplier clock) {
+        this.sequences = new AtomicLongArray(CAPACITY);
+        for (int slot = 0; slot < CAPACITY; slot++) {
+            this.sequences.set(slot, -1);
+        }
+        this.times = new long[CAPACITY];
+        this.kinds = new byte[CAPACITY];
+        this.froms = new byte[CAPACITY];
+        this.tos = new byte[CAPACITY];
+        this.stages = new int[CAPACITY];
+        this.tourIds = new String[CAPACITY];
+        this.reasons = new String[CAPACITY];
+        this.next = new AtomicLong();
+        this.clock = clock;
+    }
+
+    //--------------------------
+    // Recording
+    //--------------------------
+
+    public void modeChanged(String session, Mode from, Mode to, String tourId) {
+        add(Kind.MODE, from, to, tourId, -1, null);
+        ModeChangeEvent event = new ModeChangeEvent();
+        if (event.isEnabled()) {
+            event.session = session;
+            event.from = from.name();
+            event.to = to.name();
+            event.tourId = tourId;
+            event.commit();
+        }
+    }
+
+    /** Logs the move of a session on to the given stage. */
+    public void stageAdvanced(String session, String tourId, int stage) {
+        add(Kind.STAGE, null, null, tourId, stage, null);
+        StageAdvanceEvent event = new StageAdvanceEvent();
+        if (event.isEnabled()) {
+            event.session = session;
+            event.tourId = tourId;
+            event.stage = stage;
+            event.commit();
+        }
+    }
+
+    public void waypointRevisited(String session, String tourId, int waypoint) {
+        add(Kind.REVISIT, null, null, tourId, waypoint, null);
+        WaypointRevisitEvent event = new WaypointRevisitEvent();
+        if (event.isEnabled()) {
+            event.session = session;
+            event.tourId = tourId;
+            event.waypoint = waypoint;
+            event.commit();
+        }
+    }
+
+    public void rejected(String session, String reason, Mode mode, String tourId) {
+        add(Kind.REJECTED, mode, null, tourId, -1, reason);
+        CommandRejectedEvent event = new CommandRejectedEvent();
+        if (event.isEnabled()) {
+            event.session = session;
+            event.reason = reason;
+            event.mode = mode.name();
+            event.tourId = tourId;
+            event.commit();
+        }
+    }
+
+    private void add(Kind kind, Mode from, Mode to, String tourId, int stage, String reason) {
+        long sequence = next.get();
+        int slot = (int) sequence & MASK;
+        sequences.setPlain(slot, -1);
+        // Keep the writes below from being seen before the slot is set aside.
+        VarHandle.storeStoreFence();
+        times[slot] = clock.getAsLong();
+        kinds[slot] = (byte) kind.ordinal();
+        froms[slot] = (byte) (from == null ? -1 : from.ordinal());
+        tos[slot] = (byte) (to == null ? -1 : to.ordinal());
+        stages[slot] = stage;
+        tourIds[slot] = tourId;
+        reasons[slot] = reason;
+        sequences.setRelease(slot, sequence);
+        next.setRelease(sequence + 1);
+    }
+
+    //--------------------------
+    // Reading
+    //--------------------------
+
+    /** @return the number of transitions ever logged. */
+    public long count() {
+        return next.get();
+    }
+
+    /** @return the transitions still in the log, oldest first. */
+    public List<Transition> recent() {
+        long end = next.get();
+        List<Transition> recent = new ArrayList<Transition>(CAPACITY);
+        for (long sequence = Math.max(0, end - CAPACITY); sequence < end; sequence++) {
+            int slot = (int) sequence & MASK;
+            if (sequences.getAcquire(slot) != sequence) {
+                continue;
+            }
+            long time = times[slot];
+            Kind kind = KINDS[kinds[slot]];
+            byte from = froms[slot];
+            byte to = tos[slot];
+            int stage = stages[slot];
+            String tourId = tourIds[slot];
+            String reason = reasons[slot];
+            VarHandle.loadLoadFence();
+            // Written over by a later transition while it was read.
+            if (sequences.get(slot) != sequence) {
+                continue;
+            }
+            recent.add(new Transition(time, kind, from < 0 ? null : MODES[from], to < 0 ? null : MODES[to],
+                    tourId, stage, reason));
+        }
+        return recent;
+    }
+
+    /** @return the transitions still in the log as text, one to a line. */
+    public String dump() {
+        StringBuilder text = new StringBuilder();
+        long dropped = next.get() - CAPACITY;
+        if (dropped > 0) {
+            text.append("... ").append(dropped).append(" earlier").append(System.lineSeparator());
+        }
+        for (Transition transition : recent()) {
+            text.append(transition).append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+}
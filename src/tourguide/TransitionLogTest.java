@@ -0,0 +1,165 @@
+/**
+ *
+ */
+package tourguide;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * @author Hristiyan Yaprakov and Kiril Rechanski
+ *
+ */
+public class TransitionLogTest {
+
+    private Library library;
+    private ControllerImp controller;
+
+    private static Annotation ann(String s) { return new Annotation(s); }
+
+    @Before
+    public void setup() {
+        library = new Library();
+        controller = new ControllerImp(10.0, 25.0, library);
+        controller.sessionId = "alice";
+        controller.startNewTour("T1", "Walk", ann("A walk"));
+        controller.setLocation(0, 0);
+        controller.addWaypoint(ann("Start"));
+        controller.addLeg(ann("Onwards"));
+        controller.setLocation(0, 100);
+        controller.addWaypoint(ann("End"));
+        controller.endNewTour();
+    }
+
+    private List<TransitionLog.Kind> kinds() {
+        List<TransitionLog.Kind> kinds = new ArrayList<TransitionLog.Kind>();
+        for (TransitionLog.Transition transition : controller.transitions.recent()) {
+            kinds.add(transition.kind);
+        }
+        return kinds;
+    }
+
+    /*
+     * Follows the tour, going back to the first waypoint on the way and
+     * lingering in each waypoint reached.
+     */
+    private void walk() {
+        controller.setLocation(0, -20);
+        controller.followTour("T1");
+        controller.setLocation(0, 0);
+        controller.setLocation(0, 5);
+        controller.setLocation(0, 30);
+        controller.setLocation(0, 3);
+        controller.setLocation(0, 4);
+        controller.setLocations(new double[] {0, 0, 0}, new double[] {50, 99, 101}, null);
+        controller.endSelectedTour();
+    }
+
+    @Test
+    public void transitionsOfASession() {
+        controller.addLeg(null);
+        walk();
+
+        List<TransitionLog.Transition> recent = controller.transitions.recent();
+        Assert.assertEquals(Arrays.asList(
+                TransitionLog.Kind.MODE, TransitionLog.Kind.MODE, TransitionLog.Kind.REJECTED,
+                TransitionLog.Kind.MODE, TransitionLog.Kind.STAGE, TransitionLog.Kind.REVISIT,
+                TransitionLog.Kind.STAGE, TransitionLog.Kind.MODE), kinds());
+
+        Assert.assertEquals(Mode.BROWSE, recent.get(0).from);
+        Assert.assertEquals(Mode.CREATE, recent.get(0).to);
+        Assert.assertEquals("T1", recent.get(1).tourId);
+        Assert.assertEquals("NOT_IN_CREATE_MODE", recent.get(2).reason);
+        Assert.assertEquals(1, recent.get(4).stage);
+        Assert.assertEquals(0, recent.get(5).stage);
+        Assert.assertEquals(2, recent.get(6).stage);
+        Assert.assertEquals(Mode.FOLLOW, recent.get(7).from);
+        Assert.assertEquals("T1", recent.get(7).tourId);
+
+        String dump = controller.transitions.dump();
+        Assert.assertTrue(dump, dump.contains("MODE FOLLOW -> BROWSE tour T1"));
+        Assert.assertTrue(dump, dump.contains("REVISIT waypoint 0 tour T1"));
+    }
+
+    @Test
+    public void everyRefusalLogged() {
+        controller.startNewTour("T1", "Again", ann("A second T1"));
+        controller.showTourDetails("T1");
+        controller.addWaypoint(ann("Start"));
+        controller.endNewTour();
+        controller.restore(new byte[] {ControllerImp.SNAPSHOT_VERSION});
+
+        List<TransitionLog.Transition> recent = controller.transitions.recent();
+        List<String> refused = new ArrayList<String>();
+        for (TransitionLog.Transition transition : recent) {
+            if (transition.kind == TransitionLog.Kind.REJECTED) {
+                refused.add(transition.reason + " in " + transition.from);
+            }
+        }
+        Assert.assertEquals(Arrays.asList("NOT_IN_BROWSE_MODE in CREATE", "TOUR_ID_EXISTS in CREATE",
+                "SNAPSHOT_DAMAGED in CREATE"), refused);
+        Assert.assertEquals(Mode.BROWSE, recent.get(recent.size() - 1).to);
+    }
+
+    @Test
+    public void ringKeepsTheLatest() {
+        TransitionLog log = new TransitionLog(() -> 0);
+        for (int stage = 1; stage <= TransitionLog.CAPACITY + 10; stage++) {
+            log.stageAdvanced("alice", "T1", stage);
+        }
+        List<TransitionLog.Transition> recent = log.recent();
+        Assert.assertEquals(TransitionLog.CAPACITY, recent.size());
+        Assert.assertEquals(11, recent.get(0).stage);
+        Assert.assertEquals(TransitionLog.CAPACITY + 10, recent.get(recent.size() - 1).stage);
+        Assert.assertTrue(log.dump().startsWith("... 10 earlier"));
+    }
+
+    @Test
+    public void sessionsDumpedByTheHost() {
+        SessionHost host = new SessionHost(library, 10.0, 25.0, 60000, 10);
+        host.execute("bob", c -> c.endSelectedTour());
+        Assert.assertTrue(host.dumpTransitions("bob").contains("REJECTED NOT_IN_FOLLOW_MODE in BROWSE"));
+        Assert.assertNull(host.dumpTransitions("carol"));
+    }
+
+    @Test
+    public void flightRecorderEvents() throws IOException {
+        Path file = Files.createTempFile("transitions", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"ModeChange", "StageAdvance", "WaypointRevisit", "CommandRejected"}) {
+                recording.enable("tourguide." + name);
+            }
+            recording.start();
+            controller.addLeg(null);
+            walk();
+            recording.stop();
+            recording.dump(file);
+
+            List<String> names = new ArrayList<String>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().startsWith("tourguide.")) {
+                    names.add(event.getEventType().getName());
+                    Assert.assertEquals("alice", event.getString("session"));
+                }
+            }
+            Assert.assertEquals(Arrays.asList(
+                    "tourguide.CommandRejected", "tourguide.ModeChange", "tourguide.StageAdvance",
+                    "tourguide.WaypointRevisit", "tourguide.StageAdvance", "tourguide.ModeChange"), names);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
@@ -1,12 +1,16 @@
 
 package tourguide;
 
+import java.io.Serializable;
+
 /** The class Waypoint hold the information about a Point of interest
  *  and its location.
  *  @author Hristiyan Yaprakov and Kiril Rechanski
  **/
 
-public class Waypoint {
+public class Waypoint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
 
     public Annotation annotation;
     public Location location;